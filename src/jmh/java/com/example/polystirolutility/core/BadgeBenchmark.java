@@ -0,0 +1,47 @@
+package com.example.polystirolutility.core;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Badge.getUnicodeString вызывается при каждом обновлении префикса в TAB и в чате
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BadgeBenchmark {
+	private Badge badge;
+	private Badge supplementaryBadge;
+
+	@Setup
+	public void setUp() {
+		badge = new Badge(UUID.randomUUID(), "Бэйджик", "Описание", null, Badge.BadgeType.PERMANENT, "E001", Instant.now());
+		// Символ вне базовой плоскости (суррогатная пара)
+		supplementaryBadge = new Badge(UUID.randomUUID(), "Бэйджик", "Описание", null, Badge.BadgeType.EVENT, "F0001", Instant.now());
+	}
+
+	@Benchmark
+	public String unicodeString() {
+		return badge.getUnicodeString();
+	}
+
+	@Benchmark
+	public String unicodeStringSupplementary() {
+		return supplementaryBadge.getUnicodeString();
+	}
+}
@@ -0,0 +1,122 @@
+package com.example.polystirolutility.core;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BadgeCache.get/put при конкурентном доступе: чтение из многих потоков (TAB, чат) и смешанная
+ * нагрузка, когда часть потоков одновременно кладет ответы API.
+ *
+ * Игроков в 2-4 раза больше, чем вмещает кэш, поэтому часть обращений - промахи и вытеснения.
+ * impl=legacy - прежний кэш на ConcurrentHashMap ({@link LegacyBadgeCache}): он не ограничен
+ * и держит всех игроков.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BadgeCacheBenchmark {
+	@Param({"bounded", "legacy"})
+	String impl;
+
+	@Param({"10000", "100000"})
+	int maxEntries;
+
+	private BadgeCache cache;
+	private LegacyBadgeCache legacy;
+	private UUID[] players;
+	private Badge badge;
+
+	@Setup
+	public void setUp() {
+		if ("legacy".equals(impl)) {
+			legacy = new LegacyBadgeCache(3600);
+		} else {
+			cache = new BadgeCache(3600, maxEntries, 3600, maxEntries, 0);
+		}
+		badge = new Badge(UUID.randomUUID(), "Бэйджик", "Описание", "https://example.com/badge.png",
+				Badge.BadgeType.PERMANENT, "E001", Instant.now());
+		// Степень двойки, чтобы индекс брался маской
+		players = new UUID[Integer.highestOneBit(maxEntries) * 4];
+		for (int i = 0; i < players.length; i++) {
+			players[i] = UUID.randomUUID();
+			put(players[i]);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (legacy != null) {
+			legacy.shutdown();
+		} else {
+			cache.shutdown();
+		}
+	}
+
+	private Badge get(UUID playerUuid) {
+		return legacy != null ? legacy.get(playerUuid) : cache.get(playerUuid);
+	}
+
+	private void put(UUID playerUuid) {
+		if (legacy != null) {
+			legacy.put(playerUuid, badge);
+		} else {
+			cache.put(playerUuid, badge);
+		}
+	}
+
+	/**
+	 * Случайный игрок для потока: xorshift дешевле ThreadLocalRandom и не делит состояние между потоками
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int seed = ThreadLocalRandom.current().nextInt() | 1;
+
+		UUID next(UUID[] players) {
+			seed ^= seed << 13;
+			seed ^= seed >>> 17;
+			seed ^= seed << 5;
+			return players[seed & (players.length - 1)];
+		}
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Badge get(Cursor cursor) {
+		return get(cursor.next(players));
+	}
+
+	@Benchmark
+	@Group("readWrite")
+	@GroupThreads(6)
+	public Badge readWriteGet(Cursor cursor) {
+		return get(cursor.next(players));
+	}
+
+	@Benchmark
+	@Group("readWrite")
+	@GroupThreads(2)
+	public void readWritePut(Cursor cursor) {
+		put(cursor.next(players));
+	}
+}
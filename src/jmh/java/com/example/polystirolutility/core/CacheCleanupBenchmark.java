@@ -0,0 +1,133 @@
+package com.example.polystirolutility.core;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Стоимость периодической очистки кэша бэйджиков (BoundedCache.expire, вызывается раз в секунду).
+ * BadgeCache берет время из System.currentTimeMillis, поэтому время продвигается напрямую
+ * на BoundedCache.
+ * impl=legacy - прежняя очистка обходом всего ConcurrentHashMap через removeIf ({@link LegacyBadgeCache}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheCleanupBenchmark {
+	private static final long TICK_MS = 1_000;
+	private static final Badge BADGE = new Badge(UUID.randomUUID(), "Бэйджик", "Описание", "https://example.com/badge.png",
+			Badge.BadgeType.PERMANENT, "E001", Instant.now());
+
+	/**
+	 * Кэш с записями и управляемым временем, общий для обеих реализаций очистки
+	 */
+	public abstract static class CacheState {
+		@Param({"bounded", "legacy"})
+		String impl;
+
+		@Param({"10000", "100000"})
+		int entries;
+
+		BoundedCache<UUID, Boolean> cache;
+		LegacyBadgeCache legacy;
+		long now;
+
+		void create() {
+			if ("legacy".equals(impl)) {
+				if (legacy != null) {
+					legacy.shutdown();
+				}
+				legacy = new LegacyBadgeCache(3600);
+				cache = null;
+			} else {
+				cache = new BoundedCache<>(entries);
+			}
+			now = System.currentTimeMillis();
+		}
+
+		void put(long expiresAt) {
+			if (legacy != null) {
+				legacy.put(UUID.randomUUID(), BADGE, expiresAt);
+			} else {
+				cache.put(UUID.randomUUID(), Boolean.TRUE, expiresAt);
+			}
+		}
+
+		int expire(long at) {
+			if (legacy != null) {
+				legacy.cleanup(at);
+				return legacy.size();
+			}
+			cache.expire(at);
+			return cache.size();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			if (legacy != null) {
+				legacy.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Обычный тик: в кэше много живых записей, почти ничего не истекает
+	 */
+	@State(Scope.Thread)
+	public static class IdleCache extends CacheState {
+		// Итерация продвигает время на миллионы тиков, поэтому кэш пересоздается на каждую итерацию,
+		// а сроки записей вынесены далеко за пределы итерации
+		@Setup(Level.Iteration)
+		public void setUp() {
+			create();
+			// Сроки разбросаны на сутки, как у записей, добавленных в разное время
+			long spread = TimeUnit.DAYS.toMillis(1) / entries;
+			for (int i = 0; i < entries; i++) {
+				put(now + TimeUnit.DAYS.toMillis(3650) + i * spread);
+			}
+		}
+	}
+
+	/**
+	 * Все записи истекли одновременно (например, после долгой паузы сервера)
+	 */
+	@State(Scope.Thread)
+	public static class ExpiredCache extends CacheState {
+		@Setup(Level.Invocation)
+		public void setUp() {
+			create();
+			for (int i = 0; i < entries; i++) {
+				put(now + i % TICK_MS);
+			}
+		}
+	}
+
+	@Benchmark
+	public int idleTick(IdleCache state) {
+		state.now += TICK_MS;
+		return state.expire(state.now);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Measurement(iterations = 50)
+	public int expireAll(ExpiredCache state) {
+		return state.expire(state.now + TICK_MS);
+	}
+}
@@ -0,0 +1,106 @@
+package com.example.polystirolutility.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Разбор ответов API. body=stream - как в JsonBodyHandler: JsonReader поверх потока байт тела;
+ * body=string - прежний путь: тело целиком в строку (как BodyHandlers.ofString()), затем gson.fromJson(String).
+ * binding=adapters - Gson транспорта с ApiJsonAdapters, binding=reflective - прежняя
+ * рефлективная привязка с десериализаторами Instant и BadgeType; прежний путь целиком - body=string,
+ * binding=reflective. Выделение памяти на операцию показывает профилировщик gc (gc.alloc.rate.norm),
+ * он включен в задаче jmh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonDecodeBenchmark {
+	@Param({"stream", "string"})
+	String body;
+
+	@Param({"adapters", "reflective"})
+	String binding;
+
+	@Param({"5", "50"})
+	int goals;
+
+	private Gson gson;
+	private boolean stringBody;
+	private byte[] badgeBody;
+	private byte[] batchBody;
+	private byte[] progressBody;
+
+	@Setup
+	public void setUp() {
+		gson = "reflective".equals(binding) ? reflectiveGson() : ApiJsonAdapters.createGson();
+		stringBody = "string".equals(body);
+		badgeBody = JsonFixtures.badge(7).getBytes(StandardCharsets.UTF_8);
+		batchBody = JsonFixtures.badgeBatch(goals).getBytes(StandardCharsets.UTF_8);
+		progressBody = JsonFixtures.resourceProgress(goals).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public Badge decodeBadge() throws IOException {
+		return decode(badgeBody, Badge.class);
+	}
+
+	@Benchmark
+	public BadgeBatchResponse decodeBadgeBatch() throws IOException {
+		return decode(batchBody, BadgeBatchResponse.class);
+	}
+
+	@Benchmark
+	public ResourceProgressResponse decodeResourceProgress() throws IOException {
+		return decode(progressBody, ResourceProgressResponse.class);
+	}
+
+	private <T> T decode(byte[] body, Class<T> type) throws IOException {
+		if (stringBody) {
+			// Строка создается на каждый вызов, как у BodyHandlers.ofString() на каждый ответ
+			return gson.fromJson(new String(body, StandardCharsets.UTF_8), type);
+		}
+		try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8))) {
+			return gson.fromJson(reader, type);
+		}
+	}
+
+	/**
+	 * Настройка Gson до перехода на ApiJsonAdapters
+	 */
+	static Gson reflectiveGson() {
+		return new GsonBuilder()
+				.registerTypeAdapter(Instant.class, (JsonDeserializer<Instant>) (json, type, context) -> Instant.parse(json.getAsString()))
+				.registerTypeAdapter(Badge.BadgeType.class, (JsonDeserializer<Badge.BadgeType>) (json, type, context) -> {
+					try {
+						return Badge.BadgeType.valueOf(json.getAsString().toUpperCase());
+					} catch (IllegalArgumentException e) {
+						return Badge.BadgeType.PERMANENT;
+					}
+				})
+				.create();
+	}
+}
@@ -0,0 +1,57 @@
+package com.example.polystirolutility.core;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Тела ответов API в том виде, в котором их отдает сервер
+ */
+final class JsonFixtures {
+	private static final String[] RESOURCE_TYPES = {"wood", "stone", "coal", "iron", "gold", "diamond", "emerald", "redstone"};
+
+	private JsonFixtures() {
+	}
+
+	static String badge(int variant) {
+		return "{"
+				+ "\"id\":\"" + UUID.nameUUIDFromBytes(("badge-" + variant).getBytes()) + "\","
+				+ "\"name\":\"Бэйджик " + variant + "\","
+				+ "\"description\":\"Выдается за участие в событии номер " + variant + "\","
+				+ "\"image_url\":\"https://cdn.example.com/badges/" + variant + ".png\","
+				+ "\"badge_type\":\"PERMANENT\","
+				+ "\"unicode_char\":\"" + String.format("%04X", 0xE000 + variant) + "\","
+				+ "\"created_at\":\"" + Instant.ofEpochSecond(1_700_000_000L + variant * 86_400L) + "\""
+				+ "}";
+	}
+
+	/**
+	 * Ответ пачки бэйджиков (POST /badges/minecraft/batch)
+	 */
+	static String badgeBatch(int players) {
+		StringBuilder json = new StringBuilder("{\"badges\":{");
+		for (int i = 0; i < players; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append('"').append(UUID.nameUUIDFromBytes(("player-" + i).getBytes())).append("\":").append(badge(i % 16));
+		}
+		return json.append("}}").toString();
+	}
+
+	static String resourceProgress(int goals) {
+		StringBuilder json = new StringBuilder("{\"server_id\":\"00000000-0000-4000-8000-000000000001\",\"server_name\":\"Сервер\",\"resources\":[");
+		for (int i = 0; i < goals; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"resource_type\":\"").append(RESOURCE_TYPES[i % RESOURCE_TYPES.length]).append('"')
+					.append(",\"name\":\"Цель ").append(i).append('"')
+					.append(",\"current_amount\":").append(i * 137)
+					.append(",\"target_amount\":").append(10_000 + i * 1_000)
+					.append(",\"goal_id\":\"").append(UUID.nameUUIDFromBytes(("goal-" + i).getBytes())).append('"')
+					.append(",\"is_active\":").append(i % 4 != 0)
+					.append('}');
+		}
+		return json.append("]}").toString();
+	}
+}
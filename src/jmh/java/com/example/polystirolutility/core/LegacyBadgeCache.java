@@ -0,0 +1,82 @@
+package com.example.polystirolutility.core;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Прежний BadgeCache (ConcurrentHashMap без ограничения размера, очистка обходом removeIf) -
+ * точка отсчета для BadgeCacheBenchmark и CacheCleanupBenchmark.
+ *
+ * Код перенесен без изменений; для бенчмарков добавлены put с явным сроком, cleanup(now) и size.
+ */
+class LegacyBadgeCache {
+	private final ConcurrentHashMap<UUID, CacheEntry> cache = new ConcurrentHashMap<>();
+	private final long ttlSeconds;
+	private final ScheduledExecutorService cleanupExecutor;
+
+	LegacyBadgeCache(long ttlSeconds) {
+		this.ttlSeconds = ttlSeconds;
+		this.cleanupExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "BadgeCache-Cleanup");
+			t.setDaemon(true);
+			return t;
+		});
+
+		// Периодическая очистка устаревших записей
+		this.cleanupExecutor.scheduleAtFixedRate(this::cleanup, ttlSeconds, ttlSeconds, TimeUnit.SECONDS);
+	}
+
+	Badge get(UUID playerUuid) {
+		CacheEntry entry = cache.get(playerUuid);
+		if (entry == null || entry.isExpired()) {
+			cache.remove(playerUuid);
+			return null;
+		}
+		return entry.badge;
+	}
+
+	void put(UUID playerUuid, Badge badge) {
+		cache.put(playerUuid, new CacheEntry(badge, System.currentTimeMillis() + ttlSeconds * 1000));
+	}
+
+	void put(UUID playerUuid, Badge badge, long expiresAt) {
+		cache.put(playerUuid, new CacheEntry(badge, expiresAt));
+	}
+
+	int size() {
+		return cache.size();
+	}
+
+	private void cleanup() {
+		cleanup(System.currentTimeMillis());
+	}
+
+	void cleanup(long now) {
+		cache.entrySet().removeIf(entry -> entry.getValue().isExpired(now));
+	}
+
+	void shutdown() {
+		cleanupExecutor.shutdown();
+	}
+
+	private static class CacheEntry {
+		final Badge badge;
+		final long expiresAt;
+
+		CacheEntry(Badge badge, long expiresAt) {
+			this.badge = badge;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired() {
+			return isExpired(System.currentTimeMillis());
+		}
+
+		boolean isExpired(long now) {
+			return now >= expiresAt;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.example.polystirolutility.core;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.Items;
+
+/**
+ * Определение типа ресурса по предмету и подсчет ресурсов в /collect
+ * (ResourceCollectionService.countResources - цикл из processAndSendItems без отправки в API).
+ * Классам предметов нужен загруженный реестр Minecraft, поэтому в setUp выполняется Bootstrap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceCollectionBenchmark {
+	// Размер меню /collect (сундук на 6 рядов)
+	private static final int SLOTS = 54;
+
+	private Item[] items;
+	private ItemStack[] stacks;
+	private Set<String> allowedResources;
+	private int index;
+
+	@Setup
+	public void setUp() {
+		SharedConstants.tryDetectVersion();
+		Bootstrap.bootStrap();
+
+		// Ресурсы с целью, ресурсы без цели и посторонние предметы вперемешку с пустыми слотами
+		items = new Item[] {Items.OAK_LOG, Items.COBBLESTONE, Items.IRON_INGOT, Items.DIAMOND, Items.COAL, Items.DIRT, Items.STICK};
+		stacks = new ItemStack[SLOTS];
+		for (int i = 0; i < SLOTS; i++) {
+			stacks[i] = i % 5 == 4 ? ItemStack.EMPTY : new ItemStack(items[i % items.length], 1 + i % 64);
+		}
+		allowedResources = Set.of("wood", "stone", "iron");
+	}
+
+	@Benchmark
+	public String getResourceType() {
+		index = (index + 1) % items.length;
+		return ResourceTypeMapper.getResourceType(items[index]);
+	}
+
+	@Benchmark
+	public Object countResources() {
+		return ResourceCollectionService.countResources(stacks, allowedResources);
+	}
+}
@@ -0,0 +1,519 @@
+package com.example.polystirolutility.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import com.example.polystirolutility.core.ApiTransport;
+import com.example.polystirolutility.core.Badge;
+import com.example.polystirolutility.core.BadgeApiClient;
+import com.example.polystirolutility.core.BadgeCache;
+import com.example.polystirolutility.core.BadgeEventStream;
+import com.example.polystirolutility.core.BadgeService;
+import com.example.polystirolutility.core.CircuitBreaker;
+import com.example.polystirolutility.core.Deadline;
+import com.example.polystirolutility.core.ResourceCollectionApiClient;
+import com.example.polystirolutility.core.ResourcePackManager;
+
+/**
+ * Нагрузочный прогон клиентов API против {@link MockPolystirolApi}: держит заданное число
+ * одновременных операций в течение заданного времени и печатает пропускную способность
+ * и перцентили задержки по каждому виду операций, а также счетчики транспорта.
+ *
+ * Параметры передаются как --имя=значение, например:
+ * gradlew loadTest --args="--concurrency=64 --duration=30 --error-rate=0.05 --p99=500"
+ *
+ * Кроме смеси операций (--scenario=mix, по умолчанию) есть отдельные сценарии:
+ * --scenario=events - подписка BadgeEventStream при обрывах соединения (--drop-after-ms) и продолжение
+ * по Last-Event-ID; в конце бэйджики в кэше сверяются с опубликованными.
+ * --scenario=badge-batch - волна входов игроков через окно пачек BadgeApiClient; каждый вызывающий
+ * должен получить бэйджик своего игрока, в том числе при переходе на одиночные запросы (--batch-status=404 или 405).
+ * --scenario=failing-lookups - тысячи одновременных запросов бэйджиков, которые все завершаются ошибкой
+ * (--target=error: заглушка отвечает 503, --target=closed: порт закрыт); печатается пиковое число потоков.
+ */
+public class LoadDriver {
+	private static final String SERVER_UUID = "00000000-0000-4000-8000-000000000001";
+	private static final String[] RESOURCE_TYPES = {"wood", "stone", "iron", "gold", "diamond"};
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parseOptions(args);
+		String scenario = options.getOrDefault("scenario", "mix");
+		switch (scenario) {
+			case "mix" -> runMix(options);
+			case "events" -> runEvents(options);
+			case "badge-batch" -> runBadgeBatch(options);
+			case "failing-lookups" -> runFailingLookups(options);
+			default -> throw new IllegalArgumentException("Неизвестный сценарий: " + scenario);
+		}
+		System.exit(0);
+	}
+
+	private static void runMix(Map<String, String> options) throws Exception {
+		int concurrency = intOption(options, "concurrency", 32);
+		int durationSeconds = intOption(options, "duration", 20);
+		int warmupSeconds = intOption(options, "warmup", 3);
+		int players = intOption(options, "players", 10_000);
+		int maxConcurrentRequests = intOption(options, "max-requests", 16);
+		int maxConcurrencyLimit = intOption(options, "max-limit", 32);
+		long batchWindowMillis = intOption(options, "batch-window", 0);
+		int hedgePercentile = intOption(options, "hedge-percentile", 0);
+		// Доли операций: бэйджики / сбор ресурсов / цели / информация о сервере
+		int[] mix = Arrays.stream(options.getOrDefault("mix", "70,20,5,5").split(",")).mapToInt(Integer::parseInt).toArray();
+
+		MockPolystirolApi.Settings settings = new MockPolystirolApi.Settings()
+				.latency(doubleOption(options, "p50", 20), doubleOption(options, "p99", 100))
+				.errorRate(doubleOption(options, "error-rate", 0))
+				.lostResponseRate(doubleOption(options, "lost-response-rate", 0))
+				.rateLimitRate(doubleOption(options, "rate-limit-rate", 0))
+				.notFoundRatio(doubleOption(options, "not-found", 0.3))
+				.slowBody(doubleOption(options, "slow-body-rate", 0), intOption(options, "slow-body-ms", 1_000))
+				.gzipResponses(!"false".equals(options.get("gzip")));
+		MockPolystirolApi api = new MockPolystirolApi(settings);
+		api.start(0);
+
+		ApiTransport transport = new ApiTransport(api.getBaseUrl(), maxConcurrentRequests, maxConcurrencyLimit);
+		BadgeApiClient badgeClient = new BadgeApiClient(transport, batchWindowMillis, 100);
+		if (hedgePercentile > 0) {
+			badgeClient.enableHedging(hedgePercentile / 100.0, 0.1);
+		}
+		ResourceCollectionApiClient collectionClient = new ResourceCollectionApiClient(transport);
+		ResourcePackManager packManager = new ResourcePackManager(badgeClient, UUID.fromString(SERVER_UUID), 3600);
+
+		UUID[] playerUuids = new UUID[players];
+		for (int i = 0; i < players; i++) {
+			playerUuids[i] = new UUID(ThreadLocalRandom.current().nextLong(), ThreadLocalRandom.current().nextLong());
+		}
+
+		Map<String, Operation> operations = new LinkedHashMap<>();
+		operations.put("badge", new Operation(mix[0],
+				() -> badgeClient.getPlayerBadge(playerUuids[ThreadLocalRandom.current().nextInt(players)]),
+				// null - у игрока нет бэйджика, это успешный ответ
+				badge -> true));
+		// Сумма, подтвержденная клиенту; больше учтенной заглушкой она быть не должна, меньше - только на потерянные ответы
+		LongAdder acknowledgedAmount = new LongAdder();
+		operations.put("collect", new Operation(mix[1],
+				() -> {
+					int amount = ThreadLocalRandom.current().nextInt(1, 65);
+					return collectionClient.collectResource(SERVER_UUID, RESOURCE_TYPES[ThreadLocalRandom.current().nextInt(RESOURCE_TYPES.length)], amount)
+							.thenApply(response -> {
+								if (response != null && response.isSuccess()) {
+									acknowledgedAmount.add(amount);
+								}
+								return response;
+							});
+				},
+				response -> response != null));
+		operations.put("goals", new Operation(mix[2],
+				() -> collectionClient.getResourceGoals(SERVER_UUID),
+				response -> response != null));
+		operations.put("server", new Operation(mix[3],
+				packManager::getServerInfo,
+				info -> info != null));
+
+		System.out.println("Заглушка: " + api.getBaseUrl() + " (" + settings + ")");
+		System.out.printf(Locale.ROOT, "Одновременных операций: %d, прогрев %d с, замер %d с, игроков %d%n",
+				concurrency, warmupSeconds, durationSeconds, players);
+
+		run(operations, concurrency, warmupSeconds);
+		operations.values().forEach(Operation::reset);
+		long elapsedNanos = run(operations, concurrency, durationSeconds);
+
+		printResults(operations, elapsedNanos);
+		printTransportStats(api, transport, badgeClient);
+		System.out.printf(Locale.ROOT, "Сбор ресурсов: подтверждено клиенту %d, учтено заглушкой %d, потеряно ответов %d, повторов по ключу %d%n",
+				acknowledgedAmount.sum(), api.getCollectedAmount(), api.getLostResponseCount(), api.getReplayedRequestCount());
+
+		packManager.shutdown();
+		transport.close();
+		api.stop();
+	}
+
+	/**
+	 * Заглушка публикует изменения бэйджиков с заданной частотой и обрывает подписку каждые drop-after-ms
+	 * миллисекунд. Подписка должна переподключиться, продолжить с Last-Event-ID и применить к кэшу все изменения.
+	 */
+	private static void runEvents(Map<String, String> options) throws Exception {
+		int players = intOption(options, "players", 200);
+		int eventCount = intOption(options, "events", 2_000);
+		int eventRate = intOption(options, "event-rate", 500);
+		MockPolystirolApi.Settings settings = new MockPolystirolApi.Settings()
+				.latency(doubleOption(options, "p50", 5), doubleOption(options, "p99", 20))
+				.notFoundRatio(doubleOption(options, "not-found", 0.3))
+				.eventStream(intOption(options, "drop-after-ms", 2_000), intOption(options, "event-history", 10_000));
+		MockPolystirolApi api = new MockPolystirolApi(settings);
+		api.start(0);
+
+		BadgeApiClient badgeClient = new BadgeApiClient(new ApiTransport(api.getBaseUrl()), 0, 1);
+		BadgeService badgeService = new BadgeService(badgeClient, new BadgeCache(3600));
+		UUID[] playerUuids = new UUID[players];
+		CompletableFuture<?>[] loads = new CompletableFuture<?>[players];
+		for (int i = 0; i < players; i++) {
+			playerUuids[i] = UUID.randomUUID();
+			loads[i] = badgeService.getPlayerBadge(playerUuids[i]);
+		}
+		// Подписка применяет изменения только к игрокам, которые уже есть в кэше
+		CompletableFuture.allOf(loads).exceptionally(throwable -> null).join();
+		// Ошибки включаются после загрузки: они должны мешать подписке, а не заполнению кэша
+		settings.errorRate(doubleOption(options, "error-rate", 0));
+
+		System.out.println("Заглушка: " + api.getBaseUrl() + " (" + settings + ")");
+		System.out.printf(Locale.ROOT, "Игроков %d, событий %d с частотой %d/с, обрыв подписки каждые %d мс, история %d событий%n",
+				players, eventCount, eventRate, settings.eventDropAfterMillis, settings.eventHistory);
+
+		BadgeEventStream stream = new BadgeEventStream(badgeClient, badgeService);
+		stream.start();
+		long connectDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!stream.isConnected() && System.nanoTime() - connectDeadline < 0) {
+			Thread.sleep(10);
+		}
+
+		// Вариант бэйджика, который должен оказаться у игрока после всех событий (-1 - бэйджик снят)
+		Map<UUID, Integer> expected = new HashMap<>();
+		long startNanos = System.nanoTime();
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, eventRate);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < eventCount; i++) {
+			LockSupport.parkNanos(startNanos + i * intervalNanos - System.nanoTime());
+			UUID playerUuid = playerUuids[random.nextInt(players)];
+			int variant = random.nextInt(10) == 0 ? -1 : random.nextInt(16);
+			api.publishBadgeChange(playerUuid, variant);
+			expected.put(playerUuid, variant);
+		}
+		long publishedNanos = System.nanoTime();
+
+		// Ждем, пока подписка догонит заглушку (переподключение - не раньше чем через секунду)
+		int mismatched = countMismatched(badgeService, expected);
+		long catchUpDeadline = publishedNanos + TimeUnit.SECONDS.toNanos(30);
+		while (mismatched > 0 && System.nanoTime() - catchUpDeadline < 0) {
+			Thread.sleep(50);
+			mismatched = countMismatched(badgeService, expected);
+		}
+		long caughtUpNanos = System.nanoTime();
+		stream.stop();
+
+		System.out.println();
+		System.out.printf(Locale.ROOT, "Опубликовано событий %d за %.1f с, получено подпиской %d, догнала через %.1f с после последнего%n",
+				api.getPublishedEventCount(), (publishedNanos - startNanos) / 1e9, stream.getReceivedEventCount(),
+				(caughtUpNanos - publishedNanos) / 1e9);
+		System.out.printf(Locale.ROOT, "Подключений %d, из них с Last-Event-ID %d; оборвано заглушкой %d, переподключений клиента %d, resync %d%n",
+				api.getEventConnectionCount(), api.getResumedConnectionCount(), api.getDroppedConnectionCount(),
+				stream.getReconnectCount(), api.getResyncCount());
+		System.out.printf(Locale.ROOT, "Игроков с измененным бэйджиком %d, из них не совпадает с опубликованным %d%n",
+				expected.size(), mismatched);
+
+		api.stop();
+	}
+
+	/**
+	 * Игроки входят с частотой login-rate в секунду (0 - все сразу), их запросы собираются в пачки
+	 * по batch-window миллисекунд. Ответ каждому вызывающему сверяется с бэйджиком, который заглушка
+	 * отдает этому игроку.
+	 */
+	private static void runBadgeBatch(Map<String, String> options) throws Exception {
+		int players = intOption(options, "players", 3_000);
+		int loginRate = intOption(options, "login-rate", 1_000);
+		int batchWindowMillis = intOption(options, "batch-window", 20);
+		int maxBatchSize = intOption(options, "max-batch", 100);
+		MockPolystirolApi.Settings settings = new MockPolystirolApi.Settings()
+				.latency(doubleOption(options, "p50", 20), doubleOption(options, "p99", 100))
+				.notFoundRatio(doubleOption(options, "not-found", 0.3))
+				.badgeBatchStatus(intOption(options, "batch-status", 200));
+		MockPolystirolApi api = new MockPolystirolApi(settings);
+		api.start(0);
+
+		ApiTransport transport = new ApiTransport(api.getBaseUrl());
+		BadgeApiClient badgeClient = new BadgeApiClient(transport, batchWindowMillis, maxBatchSize);
+		System.out.println("Заглушка: " + api.getBaseUrl() + " (" + settings + ", ответ на bulk-запрос " + settings.badgeBatchStatus + ")");
+		System.out.printf(Locale.ROOT, "Игроков %d, входов в секунду %d, окно пачки %d мс, до %d игроков в пачке%n",
+				players, loginRate, batchWindowMillis, maxBatchSize);
+
+		UUID[] playerUuids = new UUID[players];
+		CompletableFuture<?>[] lookups = new CompletableFuture<?>[players];
+		LongAdder failed = new LongAdder();
+		LongAdder mismatched = new LongAdder();
+		long startNanos = System.nanoTime();
+		long intervalNanos = loginRate > 0 ? TimeUnit.SECONDS.toNanos(1) / loginRate : 0;
+		for (int i = 0; i < players; i++) {
+			LockSupport.parkNanos(startNanos + i * intervalNanos - System.nanoTime());
+			UUID playerUuid = UUID.randomUUID();
+			int expected = api.badgeVariant(playerUuid);
+			playerUuids[i] = playerUuid;
+			lookups[i] = badgeClient.getPlayerBadge(playerUuid).whenComplete((badge, throwable) -> {
+				if (throwable != null) {
+					failed.increment();
+				} else if (expected < 0 ? badge != null : badge == null || !MockPolystirolApi.badgeId(expected).equals(badge.getId())) {
+					mismatched.increment();
+				}
+			});
+		}
+		CompletableFuture.allOf(lookups).exceptionally(throwable -> null).join();
+		long elapsedNanos = System.nanoTime() - startNanos;
+
+		long batches = api.getBadgeBatchRequestCount();
+		System.out.println();
+		// Одиночные запросы пропускают меньше игроков в секунду, чем пачки: при частых входах часть запросов не успевает в срок
+		System.out.printf(Locale.ROOT, "Запросов бэйджиков %d за %.1f с: с ошибкой %d (истек срок %d), чужой или неверный ответ %d%n",
+				players, elapsedNanos / 1e9, failed.sum(), transport.getDeadlineExceededCount(), mismatched.sum());
+		System.out.printf(Locale.ROOT, "Заглушка: bulk-запросов %d (игроков в них %d, в среднем %.1f), одиночных запросов %d%n",
+				batches, api.getBatchedPlayerCount(), batches > 0 ? (double) api.getBatchedPlayerCount() / batches : 0,
+				api.getBadgeRequestCount());
+
+		transport.close();
+		api.stop();
+	}
+
+	/**
+	 * Все запросы одновременно уходят в повторы с задержкой. Повторы ждут в таймере, а не в потоках,
+	 * поэтому пиковое число потоков не должно расти вместе с числом запросов.
+	 * При --error-rate=1.0 (по умолчанию) и закрытом порту быстро открывается предохранитель и отклоняет
+	 * остальные запросы; с долей ошибок ниже его порога (например 0.45) сотни запросов одновременно ждут повтора.
+	 */
+	private static void runFailingLookups(Map<String, String> options) throws Exception {
+		int lookups = intOption(options, "lookups", 5_000);
+		int deadlineMillis = intOption(options, "deadline-ms", 30_000);
+		String target = options.getOrDefault("target", "error");
+		MockPolystirolApi api = null;
+		String baseUrl;
+		switch (target) {
+			case "error" -> {
+				api = new MockPolystirolApi(new MockPolystirolApi.Settings().latency(5, 20)
+						.errorRate(doubleOption(options, "error-rate", 1.0)));
+				api.start(0);
+				baseUrl = api.getBaseUrl();
+				System.out.println("Заглушка: " + baseUrl + " (" + api.getSettings() + ")");
+			}
+			case "closed" -> {
+				// Порт свободен, но его никто не слушает: соединение сразу отклоняется
+				try (ServerSocket socket = new ServerSocket(0)) {
+					baseUrl = "http://127.0.0.1:" + socket.getLocalPort();
+				}
+				System.out.println("Закрытый порт: " + baseUrl);
+			}
+			default -> throw new IllegalArgumentException("Неизвестная цель: " + target);
+		}
+
+		ApiTransport transport = new ApiTransport(baseUrl, intOption(options, "max-requests", 16), intOption(options, "max-limit", 32));
+		BadgeApiClient badgeClient = new BadgeApiClient(transport, 0, 1);
+		// Первый запрос создает потоки HttpClient и таймера, они не должны попасть в прирост
+		badgeClient.getPlayerBadge(UUID.randomUUID(), Deadline.afterMillis(1)).exceptionally(throwable -> null).join();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		int baselineThreads = threads.getThreadCount();
+		threads.resetPeakThreadCount();
+
+		System.out.printf(Locale.ROOT, "Одновременных запросов %d, срок каждого %d мс, потоков до начала %d%n",
+				lookups, deadlineMillis, baselineThreads);
+		LongAdder failed = new LongAdder();
+		AtomicInteger remaining = new AtomicInteger(lookups);
+		long startNanos = System.nanoTime();
+		for (int i = 0; i < lookups; i++) {
+			badgeClient.getPlayerBadge(UUID.randomUUID(), Deadline.afterMillis(deadlineMillis)).whenComplete((badge, throwable) -> {
+				if (throwable != null) {
+					failed.increment();
+				}
+				remaining.decrementAndGet();
+			});
+		}
+		int maxPendingRetries = 0;
+		long waitDeadline = startNanos + TimeUnit.MILLISECONDS.toNanos(deadlineMillis) + TimeUnit.SECONDS.toNanos(10);
+		while (remaining.get() > 0 && System.nanoTime() - waitDeadline < 0) {
+			maxPendingRetries = Math.max(maxPendingRetries, transport.getPendingRetryCount());
+			Thread.sleep(10);
+		}
+		long elapsedNanos = System.nanoTime() - startNanos;
+
+		CircuitBreaker breaker = transport.getCircuitBreaker();
+		System.out.println();
+		System.out.printf(Locale.ROOT, "Завершено %d из %d за %.1f с, из них с ошибкой %d%n",
+				lookups - remaining.get(), lookups, elapsedNanos / 1e9, failed.sum());
+		System.out.printf(Locale.ROOT, "Потоков: до начала %d, пик %d (прирост %d), сейчас %d%n",
+				baselineThreads, threads.getPeakThreadCount(), threads.getPeakThreadCount() - baselineThreads,
+				threads.getThreadCount());
+		System.out.printf(Locale.ROOT, "Транспорт: запросов %d, повторов %d, неудачных %d, истек срок %d, одновременно ждали повтора до %d%n",
+				transport.getRequestCount(), transport.getRetryCount(), transport.getFailureCount(),
+				transport.getDeadlineExceededCount(), maxPendingRetries);
+		System.out.printf(Locale.ROOT, "Предохранитель: %s, открывался %d раз, отклонено %d%n",
+				breaker.getState(), breaker.getOpenCount(), breaker.getRejectedCount());
+
+		transport.close();
+		if (api != null) {
+			api.stop();
+		}
+	}
+
+	private static int countMismatched(BadgeService badgeService, Map<UUID, Integer> expected) {
+		int mismatched = 0;
+		for (Map.Entry<UUID, Integer> entry : expected.entrySet()) {
+			Badge badge = badgeService.getCachedBadge(entry.getKey());
+			boolean matches = entry.getValue() < 0
+					? badge == null
+					: badge != null && MockPolystirolApi.badgeId(entry.getValue()).equals(badge.getId());
+			if (!matches) {
+				mismatched++;
+			}
+		}
+		return mismatched;
+	}
+
+	/**
+	 * Держит concurrency операций в полете до истечения durationSeconds и ждет завершения последних
+	 * @return фактическая длительность прогона в наносекундах
+	 */
+	private static long run(Map<String, Operation> operations, int concurrency, int durationSeconds) throws InterruptedException {
+		Operation[] weighted = operations.values().stream()
+				.flatMap(operation -> Stream.generate(() -> operation).limit(operation.weight))
+				.toArray(Operation[]::new);
+		Semaphore slots = new Semaphore(concurrency);
+		long startNanos = System.nanoTime();
+		long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+		while (System.nanoTime() - endNanos < 0) {
+			if (!slots.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+				continue;
+			}
+			Operation operation = weighted[ThreadLocalRandom.current().nextInt(weighted.length)];
+			operation.start().whenComplete((ignored, throwable) -> slots.release());
+		}
+		slots.acquire(concurrency);
+		return System.nanoTime() - startNanos;
+	}
+
+	private static void printResults(Map<String, Operation> operations, long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		long total = 0;
+		System.out.println();
+		System.out.printf(Locale.ROOT, "%-8s %9s %9s %8s %8s %8s %8s %8s %8s%n",
+				"операция", "всего", "опер/с", "ошибки", "p50 мс", "p90 мс", "p99 мс", "p99.9 мс", "max мс");
+		for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+			Operation operation = entry.getValue();
+			long[] latencies = operation.latencies.snapshot();
+			total += latencies.length;
+			System.out.printf(Locale.ROOT, "%-8s %9d %9.1f %8d %8.1f %8.1f %8.1f %8.1f %8.1f%n",
+					entry.getKey(), latencies.length, latencies.length / seconds, operation.failures.sum(),
+					percentileMillis(latencies, 0.50), percentileMillis(latencies, 0.90), percentileMillis(latencies, 0.99),
+					percentileMillis(latencies, 0.999), percentileMillis(latencies, 1.0));
+		}
+		System.out.printf(Locale.ROOT, "Итого: %d операций за %.1f с, %.1f опер/с%n", total, seconds, total / seconds);
+	}
+
+	private static void printTransportStats(MockPolystirolApi api, ApiTransport transport, BadgeApiClient badgeClient) {
+		CircuitBreaker breaker = transport.getCircuitBreaker();
+		System.out.println();
+		System.out.printf(Locale.ROOT, "Заглушка: запросов %d, 503 %d, 429 %d, 404 %d, 304 %d, медленных тел %d%n",
+				api.getRequestCount(), api.getInjectedErrorCount(), api.getInjectedRateLimitCount(),
+				api.getNotFoundCount(), api.getNotModifiedCount(), api.getSlowBodyCount());
+		System.out.printf(Locale.ROOT, "Транспорт: запросов %d, повторов %d, неудачных %d, истек срок %d, лимит параллельности %d%n",
+				transport.getRequestCount(), transport.getRetryCount(), transport.getFailureCount(),
+				transport.getDeadlineExceededCount(), transport.getConcurrencyLimit());
+		System.out.printf(Locale.ROOT, "Предохранитель: %s, открывался %d раз, отклонено %d%n",
+				breaker.getState(), breaker.getOpenCount(), breaker.getRejectedCount());
+		System.out.printf(Locale.ROOT, "Хеджирование: второй запрос %d, ответил первым %d, бюджет исчерпан %d%n",
+				badgeClient.getHedgedRequestCount(), badgeClient.getHedgeWinCount(), badgeClient.getHedgeBudgetExhaustedCount());
+	}
+
+	private static double percentileMillis(long[] sortedNanos, double percentile) {
+		if (sortedNanos.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.min(sortedNanos.length - 1, Math.ceil(percentile * sortedNanos.length) - 1);
+		return sortedNanos[Math.max(0, index)] / 1e6;
+	}
+
+	private static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			if (!arg.startsWith("--")) {
+				throw new IllegalArgumentException("Ожидался параметр вида --имя=значение: " + arg);
+			}
+			int separator = arg.indexOf('=');
+			if (separator < 0) {
+				options.put(arg.substring(2), "true");
+			} else {
+				options.put(arg.substring(2, separator), arg.substring(separator + 1));
+			}
+		}
+		return options;
+	}
+
+	private static int intOption(Map<String, String> options, String name, int defaultValue) {
+		String value = options.get(name);
+		return value != null ? Integer.parseInt(value) : defaultValue;
+	}
+
+	private static double doubleOption(Map<String, String> options, String name, double defaultValue) {
+		String value = options.get(name);
+		return value != null ? Double.parseDouble(value) : defaultValue;
+	}
+
+	/**
+	 * Вид операции: доля в смеси, запуск и проверка результата
+	 */
+	private static final class Operation {
+		final int weight;
+		final Supplier<? extends CompletableFuture<?>> call;
+		final Predicate<Object> success;
+		final LatencyRecorder latencies = new LatencyRecorder();
+		final LongAdder failures = new LongAdder();
+
+		@SuppressWarnings("unchecked")
+		<T> Operation(int weight, Supplier<CompletableFuture<T>> call, Predicate<? super T> success) {
+			this.weight = weight;
+			this.call = call;
+			this.success = (Predicate<Object>) success;
+		}
+
+		CompletableFuture<?> start() {
+			long startNanos = System.nanoTime();
+			return call.get().whenComplete((value, throwable) -> {
+				latencies.record(System.nanoTime() - startNanos);
+				if (throwable != null || !success.test(value)) {
+					failures.increment();
+				}
+			});
+		}
+
+		void reset() {
+			latencies.reset();
+			failures.reset();
+		}
+	}
+
+	/**
+	 * Все замеры задержки прогона; перцентили считаются по отсортированной копии
+	 */
+	private static final class LatencyRecorder {
+		private long[] samples = new long[1024];
+		private int size;
+
+		synchronized void record(long nanos) {
+			if (size == samples.length) {
+				samples = Arrays.copyOf(samples, size * 2);
+			}
+			samples[size++] = nanos;
+		}
+
+		synchronized long[] snapshot() {
+			long[] copy = Arrays.copyOf(samples, size);
+			Arrays.sort(copy);
+			return copy;
+		}
+
+		synchronized void reset() {
+			size = 0;
+		}
+	}
+}
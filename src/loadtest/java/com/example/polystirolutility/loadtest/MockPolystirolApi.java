@@ -0,0 +1,750 @@
+package com.example.polystirolutility.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Заглушка Polystirol API на HttpServer из JDK для нагрузочных проверок клиентов без настоящего
+ * бэкенда. Реализует эндпоинты, которые вызывают BadgeApiClient, ResourceCollectionApiClient и
+ * ResourcePackManager, и умеет вносить задержки и сбои по настройкам {@link Settings}.
+ *
+ * Ответы детерминированы по UUID игрока: один и тот же игрок всегда либо имеет бэйджик с одним
+ * и тем же ETag, либо получает 404 - пока бэйджик не изменен через {@link #publishBadgeChange}.
+ * Изменения рассылаются подписчикам /badges/minecraft/events (Server-Sent Events) с продолжением
+ * по Last-Event-ID.
+ */
+public class MockPolystirolApi {
+	private static final int BADGE_VARIANTS = 16;
+	private static final int SLOW_BODY_CHUNKS = 10;
+	// Сколько последних ключей идемпотентности помнит заглушка
+	private static final int MAX_IDEMPOTENCY_KEYS = 10_000;
+	// Как часто подписка проверяет новые события и как часто шлет keep-alive
+	private static final long EVENT_POLL_MILLIS = 20;
+	private static final long KEEP_ALIVE_MILLIS = 1_000;
+
+	private final Settings settings;
+	private final Gson gson = new Gson();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder injectedErrors = new LongAdder();
+	private final LongAdder injectedRateLimits = new LongAdder();
+	private final LongAdder notFound = new LongAdder();
+	private final LongAdder notModified = new LongAdder();
+	private final LongAdder slowBodies = new LongAdder();
+	private final LongAdder collectedAmount = new LongAdder();
+	private final LongAdder lostResponses = new LongAdder();
+	private final LongAdder replayedRequests = new LongAdder();
+	private final LongAdder badgeRequests = new LongAdder();
+	private final LongAdder badgeBatchRequests = new LongAdder();
+	private final LongAdder batchedPlayers = new LongAdder();
+	private final LongAdder eventConnections = new LongAdder();
+	private final LongAdder resumedConnections = new LongAdder();
+	private final LongAdder droppedConnections = new LongAdder();
+	private final LongAdder resyncs = new LongAdder();
+	// Бэйджики, измененные через publishBadgeChange: UUID игрока -> вариант (-1 - бэйджик снят)
+	private final Map<UUID, Integer> publishedBadges = new ConcurrentHashMap<>();
+	// Последние события подписки: номер -> кадр SSE
+	private final ConcurrentSkipListMap<Long, String> events = new ConcurrentSkipListMap<>();
+	private final AtomicLong lastEventId = new AtomicLong();
+	// Ключ идемпотентности -> ответ на первый запрос с этим ключом
+	private final Map<String, JsonObject> idempotentResponses = new LinkedHashMap<>(16, 0.75f, false) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, JsonObject> eldest) {
+			return size() > MAX_IDEMPOTENCY_KEYS;
+		}
+	};
+	private HttpServer server;
+	private ExecutorService executor;
+
+	public MockPolystirolApi(Settings settings) {
+		this.settings = settings;
+	}
+
+	/**
+	 * Запускает сервер на указанном порту (0 - любой свободный)
+	 */
+	public synchronized void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+		// Задержки выдерживаются sleep'ом в обработчике, поэтому на каждый запрос свой виртуальный поток
+		executor = Executors.newVirtualThreadPerTaskExecutor();
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+	/**
+	 * Базовый URL для ApiTransport
+	 */
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public Settings getSettings() {
+		return settings;
+	}
+
+	public long getRequestCount() {
+		return requests.sum();
+	}
+
+	public long getInjectedErrorCount() {
+		return injectedErrors.sum();
+	}
+
+	public long getInjectedRateLimitCount() {
+		return injectedRateLimits.sum();
+	}
+
+	public long getNotFoundCount() {
+		return notFound.sum();
+	}
+
+	public long getNotModifiedCount() {
+		return notModified.sum();
+	}
+
+	public long getSlowBodyCount() {
+		return slowBodies.sum();
+	}
+
+	/**
+	 * Сумма ресурсов, принятых через /resource-collection/collect
+	 */
+	public long getCollectedAmount() {
+		return collectedAmount.sum();
+	}
+
+	/**
+	 * Количество запросов сбора, которые были учтены, но получили 503 вместо ответа
+	 */
+	public long getLostResponseCount() {
+		return lostResponses.sum();
+	}
+
+	/**
+	 * Количество повторов с уже известным ключом идемпотентности (ресурсы повторно не учтены)
+	 */
+	public long getReplayedRequestCount() {
+		return replayedRequests.sum();
+	}
+
+	/**
+	 * Количество одиночных запросов GET /badges/minecraft/{uuid}
+	 */
+	public long getBadgeRequestCount() {
+		return badgeRequests.sum();
+	}
+
+	/**
+	 * Количество запросов POST /badges/minecraft/batch, включая отклоненные по настройке badgeBatchStatus
+	 */
+	public long getBadgeBatchRequestCount() {
+		return badgeBatchRequests.sum();
+	}
+
+	/**
+	 * Сумма игроков в обработанных bulk-запросах бэйджиков
+	 */
+	public long getBatchedPlayerCount() {
+		return batchedPlayers.sum();
+	}
+
+	/**
+	 * Количество подключений к подписке на события, из них с Last-Event-ID
+	 */
+	public long getEventConnectionCount() {
+		return eventConnections.sum();
+	}
+
+	public long getResumedConnectionCount() {
+		return resumedConnections.sum();
+	}
+
+	/**
+	 * Количество подключений к подписке, оборванных заглушкой по настройке eventDropAfterMillis
+	 */
+	public long getDroppedConnectionCount() {
+		return droppedConnections.sum();
+	}
+
+	/**
+	 * Количество событий resync: подписчик продолжал с позиции, которой уже нет в истории, или отстал от нее
+	 */
+	public long getResyncCount() {
+		return resyncs.sum();
+	}
+
+	public long getPublishedEventCount() {
+		return lastEventId.get();
+	}
+
+	/**
+	 * Меняет бэйджик игрока (его отдают и GET, и пакетный запрос) и рассылает событие badge-changed
+	 * @param variant вариант бэйджика, -1 - бэйджик снят
+	 * @return номер события
+	 */
+	public long publishBadgeChange(UUID playerUuid, int variant) {
+		JsonObject event = new JsonObject();
+		event.addProperty("player_uuid", playerUuid.toString());
+		event.add("badge", variant >= 0 ? badgeJson(variant) : null);
+		String data = gson.toJson(event);
+		// Номер и запись в историю под одной блокировкой, чтобы события шли в историю по порядку номеров
+		synchronized (events) {
+			publishedBadges.put(playerUuid, variant);
+			long id = lastEventId.incrementAndGet();
+			events.put(id, "id: " + id + "\nevent: badge-changed\ndata: " + data + "\n\n");
+			while (events.size() > settings.eventHistory) {
+				events.pollFirstEntry();
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Идентификатор бэйджика варианта variant - по нему проверяется, какой бэйджик у игрока
+	 */
+	public static UUID badgeId(int variant) {
+		return UUID.nameUUIDFromBytes(("badge-" + variant).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			requests.increment();
+			String method = exchange.getRequestMethod();
+			String[] path = exchange.getRequestURI().getPath().split("/");
+			byte[] requestBody = readBody(exchange);
+
+			sleep(settings.sampleLatencyMillis());
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			if (random.nextDouble() < settings.rateLimitRate) {
+				injectedRateLimits.increment();
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				sendEmpty(exchange, 429);
+				return;
+			}
+			if (random.nextDouble() < settings.errorRate) {
+				injectedErrors.increment();
+				sendEmpty(exchange, 503);
+				return;
+			}
+
+			// path[0] - пустая строка перед первым "/"
+			if ("GET".equals(method) && path.length == 4 && "badges".equals(path[1]) && "minecraft".equals(path[2]) && "events".equals(path[3])) {
+				handleEvents(exchange);
+			} else if ("GET".equals(method) && path.length == 4 && "badges".equals(path[1]) && "minecraft".equals(path[2])) {
+				handleBadge(exchange, parseUuid(path[3]));
+			} else if ("POST".equals(method) && path.length == 4 && "badges".equals(path[1]) && "batch".equals(path[3])) {
+				handleBadgeBatch(exchange, requestBody);
+			} else if ("GET".equals(method) && path.length == 3 && "game-servers".equals(path[1])) {
+				handleServerInfo(exchange, parseUuid(path[2]));
+			} else if ("POST".equals(method) && path.length == 3 && "resource-collection".equals(path[1]) && "collect".equals(path[2])) {
+				handleIdempotent(exchange, () -> collect(requestBody));
+			} else if ("POST".equals(method) && path.length == 4 && "collect".equals(path[2]) && "batch".equals(path[3]) && settings.batchCollect) {
+				handleIdempotent(exchange, () -> collectBatch(requestBody));
+			} else if ("GET".equals(method) && path.length == 5 && "resource-collection".equals(path[1]) && "progress".equals(path[4])) {
+				handleProgress(exchange, path[3]);
+			} else {
+				sendEmpty(exchange, 404);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			// Клиент закрыл соединение (например, отменил хеджированный запрос)
+		}
+	}
+
+	private void handleBadge(HttpExchange exchange, UUID playerUuid) throws IOException, InterruptedException {
+		badgeRequests.increment();
+		int variant = playerUuid != null ? badgeVariant(playerUuid) : -1;
+		if (variant < 0) {
+			notFound.increment();
+			sendEmpty(exchange, 404);
+			return;
+		}
+		String etag = "\"badge-" + variant + "\"";
+		if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			notModified.increment();
+			exchange.getResponseHeaders().set("ETag", etag);
+			sendEmpty(exchange, 304);
+			return;
+		}
+		exchange.getResponseHeaders().set("ETag", etag);
+		sendJson(exchange, badgeJson(variant));
+	}
+
+	private void handleBadgeBatch(HttpExchange exchange, byte[] requestBody) throws IOException, InterruptedException {
+		badgeBatchRequests.increment();
+		int status = settings.badgeBatchStatus;
+		if (status != 200) {
+			if (status == 405) {
+				exchange.getResponseHeaders().set("Allow", "GET");
+			}
+			sendEmpty(exchange, status);
+			return;
+		}
+		JsonObject badges = new JsonObject();
+		JsonObject request = JsonParser.parseString(new String(requestBody, StandardCharsets.UTF_8)).getAsJsonObject();
+		JsonArray playerUuids = request.getAsJsonArray("player_uuids");
+		batchedPlayers.add(playerUuids.size());
+		for (JsonElement element : playerUuids) {
+			UUID playerUuid = parseUuid(element.getAsString());
+			int variant = playerUuid != null ? badgeVariant(playerUuid) : -1;
+			if (variant >= 0) {
+				badges.add(playerUuid.toString(), badgeJson(variant));
+			}
+		}
+		JsonObject response = new JsonObject();
+		response.add("badges", badges);
+		sendJson(exchange, response);
+	}
+
+	private void handleServerInfo(HttpExchange exchange, UUID serverId) throws IOException, InterruptedException {
+		if (serverId == null) {
+			sendEmpty(exchange, 404);
+			return;
+		}
+		String hash = settings.resourcePackHash;
+		String etag = "\"pack-" + hash + "\"";
+		exchange.getResponseHeaders().set("ETag", etag);
+		if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			notModified.increment();
+			sendEmpty(exchange, 304);
+			return;
+		}
+		JsonObject info = new JsonObject();
+		info.addProperty("id", serverId.toString());
+		info.addProperty("name", "Тестовый сервер");
+		info.addProperty("resource_pack_url", "http://127.0.0.1/resourcepack.zip");
+		info.addProperty("resource_pack_hash", hash);
+		sendJson(exchange, info);
+	}
+
+	/**
+	 * Выполняет запрос сбора не больше одного раза на ключ Idempotency-Key: повтор с тем же ключом
+	 * получает сохраненный ответ. Часть запросов по настройке lostResponseRate учитывается,
+	 * но получает 503, как если бы ответ потерялся по дороге.
+	 */
+	private void handleIdempotent(HttpExchange exchange, Supplier<JsonObject> action) throws IOException, InterruptedException {
+		String key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+		JsonObject response;
+		boolean replayed = false;
+		if (key == null) {
+			response = action.get();
+		} else {
+			synchronized (idempotentResponses) {
+				response = idempotentResponses.get(key);
+				if (response != null) {
+					replayed = true;
+				} else {
+					response = action.get();
+					idempotentResponses.put(key, response);
+				}
+			}
+		}
+
+		if (replayed) {
+			replayedRequests.increment();
+			exchange.getResponseHeaders().set("Idempotent-Replayed", "true");
+		} else if (ThreadLocalRandom.current().nextDouble() < settings.lostResponseRate) {
+			lostResponses.increment();
+			sendEmpty(exchange, 503);
+			return;
+		}
+		sendJson(exchange, response);
+	}
+
+	private JsonObject collect(byte[] requestBody) {
+		JsonObject request = JsonParser.parseString(new String(requestBody, StandardCharsets.UTF_8)).getAsJsonObject();
+		int amount = request.get("amount").getAsInt();
+		collectedAmount.add(amount);
+		JsonObject response = new JsonObject();
+		response.addProperty("success", true);
+		response.addProperty("message", "Ресурсы учтены");
+		response.addProperty("current_amount", collectedAmount.sum());
+		return response;
+	}
+
+	private JsonObject collectBatch(byte[] requestBody) {
+		JsonObject request = JsonParser.parseString(new String(requestBody, StandardCharsets.UTF_8)).getAsJsonObject();
+		JsonObject results = new JsonObject();
+		for (String resourceType : request.getAsJsonObject("resources").keySet()) {
+			int amount = request.getAsJsonObject("resources").get(resourceType).getAsInt();
+			collectedAmount.add(amount);
+			JsonObject result = new JsonObject();
+			result.addProperty("success", true);
+			result.addProperty("message", "Ресурсы учтены");
+			result.addProperty("current_amount", collectedAmount.sum());
+			results.add(resourceType, result);
+		}
+		JsonObject response = new JsonObject();
+		response.add("results", results);
+		return response;
+	}
+
+	private void handleProgress(HttpExchange exchange, String serverUuid) throws IOException, InterruptedException {
+		JsonArray resources = new JsonArray();
+		String[] types = {"wood", "stone", "iron", "gold", "diamond"};
+		for (int i = 0; i < types.length; i++) {
+			JsonObject goal = new JsonObject();
+			goal.addProperty("resource_type", types[i]);
+			goal.addProperty("name", types[i]);
+			goal.addProperty("current_amount", collectedAmount.sum());
+			goal.addProperty("target_amount", 10_000 * (i + 1));
+			goal.addProperty("goal_id", "goal-" + i);
+			goal.addProperty("is_active", true);
+			resources.add(goal);
+		}
+		JsonObject response = new JsonObject();
+		response.addProperty("server_id", serverUuid);
+		response.addProperty("server_name", "Тестовый сервер");
+		response.add("resources", resources);
+		sendJson(exchange, response);
+	}
+
+	/**
+	 * Подписка на события: сначала события после Last-Event-ID из истории, затем новые по мере появления.
+	 * Без Last-Event-ID подписка начинается с текущего момента; если позиции уже нет в истории
+	 * (в том числе когда подписчик отстал во время чтения), подписчик получает resync. По настройке eventDropAfterMillis соединение обрывается через заданное время.
+	 */
+	private void handleEvents(HttpExchange exchange) throws IOException, InterruptedException {
+		eventConnections.increment();
+		long cursor = lastEventId.get();
+		boolean resync = false;
+		String resumeFrom = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+		if (resumeFrom != null) {
+			resumedConnections.increment();
+			try {
+				long requested = Long.parseLong(resumeFrom.trim());
+				Long oldest = events.isEmpty() ? null : events.firstKey();
+				// Событий после requested нет в истории (вытеснены) или позиция из будущего
+				resync = requested > cursor || (oldest != null ? requested < oldest - 1 : requested < cursor);
+				if (!resync) {
+					cursor = requested;
+				}
+			} catch (NumberFormatException e) {
+				resync = true;
+			}
+		}
+
+		exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		exchange.sendResponseHeaders(200, 0);
+		OutputStream out = exchange.getResponseBody();
+		if (resync) {
+			// Номер текущего события, чтобы следующее переподключение продолжало уже отсюда
+			writeResync(out, cursor);
+			out.flush();
+		}
+
+		long connectedNanos = System.nanoTime();
+		long lastWriteNanos = connectedNanos;
+		while (true) {
+			long dropAfterMillis = settings.eventDropAfterMillis;
+			if (dropAfterMillis > 0 && System.nanoTime() - connectedNanos >= TimeUnit.MILLISECONDS.toNanos(dropAfterMillis)) {
+				droppedConnections.increment();
+				return;
+			}
+			boolean wrote = false;
+			for (Map.Entry<Long, String> event : events.tailMap(cursor, false).entrySet()) {
+				if (event.getKey() != cursor + 1) {
+					// Подписчик читает медленнее, чем появляются события, и отстал больше чем на историю
+					writeResync(out, event.getKey() - 1);
+				}
+				out.write(event.getValue().getBytes(StandardCharsets.UTF_8));
+				cursor = event.getKey();
+				wrote = true;
+			}
+			if (!wrote && System.nanoTime() - lastWriteNanos > TimeUnit.MILLISECONDS.toNanos(KEEP_ALIVE_MILLIS)) {
+				out.write(": keep-alive\n\n".getBytes(StandardCharsets.UTF_8));
+				wrote = true;
+			}
+			if (wrote) {
+				out.flush();
+				lastWriteNanos = System.nanoTime();
+			}
+			sleep(EVENT_POLL_MILLIS);
+		}
+	}
+
+	private void writeResync(OutputStream out, long eventId) throws IOException {
+		resyncs.increment();
+		out.write(("id: " + eventId + "\nevent: resync\ndata: {}\n\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Бэйджик, который заглушка отдаст игроку (его id - {@link #badgeId})
+	 * @return вариант бэйджика игрока или -1, если бэйджика нет
+	 */
+	public int badgeVariant(UUID playerUuid) {
+		Integer published = publishedBadges.get(playerUuid);
+		if (published != null) {
+			return published;
+		}
+		// Младшие биты UUID как равномерная величина 0..1, чтобы 404 у игрока был всегда или никогда
+		double position = (playerUuid.getLeastSignificantBits() >>> 11) * 0x1.0p-53;
+		return position >= settings.notFoundRatio ? Math.floorMod(playerUuid.hashCode(), BADGE_VARIANTS) : -1;
+	}
+
+	private static JsonObject badgeJson(int variant) {
+		JsonObject badge = new JsonObject();
+		badge.addProperty("id", badgeId(variant).toString());
+		badge.addProperty("name", "Бэйджик " + variant);
+		badge.addProperty("description", "Тестовый бэйджик номер " + variant + " для нагрузочной проверки");
+		badge.addProperty("image_url", "https://example.com/badges/" + variant + ".png");
+		badge.addProperty("badge_type", BadgeType.values()[variant % BadgeType.values().length].name());
+		// Код символа в шестнадцатеричном виде, как в API
+		badge.addProperty("unicode_char", String.format("%04X", 0xE000 + variant));
+		badge.addProperty("created_at", Instant.ofEpochSecond(1_700_000_000L + variant * 86_400L).toString());
+		return badge;
+	}
+
+	private void sendJson(HttpExchange exchange, JsonElement json) throws IOException, InterruptedException {
+		byte[] body = gson.toJson(json).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (settings.gzipResponses && acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ROOT).contains("gzip")) {
+			body = gzip(body);
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+
+		if (ThreadLocalRandom.current().nextDouble() < settings.slowBodyRate) {
+			slowBodies.increment();
+			// Заголовки уходят сразу, а тело частями в течение slowBodyMillis
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			int chunk = Math.max(1, (body.length + SLOW_BODY_CHUNKS - 1) / SLOW_BODY_CHUNKS);
+			for (int offset = 0; offset < body.length; offset += chunk) {
+				out.write(body, offset, Math.min(chunk, body.length - offset));
+				out.flush();
+				sleep(settings.slowBodyMillis / SLOW_BODY_CHUNKS);
+			}
+			return;
+		}
+		exchange.sendResponseHeaders(200, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+	private static void sendEmpty(HttpExchange exchange, int statusCode) throws IOException {
+		exchange.sendResponseHeaders(statusCode, -1);
+	}
+
+	private static byte[] readBody(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+			in = new GZIPInputStream(in);
+		}
+		return in.readAllBytes();
+	}
+
+	private static byte[] gzip(byte[] body) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 64);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(body);
+		}
+		return out.toByteArray();
+	}
+
+	private static UUID parseUuid(String value) {
+		try {
+			return UUID.fromString(value);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static void sleep(long millis) throws InterruptedException {
+		if (millis > 0) {
+			Thread.sleep(millis);
+		}
+	}
+
+	/**
+	 * Типы бэйджиков в том виде, в котором их отдает API
+	 */
+	private enum BadgeType {
+		TEMPORARY,
+		EVENT,
+		PERMANENT
+	}
+
+	/**
+	 * Параметры задержек и сбоев. Поля можно менять на ходу, например чтобы включить
+	 * ошибки посреди прогона и посмотреть на срабатывание предохранителя.
+	 */
+	public static class Settings {
+		// z-оценка 99-го перцентиля стандартного нормального распределения
+		private static final double Z_99 = 2.326;
+
+		volatile double latencyMedianMillis = 20;
+		volatile double latencyP99Millis = 100;
+		volatile double errorRate;
+		volatile double lostResponseRate;
+		volatile double rateLimitRate;
+		volatile double notFoundRatio = 0.3;
+		volatile double slowBodyRate;
+		volatile long slowBodyMillis = 1_000;
+		volatile boolean gzipResponses = true;
+		volatile boolean batchCollect = true;
+		volatile int badgeBatchStatus = 200;
+		volatile long eventDropAfterMillis;
+		volatile int eventHistory = 10_000;
+		volatile String resourcePackHash = "0123456789abcdef0123456789abcdef01234567";
+
+		/**
+		 * Логнормальная задержка ответа, заданная медианой и 99-м перцентилем;
+		 * при p99 <= медианы задержка постоянная
+		 */
+		public Settings latency(double medianMillis, double p99Millis) {
+			this.latencyMedianMillis = medianMillis;
+			this.latencyP99Millis = p99Millis;
+			return this;
+		}
+
+		/**
+		 * Доля ответов 503
+		 */
+		public Settings errorRate(double errorRate) {
+			this.errorRate = errorRate;
+			return this;
+		}
+
+		/**
+		 * Доля запросов сбора ресурсов, которые учитываются, но получают 503 вместо ответа
+		 * (ответ потерян по дороге; без ключа идемпотентности повтор учтет ресурсы дважды)
+		 */
+		public Settings lostResponseRate(double lostResponseRate) {
+			this.lostResponseRate = lostResponseRate;
+			return this;
+		}
+
+		/**
+		 * Доля ответов 429 с Retry-After: 1
+		 */
+		public Settings rateLimitRate(double rateLimitRate) {
+			this.rateLimitRate = rateLimitRate;
+			return this;
+		}
+
+		/**
+		 * Доля игроков без бэйджика (404)
+		 */
+		public Settings notFoundRatio(double notFoundRatio) {
+			this.notFoundRatio = notFoundRatio;
+			return this;
+		}
+
+		/**
+		 * Доля ответов, тело которых отдается медленно, и время отдачи тела
+		 */
+		public Settings slowBody(double rate, long millis) {
+			this.slowBodyRate = rate;
+			this.slowBodyMillis = millis;
+			return this;
+		}
+
+		/**
+		 * Поддерживает ли заглушка POST /resource-collection/collect/batch (иначе 404, как у старого API)
+		 */
+		public Settings batchCollect(boolean batchCollect) {
+			this.batchCollect = batchCollect;
+			return this;
+		}
+
+		/**
+		 * Ответ на POST /badges/minecraft/batch: 200 - bulk-запрос поддерживается,
+		 * 404 или 405 - как у API без него (клиент должен перейти на одиночные запросы)
+		 */
+		public Settings badgeBatchStatus(int badgeBatchStatus) {
+			this.badgeBatchStatus = badgeBatchStatus;
+			return this;
+		}
+
+		/**
+		 * Подписка на события: через сколько миллисекунд обрывать соединение (0 - не обрывать)
+		 * и сколько последних событий хранить для продолжения по Last-Event-ID
+		 */
+		public Settings eventStream(long dropAfterMillis, int history) {
+			this.eventDropAfterMillis = dropAfterMillis;
+			this.eventHistory = history;
+			return this;
+		}
+
+		public Settings gzipResponses(boolean gzipResponses) {
+			this.gzipResponses = gzipResponses;
+			return this;
+		}
+
+		/**
+		 * Хеш ресурспака в ответе /game-servers/{id}
+		 */
+		public Settings resourcePackHash(String resourcePackHash) {
+			this.resourcePackHash = resourcePackHash;
+			return this;
+		}
+
+		long sampleLatencyMillis() {
+			double median = latencyMedianMillis;
+			if (median <= 0) {
+				return 0;
+			}
+			double p99 = latencyP99Millis;
+			if (p99 <= median) {
+				return Math.round(median);
+			}
+			double sigma = Math.log(p99 / median) / Z_99;
+			return Math.round(median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "задержка p50=%.0f мс p99=%.0f мс, 503=%.1f%%, потеря ответа=%.1f%%, 429=%.1f%%, 404=%.1f%%, медленное тело=%.1f%% (%d мс), gzip=%s",
+					latencyMedianMillis, latencyP99Millis, errorRate * 100, lostResponseRate * 100, rateLimitRate * 100,
+					notFoundRatio * 100, slowBodyRate * 100, slowBodyMillis, gzipResponses);
+		}
+	}
+
+	/**
+	 * Запуск заглушки отдельно, чтобы направить на нее мод (apiBaseUrl = выведенный адрес)
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+		MockPolystirolApi api = new MockPolystirolApi(new Settings());
+		api.start(port);
+		System.out.println("Заглушка Polystirol API: " + api.getBaseUrl() + " (" + api.getSettings() + ")");
+	}
+}
@@ -23,10 +23,92 @@ public class Config {
 			.comment("Время жизни кэша бэйджиков в секундах")
 			.defineInRange("cacheTtlSeconds", 60, 10, 3600);
 
+	public static final ModConfigSpec.IntValue CACHE_MAX_ENTRIES = BUILDER
+			.comment("Максимальное количество бэйджиков в кэше (при превышении вытесняются редко используемые)")
+			.defineInRange("cacheMaxEntries", 10000, 100, 1000000);
+
+	public static final ModConfigSpec.IntValue STALE_GRACE_SECONDS = BUILDER
+			.comment("Сколько секунд после истечения TTL отдавать последний известный бэйджик, пока он обновляется в фоне",
+					"(защищает от пропажи бэйджиков при недоступности API, 0 - отключить)")
+			.defineInRange("staleGraceSeconds", 1800, 0, 86400);
+
+	public static final ModConfigSpec.BooleanValue PERSISTENT_BADGE_STORE = BUILDER
+			.comment("Сохранять бэйджики на диск (config/polystirolutility-badges.dat), чтобы после перезапуска",
+					"они отображались сразу, даже если API недоступен")
+			.define("persistentBadgeStore", false);
+
+	public static final ModConfigSpec.BooleanValue CONTRIBUTION_JOURNAL_ENABLED = BUILDER
+			.comment("Записывать вклады /collect в журнал на диске (config/polystirolutility-contributions.journal)",
+					"до отправки в API: ресурсы принимаются и при недоступном API и не теряются при падении сервера")
+			.define("contributionJournalEnabled", true);
+
+	public static final ModConfigSpec.IntValue RESOURCE_AGGREGATION_INTERVAL_SECONDS = BUILDER
+			.comment("Суммировать вклады /collect всех игроков и отправлять их в API одним запросом раз в указанное",
+					"количество секунд (0 - отправлять каждый вклад сразу). Снижает число запросов во время событий")
+			.defineInRange("resourceAggregationIntervalSeconds", 0, 0, 3600);
+
+	public static final ModConfigSpec.BooleanValue BADGE_EVENTS_ENABLED = BUILDER
+			.comment("Получать изменения бэйджиков от API по подписке (Server-Sent Events), чтобы они",
+					"отображались сразу, а не после истечения cacheTtlSeconds или перезахода")
+			.define("badgeEventsEnabled", false);
+
+	public static final ModConfigSpec.IntValue NEGATIVE_CACHE_TTL_SECONDS = BUILDER
+			.comment("Время жизни записи о том, что у игрока нет бэйджика (ответ 404), в секундах")
+			.defineInRange("negativeCacheTtlSeconds", 600, 10, 86400);
+
+	public static final ModConfigSpec.IntValue NEGATIVE_CACHE_MAX_ENTRIES = BUILDER
+			.comment("Максимальное количество записей об игроках без бэйджика в кэше")
+			.defineInRange("negativeCacheMaxEntries", 10000, 100, 1000000);
+
 	public static final ModConfigSpec.IntValue RESOURCE_PACK_CHECK_INTERVAL = BUILDER
 			.comment("Интервал проверки resource pack hash в секундах")
 			.defineInRange("resourcePackCheckInterval", 300, 60, 3600);
 
+	public static final ModConfigSpec.IntValue API_MAX_CONCURRENT_REQUESTS = BUILDER
+			.comment("Максимальное количество одновременных запросов к одному endpoint'у API",
+					"(остальные ждут в очереди)")
+			.defineInRange("apiMaxConcurrentRequests", 16, 1, 256);
+
+	public static final ModConfigSpec.IntValue API_MAX_CONCURRENCY_LIMIT = BUILDER
+			.comment("Верхняя граница общего количества одновременных запросов к API. Фактический лимит",
+					"подстраивается под задержку ответов; остальные запросы ждут в очереди по приоритету")
+			.defineInRange("apiMaxConcurrencyLimit", 32, 2, 256);
+
+	public static final ModConfigSpec.IntValue API_INTERACTIVE_DEADLINE_MS = BUILDER
+			.comment("Общий срок запросов, ответа на которые ждет игрок (бэйджик при входе, /collect), в миллисекундах.",
+					"Все повторы должны уложиться в этот срок")
+			.defineInRange("apiInteractiveDeadlineMs", 5000, 500, 60000);
+
+	public static final ModConfigSpec.IntValue API_BACKGROUND_DEADLINE_MS = BUILDER
+			.comment("Общий срок фоновых запросов (обновление кэша бэйджиков, цели сбора ресурсов) в миллисекундах")
+			.defineInRange("apiBackgroundDeadlineMs", 60000, 1000, 300000);
+
+	public static final ModConfigSpec.IntValue API_REQUEST_COMPRESSION_THRESHOLD = BUILDER
+			.comment("Сжимать gzip тела POST-запросов к API от этого размера в байтах (0 - не сжимать).",
+					"Включайте, только если API принимает Content-Encoding: gzip. Ответы API распаковываются всегда")
+			.defineInRange("apiRequestCompressionThreshold", 0, 0, 1048576);
+
+	public static final ModConfigSpec.IntValue BADGE_BATCH_WINDOW_MS = BUILDER
+			.comment("Окно сбора запросов бэйджиков в один bulk-запрос в миллисекундах (0 - отключить)")
+			.defineInRange("badgeBatchWindowMs", 50, 0, 1000);
+
+	public static final ModConfigSpec.IntValue BADGE_BATCH_MAX_SIZE = BUILDER
+			.comment("Максимальное количество игроков в одном bulk-запросе бэйджиков")
+			.defineInRange("badgeBatchMaxSize", 100, 2, 500);
+
+	public static final ModConfigSpec.BooleanValue BADGE_HEDGING_ENABLED = BUILDER
+			.comment("Отправлять второй запрос бэйджика, если первый отвечает дольше обычного",
+					"(сокращает редкие долгие задержки показа бэйджика после входа)")
+			.define("badgeHedgingEnabled", false);
+
+	public static final ModConfigSpec.IntValue BADGE_HEDGING_PERCENTILE = BUILDER
+			.comment("Перцентиль задержки запросов бэйджика, после которого отправляется второй запрос")
+			.defineInRange("badgeHedgingPercentile", 95, 50, 99);
+
+	public static final ModConfigSpec.IntValue BADGE_HEDGING_BUDGET_PERCENT = BUILDER
+			.comment("Максимальная доля запросов бэйджика (в процентах), для которых отправляется второй запрос")
+			.defineInRange("badgeHedgingBudgetPercent", 10, 1, 50);
+
 	static final ModConfigSpec SPEC = BUILDER.build();
 
 	/**
@@ -4,9 +4,13 @@ import java.util.UUID;
 
 import org.slf4j.Logger;
 
+import com.example.polystirolutility.core.ApiTransport;
 import com.example.polystirolutility.core.BadgeApiClient;
 import com.example.polystirolutility.core.BadgeCache;
+import com.example.polystirolutility.core.BadgeEventStream;
 import com.example.polystirolutility.core.BadgeService;
+import com.example.polystirolutility.core.BadgeStore;
+import com.example.polystirolutility.core.ContributionJournal;
 import com.example.polystirolutility.core.ResourceCollectionApiClient;
 import com.example.polystirolutility.core.ResourceCollectionService;
 import com.example.polystirolutility.core.ResourcePackManager;
@@ -15,6 +19,7 @@ import com.example.polystirolutility.neoforge.ResourceCollectionCommands;
 import com.example.polystirolutility.neoforge.TabIntegration;
 import com.example.polystirolutility.neoforge.AFKManager;
 import com.example.polystirolutility.neoforge.AFKCommand;
+import com.example.polystirolutility.neoforge.StatusCommand;
 import com.mojang.logging.LogUtils;
 
 import net.minecraft.server.MinecraftServer;
@@ -24,19 +29,28 @@ import net.neoforged.fml.common.Mod;
 import net.neoforged.fml.config.ModConfig;
 import net.neoforged.fml.ModContainer;
 import net.neoforged.fml.event.lifecycle.FMLCommonSetupEvent;
+import net.neoforged.fml.loading.FMLPaths;
 import net.neoforged.neoforge.common.NeoForge;
 import net.neoforged.neoforge.event.RegisterCommandsEvent;
 import net.neoforged.neoforge.event.server.ServerStartingEvent;
+import net.neoforged.neoforge.event.server.ServerStoppingEvent;
 
 @Mod(PolystirolUtility.MODID)
 public class PolystirolUtility {
 	public static final String MODID = "polystirolutility";
 	public static final Logger LOGGER = LogUtils.getLogger();
 
+	private ApiTransport apiTransport;
+	private BadgeApiClient badgeApiClient;
+	private BadgeCache badgeCache;
 	private BadgeService badgeService;
+	private BadgeEventHandler badgeEventHandler;
+	private BadgeStore badgeStore;
+	private BadgeEventStream badgeEventStream;
 	private ResourcePackManager resourcePackManager;
 	private ResourceCollectionApiClient resourceCollectionApiClient;
 	private ResourceCollectionService resourceCollectionService;
+	private ContributionJournal contributionJournal;
 	private ResourceCollectionCommands resourceCollectionCommands;
 	private AFKManager afkManager;
 
@@ -53,53 +67,98 @@ public class PolystirolUtility {
 		event.enqueueWork(() -> {
 			LOGGER.info("Инициализация Polystirol Utility Mod...");
 
-			// Инициализируем API клиент
-			String apiBaseUrl = Config.API_BASE_URL.get();
-			BadgeApiClient apiClient = new BadgeApiClient(apiBaseUrl);
-
-			// Инициализируем кэш
-			long cacheTtl = Config.CACHE_TTL_SECONDS.get();
-			BadgeCache cache = new BadgeCache(cacheTtl);
-
-			// Инициализируем сервис
-			badgeService = new BadgeService(apiClient, cache);
-
-			// Инициализируем Resource Pack Manager
-			UUID serverId = Config.getServerId();
-			if (serverId != null) {
-				long checkInterval = Config.RESOURCE_PACK_CHECK_INTERVAL.get();
-				resourcePackManager = new ResourcePackManager(apiClient, serverId, checkInterval);
-				
-				resourcePackManager.startPeriodicCheck(() -> {
-					// Resource pack функционал отключен - управляется вручную
-				});
-			} else {
-				LOGGER.warn("serverId не настроен в конфиге, Resource Pack Manager не будет работать");
-			}
-
-			// Регистрируем обработчик событий (TAB интеграция будет инициализирована при первом использовании)
-			BadgeEventHandler eventHandler = new BadgeEventHandler(badgeService);
-			NeoForge.EVENT_BUS.register(eventHandler);
-			
 			// Пробуем зарегистрировать TAB EventBus обработчик (может не получиться, если TAB еще не загружен)
 			TabIntegration.registerTabEventListener();
 
-			// Инициализируем API клиент для сбора ресурсов
-			resourceCollectionApiClient = new ResourceCollectionApiClient(apiBaseUrl);
-
-			// Инициализируем сервис сбора ресурсов
-			String serverUuid = Config.getServerUuid();
-			if (serverUuid != null) {
-				resourceCollectionService = new ResourceCollectionService(resourceCollectionApiClient, serverUuid);
-				LOGGER.info("ResourceCollectionService инициализирован для serverUuid: {}", serverUuid);
-			} else {
-				LOGGER.warn("serverUuid не настроен в конфиге, функционал сбора ресурсов не будет работать");
-			}
-
 			LOGGER.info("Polystirol Utility Mod успешно инициализирован!");
 		});
 	}
 
+	/**
+	 * Создает транспорт и все, что работает через него. Вызывается при старте каждого сервера:
+	 * в одиночной игре процесс переживает сервер, и после остановки мира транспорт закрыт.
+	 */
+	private void startApiClients() {
+		// Общий транспорт (HTTP-клиент, повторы, лимиты запросов) для всех клиентов API
+		String apiBaseUrl = Config.API_BASE_URL.get();
+		apiTransport = new ApiTransport(apiBaseUrl, Config.API_MAX_CONCURRENT_REQUESTS.get(), Config.API_MAX_CONCURRENCY_LIMIT.get());
+		apiTransport.setDefaultDeadlines(Config.API_INTERACTIVE_DEADLINE_MS.get(), Config.API_BACKGROUND_DEADLINE_MS.get());
+		apiTransport.setRequestCompression(Config.API_REQUEST_COMPRESSION_THRESHOLD.get());
+
+		// Инициализируем API клиент
+		BadgeApiClient apiClient = new BadgeApiClient(apiTransport,
+				Config.BADGE_BATCH_WINDOW_MS.get(), Config.BADGE_BATCH_MAX_SIZE.get());
+		if (Config.BADGE_HEDGING_ENABLED.get()) {
+			apiClient.enableHedging(Config.BADGE_HEDGING_PERCENTILE.get() / 100.0,
+					Config.BADGE_HEDGING_BUDGET_PERCENT.get() / 100.0);
+		}
+		badgeApiClient = apiClient;
+
+		// Инициализируем кэш
+		long cacheTtl = Config.CACHE_TTL_SECONDS.get();
+		badgeCache = new BadgeCache(cacheTtl, Config.CACHE_MAX_ENTRIES.get(),
+				Config.NEGATIVE_CACHE_TTL_SECONDS.get(), Config.NEGATIVE_CACHE_MAX_ENTRIES.get(),
+				Config.STALE_GRACE_SECONDS.get());
+
+		// Инициализируем сервис
+		badgeService = new BadgeService(apiClient, badgeCache);
+
+		// Подписка на изменения бэйджиков, сделанные на сайте
+		if (Config.BADGE_EVENTS_ENABLED.get()) {
+			badgeEventStream = new BadgeEventStream(apiClient, badgeService);
+			badgeEventStream.start();
+		}
+
+		// Инициализируем Resource Pack Manager
+		UUID serverId = Config.getServerId();
+		if (serverId != null) {
+			long checkInterval = Config.RESOURCE_PACK_CHECK_INTERVAL.get();
+			resourcePackManager = new ResourcePackManager(apiClient, serverId, checkInterval);
+			
+			resourcePackManager.startPeriodicCheck(() -> {
+				// Resource pack функционал отключен - управляется вручную
+			});
+		} else {
+			LOGGER.warn("serverId не настроен в конфиге, Resource Pack Manager не будет работать");
+		}
+
+		// Регистрируем обработчик событий (TAB интеграция будет инициализирована при первом использовании)
+		badgeEventHandler = new BadgeEventHandler(badgeService);
+		NeoForge.EVENT_BUS.register(badgeEventHandler);
+
+		// Инициализируем API клиент для сбора ресурсов
+		resourceCollectionApiClient = new ResourceCollectionApiClient(apiTransport);
+	}
+
+	/**
+	 * Останавливает созданное в {@link #startApiClients()}; транспорт закрывается последним
+	 */
+	private void stopApiClients() {
+		if (badgeEventHandler != null) {
+			NeoForge.EVENT_BUS.unregister(badgeEventHandler);
+			badgeEventHandler = null;
+		}
+		if (resourcePackManager != null) {
+			resourcePackManager.shutdown();
+			resourcePackManager = null;
+		}
+		if (badgeCache != null) {
+			badgeCache.shutdown();
+			badgeCache = null;
+		}
+		badgeService = null;
+		badgeApiClient = null;
+		resourceCollectionApiClient = null;
+		if (apiTransport != null) {
+			apiTransport.close();
+			apiTransport = null;
+		}
+	}
+
+	public ApiTransport getApiTransport() {
+		return apiTransport;
+	}
+
 	public BadgeService getBadgeService() {
 		return badgeService;
 	}
@@ -118,6 +177,36 @@ public class PolystirolUtility {
 		// (TAB должен быть загружен к этому моменту)
 		TabIntegration.registerTabEventListener();
 
+		// Клиенты API (транспорт, кэш и сервис бэйджиков, подписка на изменения)
+		startApiClients();
+
+		// Хранилище бэйджиков на диске для теплого старта (загружается в фоне).
+		// Открывается на время работы сервера: в одиночной игре мир можно закрыть и открыть другой
+		if (badgeService != null && Config.PERSISTENT_BADGE_STORE.get()) {
+			badgeStore = new BadgeStore(FMLPaths.CONFIGDIR.get().resolve(MODID + "-badges.dat"));
+			badgeStore.start();
+			badgeService.setStore(badgeStore);
+		}
+
+		// Сервис сбора ресурсов и журнал вкладов живут, пока работает сервер: при остановке
+		// они закрываются, а неподтвержденные вклады дождутся следующего запуска в журнале
+		String serverUuid = Config.getServerUuid();
+		if (serverUuid != null && resourceCollectionApiClient != null) {
+			resourceCollectionService = new ResourceCollectionService(resourceCollectionApiClient, serverUuid);
+			if (Config.CONTRIBUTION_JOURNAL_ENABLED.get()) {
+				contributionJournal = new ContributionJournal(FMLPaths.CONFIGDIR.get().resolve(MODID + "-contributions.journal"));
+				contributionJournal.start();
+				resourceCollectionService.setJournal(contributionJournal);
+			}
+			int aggregationInterval = Config.RESOURCE_AGGREGATION_INTERVAL_SECONDS.get();
+			if (aggregationInterval > 0) {
+				resourceCollectionService.enableAggregation(aggregationInterval);
+			}
+			LOGGER.info("ResourceCollectionService инициализирован для serverUuid: {}", serverUuid);
+		} else {
+			LOGGER.warn("serverUuid не настроен в конфиге, функционал сбора ресурсов не будет работать");
+		}
+
 		// Регистрируем команды для сбора ресурсов (всегда регистрируем, проверка будет при выполнении)
 		resourceCollectionCommands = new ResourceCollectionCommands(server, Config.getServerUuid());
 		if (resourceCollectionService != null) {
@@ -139,6 +228,38 @@ public class PolystirolUtility {
 		LOGGER.info("AFK модуль инициализирован");
 	}
 
+	@SubscribeEvent
+	public void onServerStopping(ServerStoppingEvent event) {
+		// Применяем результат отправок /collect, пока игроки еще на сервере
+		if (resourceCollectionCommands != null) {
+			resourceCollectionCommands.shutdown();
+			// Обработчики привязаны к этому серверу и закрываемому ниже сервису
+			NeoForge.EVENT_BUS.unregister(resourceCollectionCommands);
+			resourceCollectionCommands = null;
+		}
+		// Неподтвержденные вклады остаются в журнале и будут отправлены после запуска
+		if (resourceCollectionService != null) {
+			resourceCollectionService.close();
+			resourceCollectionService = null;
+		}
+		if (contributionJournal != null) {
+			contributionJournal.close();
+			contributionJournal = null;
+		}
+		if (badgeEventStream != null) {
+			badgeEventStream.stop();
+			badgeEventStream = null;
+		}
+		// Дописываем отложенные изменения бэйджиков на диск
+		if (badgeStore != null) {
+			badgeService.setStore(null);
+			badgeStore.close();
+			badgeStore = null;
+		}
+		// Последним: сервис сбора ресурсов выше еще отправляет через транспорт остаток агрегата
+		stopApiClients();
+	}
+
 	@SubscribeEvent
 	public void onRegisterCommands(RegisterCommandsEvent event) {
 		// Регистрируем команды при старте сервера и после /reload
@@ -148,6 +269,9 @@ public class PolystirolUtility {
 		if (afkManager != null) {
 			new AFKCommand(afkManager).register(event.getDispatcher());
 		}
+		if (apiTransport != null) {
+			new StatusCommand(apiTransport, badgeApiClient).register(event.getDispatcher());
+		}
 	}
 }
 
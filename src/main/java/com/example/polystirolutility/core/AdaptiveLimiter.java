@@ -0,0 +1,167 @@
+package com.example.polystirolutility.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Адаптивный лимит одновременных запросов к API (AIMD по задержке) с очередями по приоритетам.
+ *
+ * Лимит растет на 1 за каждые limit успешных ответов, пока сглаженная задержка близка к
+ * минимальной наблюдаемой, и уменьшается в BACKOFF_RATIO раз, когда она вырастает больше чем в
+ * LATENCY_TOLERANCE раз или API перегружен (таймаут, 429, 5xx). Уменьшение происходит не чаще
+ * раза за время ответа, иначе один всплеск задержки обрушивает лимит до минимума. Запросы сверх лимита ждут
+ * в очереди своего приоритета; освободившееся место получает самый приоритетный запрос.
+ * Приоритету доступна только его доля лимита, поэтому фоновые запросы не занимают места,
+ * нужные запросам игроков.
+ */
+final class AdaptiveLimiter {
+	private static final int MIN_LIMIT = 2;
+	private static final double BACKOFF_RATIO = 0.9;
+	private static final double LATENCY_TOLERANCE = 2.0;
+	// Скорость, с которой базовая задержка подтягивается к текущей (если сеть стала медленнее навсегда)
+	private static final double BASELINE_DRIFT = 0.01;
+	// Вес нового замера в сглаженной задержке: одиночные медленные ответы не считаются перегрузкой
+	private static final double SMOOTHING = 0.1;
+
+	enum Outcome {
+		/** Ответ получен, задержка учитывается */
+		SUCCESS,
+		/** Признак перегрузки: таймаут, 429, 5xx, ошибка соединения */
+		DROPPED,
+		/** Не влияет на лимит (запрос отменен) */
+		IGNORED
+	}
+
+	private final int maxLimit;
+	private final RequestPriority[] priorities = RequestPriority.values();
+	private final List<ArrayDeque<CompletableFuture<Permit>>> lanes = new ArrayList<>();
+	// Поля ниже защищены монитором объекта
+	private double limit;
+	private int inFlight;
+	private double smoothedLatencyNanos;
+	private double baselineLatencyNanos;
+	private long nextBackoffNanos;
+
+	AdaptiveLimiter(int maxLimit) {
+		this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+		this.limit = Math.max(MIN_LIMIT, this.maxLimit / 2);
+		for (int i = 0; i < priorities.length; i++) {
+			lanes.add(new ArrayDeque<>());
+		}
+	}
+
+	/**
+	 * Занимает место для запроса
+	 * @return future, который завершится, когда запрос можно отправлять
+	 */
+	CompletableFuture<Permit> acquire(RequestPriority priority) {
+		synchronized (this) {
+			if (lanes.get(priority.ordinal()).isEmpty() && hasRoom(priority)) {
+				inFlight++;
+				return CompletableFuture.completedFuture(new Permit(priority));
+			}
+			CompletableFuture<Permit> waiting = new CompletableFuture<>();
+			lanes.get(priority.ordinal()).add(waiting);
+			return waiting;
+		}
+	}
+
+	/**
+	 * Освобождает место и учитывает результат запроса
+	 */
+	void release(Permit permit, Outcome outcome) {
+		List<Runnable> ready = new ArrayList<>();
+		synchronized (this) {
+			int used = inFlight;
+			inFlight--;
+			long latency = System.nanoTime() - permit.startNanos;
+			switch (outcome) {
+				case SUCCESS -> onSample(latency, used);
+				case DROPPED -> backOff();
+				case IGNORED -> {
+				}
+			}
+			dispatch(ready);
+		}
+		// Ожидающие запросы запускаются вне блокировки
+		for (Runnable start : ready) {
+			start.run();
+		}
+	}
+
+	private void onSample(long latencyNanos, int used) {
+		if (smoothedLatencyNanos == 0) {
+			smoothedLatencyNanos = latencyNanos;
+		} else {
+			smoothedLatencyNanos += (latencyNanos - smoothedLatencyNanos) * SMOOTHING;
+		}
+		if (baselineLatencyNanos == 0 || smoothedLatencyNanos < baselineLatencyNanos) {
+			baselineLatencyNanos = smoothedLatencyNanos;
+		} else {
+			baselineLatencyNanos += (smoothedLatencyNanos - baselineLatencyNanos) * BASELINE_DRIFT;
+		}
+
+		if (smoothedLatencyNanos > baselineLatencyNanos * LATENCY_TOLERANCE) {
+			backOff();
+		} else if (used >= limit / 2) {
+			// Увеличиваем лимит, только если он действительно использовался
+			limit = Math.min(maxLimit, limit + 1.0 / limit);
+		}
+	}
+
+	private void backOff() {
+		long now = System.nanoTime();
+		// Ответы на запросы, отправленные до прошлого уменьшения, еще приходят с прежней задержкой
+		if (now - nextBackoffNanos < 0) {
+			return;
+		}
+		limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+		nextBackoffNanos = now + (long) smoothedLatencyNanos;
+	}
+
+	private void dispatch(List<Runnable> ready) {
+		for (RequestPriority priority : priorities) {
+			ArrayDeque<CompletableFuture<Permit>> lane = lanes.get(priority.ordinal());
+			while (!lane.isEmpty() && hasRoom(priority)) {
+				inFlight++;
+				CompletableFuture<Permit> waiting = lane.poll();
+				Permit permit = new Permit(priority);
+				ready.add(() -> waiting.complete(permit));
+			}
+			if (!lane.isEmpty()) {
+				// Более низкие приоритеты не обгоняют ожидающие запросы этого приоритета
+				return;
+			}
+		}
+	}
+
+	private boolean hasRoom(RequestPriority priority) {
+		return inFlight < Math.max(1, (int) (limit * priority.getLimitShare()));
+	}
+
+	synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	synchronized int getQueued(RequestPriority priority) {
+		return lanes.get(priority.ordinal()).size();
+	}
+
+	/**
+	 * Занятое место в лимите
+	 */
+	static final class Permit {
+		final RequestPriority priority;
+		final long startNanos = System.nanoTime();
+
+		Permit(RequestPriority priority) {
+			this.priority = priority;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.example.polystirolutility.core;
+
+/**
+ * Ошибка запроса к Polystirol API
+ */
+public class ApiException extends RuntimeException {
+	// Код ответа HTTP или 0, если ответа не было
+	private final int statusCode;
+
+	public ApiException(String message, int statusCode) {
+		super(message);
+		this.statusCode = statusCode;
+	}
+
+	public ApiException(String message, int statusCode, Throwable cause) {
+		super(message, cause);
+		this.statusCode = statusCode;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+}
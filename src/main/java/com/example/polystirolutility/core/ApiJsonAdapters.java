@@ -0,0 +1,454 @@
+package com.example.polystirolutility.core;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Потоковые адаптеры Gson для DTO ответов API без рефлексии: поля читаются напрямую из
+ * JsonReader в конструктор DTO. Имена полей совпадают с @SerializedName в самих DTO.
+ * Неизвестные поля пропускаются, отсутствующие и null получают значения по умолчанию,
+ * как при рефлективном разборе.
+ */
+final class ApiJsonAdapters {
+	private static final Badge.BadgeType[] BADGE_TYPES = Badge.BadgeType.values();
+
+	private ApiJsonAdapters() {
+	}
+
+	/**
+	 * Создает Gson для разбора ответов API: {@link #register} на чистом GsonBuilder
+	 */
+	static Gson createGson() {
+		return register(new GsonBuilder()).create();
+	}
+
+	/**
+	 * Регистрирует адаптеры всех DTO ответов API
+	 */
+	static GsonBuilder register(GsonBuilder builder) {
+		TypeAdapter<Badge> badgeAdapter = new BadgeAdapter().nullSafe();
+		TypeAdapter<ResourceGoal> goalAdapter = new ResourceGoalAdapter().nullSafe();
+		TypeAdapter<ResourceCollectionResponse> collectionAdapter = new ResourceCollectionResponseAdapter().nullSafe();
+		return builder
+				.registerTypeAdapter(Badge.class, badgeAdapter)
+				.registerTypeAdapter(BadgeBatchResponse.class, new BadgeBatchResponseAdapter(badgeAdapter).nullSafe())
+				.registerTypeAdapter(BadgeChangeEvent.class, new BadgeChangeEventAdapter(badgeAdapter).nullSafe())
+				.registerTypeAdapter(GameServerInfo.class, new GameServerInfoAdapter().nullSafe())
+				.registerTypeAdapter(ResourceGoal.class, goalAdapter)
+				.registerTypeAdapter(ResourceProgressResponse.class, new ResourceProgressResponseAdapter(goalAdapter).nullSafe())
+				.registerTypeAdapter(ResourceCollectionResponse.class, collectionAdapter)
+				.registerTypeAdapter(ResourceCollectionBatchResponse.class, new ResourceCollectionBatchResponseAdapter(collectionAdapter).nullSafe());
+	}
+
+	/**
+	 * Тип бэйджика без учета регистра; неизвестный тип считается постоянным
+	 */
+	static Badge.BadgeType parseBadgeType(String value) {
+		if (value != null) {
+			// equalsIgnoreCase не создает строку в верхнем регистре на каждый разбор
+			for (Badge.BadgeType type : BADGE_TYPES) {
+				if (type.name().equalsIgnoreCase(value)) {
+					return type;
+				}
+			}
+		}
+		return Badge.BadgeType.PERMANENT;
+	}
+
+	private static final class BadgeAdapter extends TypeAdapter<Badge> {
+		@Override
+		public Badge read(JsonReader in) throws IOException {
+			UUID id = null;
+			String name = null;
+			String description = null;
+			String imageUrl = null;
+			Badge.BadgeType badgeType = null;
+			String unicodeChar = null;
+			Instant createdAt = null;
+
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+					case "id" -> id = readUuid(in);
+					case "name" -> name = readString(in);
+					case "description" -> description = readString(in);
+					case "image_url" -> imageUrl = readString(in);
+					case "badge_type" -> {
+						String value = readString(in);
+						badgeType = value != null ? parseBadgeType(value) : null;
+					}
+					case "unicode_char" -> unicodeChar = readString(in);
+					case "created_at" -> createdAt = readInstant(in);
+					default -> in.skipValue();
+				}
+			}
+			in.endObject();
+			return new Badge(id, name, description, imageUrl, badgeType, unicodeChar, createdAt);
+		}
+
+		@Override
+		public void write(JsonWriter out, Badge badge) throws IOException {
+			out.beginObject();
+			out.name("id").value(badge.getId() != null ? badge.getId().toString() : null);
+			out.name("name").value(badge.getName());
+			out.name("description").value(badge.getDescription());
+			out.name("image_url").value(badge.getImageUrl());
+			out.name("badge_type").value(badge.getBadgeType() != null ? badge.getBadgeType().name() : null);
+			out.name("unicode_char").value(badge.getUnicodeChar());
+			out.name("created_at").value(badge.getCreatedAt() != null ? badge.getCreatedAt().toString() : null);
+			out.endObject();
+		}
+	}
+
+	private static final class BadgeBatchResponseAdapter extends TypeAdapter<BadgeBatchResponse> {
+		private final TypeAdapter<Badge> badgeAdapter;
+
+		BadgeBatchResponseAdapter(TypeAdapter<Badge> badgeAdapter) {
+			this.badgeAdapter = badgeAdapter;
+		}
+
+		@Override
+		public BadgeBatchResponse read(JsonReader in) throws IOException {
+			Map<UUID, Badge> badges = null;
+
+			in.beginObject();
+			while (in.hasNext()) {
+				if ("badges".equals(in.nextName()) && in.peek() != JsonToken.NULL) {
+					badges = new HashMap<>();
+					in.beginObject();
+					while (in.hasNext()) {
+						UUID playerUuid = parseUuid(in.nextName());
+						// Игрок без бэйджика может прийти со значением null
+						badges.put(playerUuid, badgeAdapter.read(in));
+					}
+					in.endObject();
+				} else {
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return new BadgeBatchResponse(badges);
+		}
+
+		@Override
+		public void write(JsonWriter out, BadgeBatchResponse response) throws IOException {
+			out.beginObject();
+			out.name("badges");
+			if (response.getBadges() == null) {
+				out.nullValue();
+			} else {
+				out.beginObject();
+				for (Map.Entry<UUID, Badge> entry : response.getBadges().entrySet()) {
+					out.name(entry.getKey().toString());
+					badgeAdapter.write(out, entry.getValue());
+				}
+				out.endObject();
+			}
+			out.endObject();
+		}
+	}
+
+	private static final class BadgeChangeEventAdapter extends TypeAdapter<BadgeChangeEvent> {
+		private final TypeAdapter<Badge> badgeAdapter;
+
+		BadgeChangeEventAdapter(TypeAdapter<Badge> badgeAdapter) {
+			this.badgeAdapter = badgeAdapter;
+		}
+
+		@Override
+		public BadgeChangeEvent read(JsonReader in) throws IOException {
+			UUID playerUuid = null;
+			Badge badge = null;
+
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+					case "player_uuid" -> playerUuid = readUuid(in);
+					case "badge" -> badge = badgeAdapter.read(in);
+					default -> in.skipValue();
+				}
+			}
+			in.endObject();
+			return new BadgeChangeEvent(playerUuid, badge);
+		}
+
+		@Override
+		public void write(JsonWriter out, BadgeChangeEvent event) throws IOException {
+			out.beginObject();
+			out.name("player_uuid").value(event.getPlayerUuid() != null ? event.getPlayerUuid().toString() : null);
+			out.name("badge");
+			badgeAdapter.write(out, event.getBadge());
+			out.endObject();
+		}
+	}
+
+	private static final class GameServerInfoAdapter extends TypeAdapter<GameServerInfo> {
+		@Override
+		public GameServerInfo read(JsonReader in) throws IOException {
+			UUID id = null;
+			String name = null;
+			String resourcePackUrl = null;
+			String resourcePackHash = null;
+
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+					case "id" -> id = readUuid(in);
+					case "name" -> name = readString(in);
+					case "resource_pack_url" -> resourcePackUrl = readString(in);
+					case "resource_pack_hash" -> resourcePackHash = readString(in);
+					default -> in.skipValue();
+				}
+			}
+			in.endObject();
+			return new GameServerInfo(id, name, resourcePackUrl, resourcePackHash);
+		}
+
+		@Override
+		public void write(JsonWriter out, GameServerInfo info) throws IOException {
+			out.beginObject();
+			out.name("id").value(info.getId() != null ? info.getId().toString() : null);
+			out.name("name").value(info.getName());
+			out.name("resource_pack_url").value(info.getResourcePackUrl());
+			out.name("resource_pack_hash").value(info.getResourcePackHash());
+			out.endObject();
+		}
+	}
+
+	private static final class ResourceGoalAdapter extends TypeAdapter<ResourceGoal> {
+		@Override
+		public ResourceGoal read(JsonReader in) throws IOException {
+			String resourceType = null;
+			String name = null;
+			int currentAmount = 0;
+			int targetAmount = 0;
+			String goalId = null;
+			boolean active = false;
+
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+					case "resource_type" -> resourceType = readString(in);
+					case "name" -> name = readString(in);
+					case "current_amount" -> currentAmount = readInt(in);
+					case "target_amount" -> targetAmount = readInt(in);
+					case "goal_id" -> goalId = readString(in);
+					case "is_active" -> active = readBoolean(in);
+					default -> in.skipValue();
+				}
+			}
+			in.endObject();
+			return new ResourceGoal(resourceType, name, currentAmount, targetAmount, goalId, active);
+		}
+
+		@Override
+		public void write(JsonWriter out, ResourceGoal goal) throws IOException {
+			out.beginObject();
+			out.name("resource_type").value(goal.getResourceType());
+			out.name("name").value(goal.getName());
+			out.name("current_amount").value(goal.getCurrentAmount());
+			out.name("target_amount").value(goal.getTargetAmount());
+			out.name("goal_id").value(goal.getGoalId());
+			out.name("is_active").value(goal.isActive());
+			out.endObject();
+		}
+	}
+
+	private static final class ResourceProgressResponseAdapter extends TypeAdapter<ResourceProgressResponse> {
+		private final TypeAdapter<ResourceGoal> goalAdapter;
+
+		ResourceProgressResponseAdapter(TypeAdapter<ResourceGoal> goalAdapter) {
+			this.goalAdapter = goalAdapter;
+		}
+
+		@Override
+		public ResourceProgressResponse read(JsonReader in) throws IOException {
+			String serverId = null;
+			String serverName = null;
+			List<ResourceGoal> resources = null;
+
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+					case "server_id" -> serverId = readString(in);
+					case "server_name" -> serverName = readString(in);
+					case "resources" -> {
+						if (in.peek() == JsonToken.NULL) {
+							in.nextNull();
+						} else {
+							resources = new ArrayList<>();
+							in.beginArray();
+							while (in.hasNext()) {
+								resources.add(goalAdapter.read(in));
+							}
+							in.endArray();
+						}
+					}
+					default -> in.skipValue();
+				}
+			}
+			in.endObject();
+			return new ResourceProgressResponse(serverId, serverName, resources);
+		}
+
+		@Override
+		public void write(JsonWriter out, ResourceProgressResponse response) throws IOException {
+			out.beginObject();
+			out.name("server_id").value(response.getServerId());
+			out.name("server_name").value(response.getServerName());
+			out.name("resources");
+			if (response.getResources() == null) {
+				out.nullValue();
+			} else {
+				out.beginArray();
+				for (ResourceGoal goal : response.getResources()) {
+					goalAdapter.write(out, goal);
+				}
+				out.endArray();
+			}
+			out.endObject();
+		}
+	}
+
+	private static final class ResourceCollectionResponseAdapter extends TypeAdapter<ResourceCollectionResponse> {
+		@Override
+		public ResourceCollectionResponse read(JsonReader in) throws IOException {
+			boolean success = false;
+			String message = null;
+			int currentAmount = 0;
+
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+					case "success" -> success = readBoolean(in);
+					case "message" -> message = readString(in);
+					case "current_amount" -> currentAmount = readInt(in);
+					default -> in.skipValue();
+				}
+			}
+			in.endObject();
+			return new ResourceCollectionResponse(success, message, currentAmount);
+		}
+
+		@Override
+		public void write(JsonWriter out, ResourceCollectionResponse response) throws IOException {
+			out.beginObject();
+			out.name("success").value(response.isSuccess());
+			out.name("message").value(response.getMessage());
+			out.name("current_amount").value(response.getCurrentAmount());
+			out.endObject();
+		}
+	}
+
+	private static final class ResourceCollectionBatchResponseAdapter extends TypeAdapter<ResourceCollectionBatchResponse> {
+		private final TypeAdapter<ResourceCollectionResponse> collectionAdapter;
+
+		ResourceCollectionBatchResponseAdapter(TypeAdapter<ResourceCollectionResponse> collectionAdapter) {
+			this.collectionAdapter = collectionAdapter;
+		}
+
+		@Override
+		public ResourceCollectionBatchResponse read(JsonReader in) throws IOException {
+			Map<String, ResourceCollectionResponse> results = null;
+
+			in.beginObject();
+			while (in.hasNext()) {
+				if ("results".equals(in.nextName()) && in.peek() != JsonToken.NULL) {
+					results = new HashMap<>();
+					in.beginObject();
+					while (in.hasNext()) {
+						String resourceType = in.nextName();
+						results.put(resourceType, collectionAdapter.read(in));
+					}
+					in.endObject();
+				} else {
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return new ResourceCollectionBatchResponse(results);
+		}
+
+		@Override
+		public void write(JsonWriter out, ResourceCollectionBatchResponse response) throws IOException {
+			out.beginObject();
+			out.name("results");
+			if (response.getResults() == null) {
+				out.nullValue();
+			} else {
+				out.beginObject();
+				for (Map.Entry<String, ResourceCollectionResponse> entry : response.getResults().entrySet()) {
+					out.name(entry.getKey());
+					collectionAdapter.write(out, entry.getValue());
+				}
+				out.endObject();
+			}
+			out.endObject();
+		}
+	}
+
+	private static String readString(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return in.nextString();
+	}
+
+	private static int readInt(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return 0;
+		}
+		return in.nextInt();
+	}
+
+	private static boolean readBoolean(JsonReader in) throws IOException {
+		JsonToken token = in.peek();
+		if (token == JsonToken.NULL) {
+			in.nextNull();
+			return false;
+		}
+		// Как и Gson, принимаем булево значение, записанное строкой
+		return token == JsonToken.STRING ? Boolean.parseBoolean(in.nextString()) : in.nextBoolean();
+	}
+
+	private static UUID readUuid(JsonReader in) throws IOException {
+		String value = readString(in);
+		return value != null ? parseUuid(value) : null;
+	}
+
+	private static UUID parseUuid(String value) {
+		try {
+			return UUID.fromString(value);
+		} catch (IllegalArgumentException e) {
+			throw new JsonSyntaxException("Неверный UUID: " + value, e);
+		}
+	}
+
+	private static Instant readInstant(JsonReader in) throws IOException {
+		String value = readString(in);
+		if (value == null) {
+			return null;
+		}
+		try {
+			return Instant.parse(value);
+		} catch (DateTimeParseException e) {
+			throw new JsonSyntaxException("Неверная дата: " + value, e);
+		}
+	}
+}
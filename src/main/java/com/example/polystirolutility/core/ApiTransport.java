@@ -0,0 +1,819 @@
+package com.example.polystirolutility.core;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Общий транспорт для клиентов Polystirol API: один HttpClient (HTTP/2 с переиспользованием
+ * соединений), один Gson, один поток планировщика и общая политика повторов. Задержки повторов
+ * и сроки попыток отсчитываются хэшированным колесом таймеров, поэтому одновременно могут
+ * ожидать тысячи независимых повторов.
+ *
+ * Запросы группируются по endpoint'ам; у каждого endpoint'а свой лимит одновременных запросов.
+ * Под ним действует общий адаптивный лимит ({@link AdaptiveLimiter}) с очередями по приоритетам:
+ * запросы сверх лимитов ждут без блокировки потоков, а запросы игроков обгоняют фоновые.
+ *
+ * Если API перестал отвечать, {@link CircuitBreaker} открывается, и запросы сразу завершаются
+ * {@link CircuitOpenException}, не дожидаясь таймаутов и повторов.
+ */
+public class ApiTransport {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ApiTransport.class);
+	private static final int MAX_RETRIES = 3;
+	private static final long BASE_RETRY_DELAY_MS = 1_000;
+	private static final long MAX_RETRY_AFTER_MS = 30_000;
+	private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+	// Срок одной попытки вместе с ожиданием в очереди endpoint'а
+	private static final long ATTEMPT_TIMEOUT_MS = 15_000;
+	// Общие сроки запросов по умолчанию: игрок ждет ответа / фоновое обновление
+	private static final long DEFAULT_INTERACTIVE_DEADLINE_MS = 5_000;
+	private static final long DEFAULT_BACKGROUND_DEADLINE_MS = 60_000;
+	private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 16;
+	private static final int DEFAULT_MAX_CONCURRENCY_LIMIT = 32;
+	// Ограничение размера тела ответа (с запасом на bulk-ответ на 500 игроков)
+	private static final long MAX_BODY_BYTES = 2 * 1024 * 1024;
+	private static final Set<Integer> JSON_STATUS_CODES = Set.of(200, 201);
+	// Запрос с этим заголовком API выполняет не больше одного раза на ключ, поэтому его можно повторять
+	static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+	private final String baseUrl;
+	private final HttpClient httpClient;
+	private final Gson gson;
+	private final ScheduledExecutorService scheduler;
+	private final HashedWheelTimer timer;
+	private final AdaptiveLimiter limiter;
+	private final CircuitBreaker circuitBreaker;
+	private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+	private final int defaultMaxConcurrentRequests;
+	private volatile long interactiveDeadlineMillis = DEFAULT_INTERACTIVE_DEADLINE_MS;
+	private volatile long backgroundDeadlineMillis = DEFAULT_BACKGROUND_DEADLINE_MS;
+	// Сжатие тел запросов выключено по умолчанию: не каждый API его принимает
+	private volatile int compressionThresholdBytes;
+
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder deadlineExceeded = new LongAdder();
+	private final LongAdder compressedRequests = new LongAdder();
+	private final LongAdder requestBytesSaved = new LongAdder();
+	private final LongAdder http2Responses = new LongAdder();
+	private final LongAdder http1Responses = new LongAdder();
+	private final AtomicInteger pendingRetries = new AtomicInteger();
+	private final LongAdder retriedRequests = new LongAdder();
+	private final LongAdder retriedLatencyMillis = new LongAdder();
+	private final LongAccumulator maxRetriedLatencyMillis = new LongAccumulator(Math::max, 0);
+
+	public ApiTransport(String baseUrl) {
+		this(baseUrl, DEFAULT_MAX_CONCURRENT_REQUESTS);
+	}
+
+	/**
+	 * @param baseUrl базовый URL API
+	 * @param maxConcurrentRequests лимит одновременных запросов к одному endpoint'у по умолчанию
+	 */
+	public ApiTransport(String baseUrl, int maxConcurrentRequests) {
+		this(baseUrl, maxConcurrentRequests, DEFAULT_MAX_CONCURRENCY_LIMIT);
+	}
+
+	/**
+	 * @param baseUrl базовый URL API
+	 * @param maxConcurrentRequests лимит одновременных запросов к одному endpoint'у по умолчанию
+	 * @param maxConcurrencyLimit верхняя граница общего адаптивного лимита одновременных запросов
+	 */
+	public ApiTransport(String baseUrl, int maxConcurrentRequests, int maxConcurrencyLimit) {
+		this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+		this.defaultMaxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+		this.limiter = new AdaptiveLimiter(maxConcurrencyLimit);
+		this.circuitBreaker = new CircuitBreaker(this.baseUrl);
+		this.httpClient = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.connectTimeout(CONNECT_TIMEOUT)
+				.build();
+		// DTO ответов разбираются потоковыми адаптерами без рефлексии
+		this.gson = ApiJsonAdapters.createGson();
+		this.scheduler = Executors.newScheduledThreadPool(1, r -> {
+			Thread t = new Thread(r, "ApiTransport-Scheduler");
+			t.setDaemon(true);
+			return t;
+		});
+		this.timer = new HashedWheelTimer("ApiTransport-Timer");
+	}
+
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	HttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	Gson getGson() {
+		return gson;
+	}
+
+	ScheduledExecutorService getScheduler() {
+		return scheduler;
+	}
+
+	HashedWheelTimer getTimer() {
+		return timer;
+	}
+
+	/**
+	 * Задает лимит одновременных запросов для endpoint'а. Общий адаптивный лимит действует поверх него
+	 * @param endpoint имя endpoint'а
+	 * @param maxConcurrentRequests максимальное количество одновременных запросов
+	 */
+	public void setEndpointLimit(String endpoint, int maxConcurrentRequests) {
+		endpoint(endpoint).maxConcurrent = Math.max(1, maxConcurrentRequests);
+	}
+
+	/**
+	 * Задает общие сроки запросов по умолчанию
+	 * @param interactiveMillis срок запросов, ответа на которые ждет игрок (вход, /collect)
+	 * @param backgroundMillis срок фоновых запросов (обновление кэша, информация о сервере)
+	 */
+	public void setDefaultDeadlines(long interactiveMillis, long backgroundMillis) {
+		this.interactiveDeadlineMillis = interactiveMillis;
+		this.backgroundDeadlineMillis = backgroundMillis;
+	}
+
+	/**
+	 * Срок по умолчанию для запроса, ответа на который ждет игрок, отсчитываемый с текущего момента
+	 */
+	Deadline interactiveDeadline() {
+		return Deadline.afterMillis(interactiveDeadlineMillis);
+	}
+
+	/**
+	 * Срок по умолчанию для фонового запроса, отсчитываемый с текущего момента
+	 */
+	Deadline backgroundDeadline() {
+		return Deadline.afterMillis(backgroundDeadlineMillis);
+	}
+
+	/**
+	 * Создает запрос к пути API с таймаутом по умолчанию
+	 * @param path путь, начинающийся с "/"
+	 */
+	HttpRequest.Builder newRequest(String path) {
+		return HttpRequest.newBuilder()
+				.uri(URI.create(baseUrl + path))
+				.header("Accept-Encoding", HttpCompression.ACCEPT_ENCODING)
+				.timeout(REQUEST_TIMEOUT);
+	}
+
+	/**
+	 * Задает POST с JSON-телом. Если сжатие запросов включено, тело от порога и больше
+	 * отправляется сжатым gzip (когда это действительно уменьшает его).
+	 */
+	HttpRequest.Builder postJson(HttpRequest.Builder builder, Object body) {
+		byte[] json = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+		builder.header("Content-Type", "application/json");
+		int threshold = compressionThresholdBytes;
+		if (threshold > 0 && json.length >= threshold) {
+			byte[] compressed = HttpCompression.gzip(json);
+			if (compressed.length < json.length) {
+				builder.header("Content-Encoding", "gzip");
+				compressedRequests.increment();
+				requestBytesSaved.add(json.length - compressed.length);
+				json = compressed;
+			}
+		}
+		return builder.POST(HttpRequest.BodyPublishers.ofByteArray(json));
+	}
+
+	/**
+	 * Включает сжатие тел POST-запросов gzip. API должен поддерживать Content-Encoding: gzip в запросах.
+	 * @param thresholdBytes минимальный размер тела для сжатия (0 - не сжимать)
+	 */
+	public void setRequestCompression(int thresholdBytes) {
+		this.compressionThresholdBytes = Math.max(0, thresholdBytes);
+	}
+
+	/**
+	 * Останавливает поток таймера и планировщик. Запланированные повторы и сроки попыток
+	 * больше не срабатывают, поэтому закрывать транспорт нужно после клиентов, которые его используют.
+	 */
+	public void close() {
+		timer.stop();
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Тело ответов 200 и 201 разбирается без промежуточной строки до завершения попытки, тела остальных ответов пропускаются
+	 */
+	<T> JsonBodyHandler<T> jsonBody(Class<T> responseType) {
+		return new JsonBodyHandler<>(gson, responseType, MAX_BODY_BYTES, JSON_STATUS_CODES);
+	}
+
+	<T> CompletableFuture<T> send(String endpoint, RequestPriority priority, Deadline deadline, HttpRequest request, Class<T> responseType) {
+		return send(endpoint, priority, deadline, request, jsonBody(responseType), response -> response.body().get());
+	}
+
+	<B, T> CompletableFuture<T> send(String endpoint, RequestPriority priority, Deadline deadline, HttpRequest request,
+			HttpResponse.BodyHandler<B> bodyHandler, Function<HttpResponse<B>, T> parser) {
+		return send(endpoint, priority, deadline, request, bodyHandler, parser, isIdempotent(request));
+	}
+
+	/**
+	 * Отправляет запрос с повторами. Ответы 2xx (и 304 на условный запрос) передаются в parser, остальные завершают
+	 * future с {@link ApiException}. Повторяются только сетевые ошибки и ответы 408, 429, 5xx
+	 * (для неидемпотентных запросов - только ошибки установки соединения и 429, когда запрос
+	 * заведомо не был обработан; POST с заголовком Idempotency-Key считается идемпотентным). Повторы планируются таймером и не занимают потоки.
+	 * Все попытки и задержки между ними укладываются в общий срок: попытка обрывается по его
+	 * истечении, а повтор, который не успевает, не выполняется.
+	 * @param endpoint имя endpoint'а для лимита одновременных запросов и статистики
+	 * @param priority приоритет запроса в общем лимите одновременных запросов
+	 * @param deadline общий срок запроса
+	 * @param parser разбор успешного ответа
+	 * @param idempotent можно ли безопасно повторить запрос, который мог быть обработан
+	 * @return future результата; его отмена прерывает текущую попытку и отменяет повторы
+	 */
+	<B, T> CompletableFuture<T> send(String endpoint, RequestPriority priority, Deadline deadline, HttpRequest request,
+			HttpResponse.BodyHandler<B> bodyHandler, Function<HttpResponse<B>, T> parser, boolean idempotent) {
+		Call<B, T> call = new Call<>(endpoint(endpoint), priority, deadline, request, bodyHandler, parser, idempotent);
+		CompletableFuture<T> future = attempt(call, 0);
+		return cancelling(future, call::cancel);
+	}
+
+	/**
+	 * CompletableFuture не передает отмену назад по цепочке, поэтому отмена производного
+	 * future (например, проигравшего хеджированного запроса) явно отменяет исходный
+	 * @param derived future, который получит вызывающий
+	 * @param source исходный future
+	 */
+	static <T> CompletableFuture<T> cancelling(CompletableFuture<T> derived, CompletableFuture<?> source) {
+		return cancelling(derived, () -> source.cancel(true));
+	}
+
+	/**
+	 * @param cancel действие при отмене derived
+	 */
+	private static <T> CompletableFuture<T> cancelling(CompletableFuture<T> derived, Runnable cancel) {
+		derived.whenComplete((value, throwable) -> {
+			if (derived.isCancelled()) {
+				cancel.run();
+			}
+		});
+		return derived;
+	}
+
+	private <B, T> CompletableFuture<T> attempt(Call<B, T> call, int attempt) {
+		if (call.cancelled) {
+			return CompletableFuture.failedFuture(new CancellationException());
+		}
+		long remainingMillis = call.deadline.remainingMillis();
+		if (remainingMillis <= 0) {
+			deadlineExceeded.increment();
+			return finish(call, attempt, CompletableFuture.<T>failedFuture(new ApiException("Истек срок запроса", 0)));
+		}
+		CompletableFuture<HttpResponse<B>> execution = execute(call.endpoint, call.priority, call.request, call.bodyHandler,
+				Math.min(ATTEMPT_TIMEOUT_MS, remainingMillis));
+		call.current = execution;
+		if (call.cancelled) {
+			execution.cancel(true);
+		}
+		// handle вместо thenCompose + exceptionallyCompose: ошибки следующих попыток не должны
+		// снова попадать в обработчик этой попытки
+		return execution
+				.handle((response, throwable) -> {
+					if (throwable != null) {
+						Throwable cause = unwrap(throwable);
+						if (!isRetryable(cause, call.idempotent)) {
+							return finish(call, attempt, CompletableFuture.<T>failedFuture(cause));
+						}
+						if (attempt >= MAX_RETRIES) {
+							failures.increment();
+							return finish(call, attempt, CompletableFuture.<T>failedFuture(new ApiException("Превышено количество попыток", 0, cause)));
+						}
+						return retryLater(call, attempt, backoff(attempt), cause);
+					}
+
+					int statusCode = response.statusCode();
+					if (isSuccess(statusCode, call.request)) {
+						return finish(call, attempt, parse(response, call.parser));
+					}
+					if (!isRetryable(statusCode, call.idempotent)) {
+						return finish(call, attempt, CompletableFuture.<T>failedFuture(errorFor(statusCode)));
+					}
+					if (attempt >= MAX_RETRIES) {
+						failures.increment();
+						return finish(call, attempt, CompletableFuture.<T>failedFuture(new ApiException("Превышено количество попыток", statusCode)));
+					}
+					return retryLater(call, attempt, Math.max(backoff(attempt), retryAfterMillis(response)), errorFor(statusCode));
+				})
+				.thenCompose(Function.identity());
+	}
+
+	/**
+	 * @param reason ошибка попытки; становится причиной, если повтор не выполняется
+	 */
+	private <B, T> CompletableFuture<T> retryLater(Call<B, T> call, int attempt, long delayMillis, Throwable reason) {
+		if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+			// Повтор все равно будет отклонен - не заставляем вызывающего ждать задержку
+			return finish(call, attempt, CompletableFuture.<T>failedFuture(new CircuitOpenException("API временно недоступен, повтор не выполняется")));
+		}
+		if (delayMillis >= call.deadline.remainingMillis()) {
+			// Повтор не успеет до истечения срока - сообщаем об ошибке сразу, а не по истечении срока
+			deadlineExceeded.increment();
+			return finish(call, attempt, CompletableFuture.<T>failedFuture(new ApiException("Истек срок запроса", 0, reason)));
+		}
+		retries.increment();
+		pendingRetries.incrementAndGet();
+		LOGGER.debug("Повтор запроса {} через {} мс (попытка {})", call.request.uri(), delayMillis, attempt + 1);
+
+		// Каждый повтор - отдельный таймер колеса: долгие последовательности повторов не задерживают другие
+		CompletableFuture<Void> delayFuture = new CompletableFuture<>();
+		timer.schedule(() -> {
+			pendingRetries.decrementAndGet();
+			delayFuture.complete(null);
+		}, delayMillis);
+		return delayFuture.thenCompose(v -> attempt(call, attempt + 1));
+	}
+
+	/**
+	 * Учитывает время выполнения запроса, которому понадобились повторы
+	 */
+	private <T> CompletableFuture<T> finish(Call<?, ?> call, int attempt, CompletableFuture<T> result) {
+		if (attempt > 0) {
+			long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - call.startNanos);
+			retriedRequests.increment();
+			retriedLatencyMillis.add(latencyMillis);
+			maxRetriedLatencyMillis.accumulate(latencyMillis);
+		}
+		return result;
+	}
+
+	/**
+	 * Экспоненциальная задержка 1, 2, 4 секунды со случайным разбросом (от половины до полной задержки),
+	 * чтобы повторы многих запросов после сбоя не приходили в API одновременно
+	 */
+	private static long backoff(int attempt) {
+		long delay = BASE_RETRY_DELAY_MS << Math.min(attempt, 16);
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	/**
+	 * Задержка из заголовка Retry-After (только в секундах), не больше MAX_RETRY_AFTER_MS
+	 */
+	private static long retryAfterMillis(HttpResponse<?> response) {
+		return response.headers().firstValue("Retry-After")
+				.map(value -> {
+					try {
+						return Math.min(Long.parseLong(value.trim()) * 1000, MAX_RETRY_AFTER_MS);
+					} catch (NumberFormatException e) {
+						return 0L;
+					}
+				})
+				.orElse(0L);
+	}
+
+	private static boolean isIdempotent(HttpRequest request) {
+		return switch (request.method()) {
+			case "GET", "HEAD", "PUT", "DELETE", "OPTIONS" -> true;
+			default -> request.headers().firstValue(IDEMPOTENCY_KEY_HEADER).isPresent();
+		};
+	}
+
+	private static boolean isRetryable(Throwable cause, boolean idempotent) {
+		if (cause instanceof ConnectException || cause instanceof HttpConnectTimeoutException) {
+			// Соединение не установлено или запрос не дождался очереди - запрос точно не дошел до API
+			return true;
+		}
+		return idempotent && cause instanceof IOException;
+	}
+
+	private static boolean isRetryable(int statusCode, boolean idempotent) {
+		if (statusCode == 429) {
+			return true;
+		}
+		return idempotent && (statusCode == 408 || statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504);
+	}
+
+	private static ApiException errorFor(int statusCode) {
+		return switch (statusCode) {
+			case 304 -> new ApiException("Ответ 304 на безусловный запрос", 304);
+			case 400 -> new ApiException("Неверный запрос", 400);
+			case 404 -> new ApiException("Ресурс не найден", 404);
+			case 405 -> new ApiException("Метод не поддерживается", 405);
+			default -> new ApiException("Ошибка API: код " + statusCode, statusCode);
+		};
+	}
+
+	private static Throwable unwrap(Throwable throwable) {
+		return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+	}
+
+	/**
+	 * Отправляет одну попытку запроса, дождавшись свободного места сначала в лимите endpoint'а, затем в общем лимите:
+	 * запросы к перегруженному endpoint'у не занимают места в общем лимите, пока ждут своей очереди.
+	 * Срок попытки включает ожидание в очередях; по его истечении отправка отменяется.
+	 * @param timeoutMillis срок попытки: ATTEMPT_TIMEOUT_MS или остаток общего срока запроса
+	 */
+	private <B> CompletableFuture<HttpResponse<B>> execute(Endpoint endpoint, RequestPriority priority, HttpRequest request,
+			HttpResponse.BodyHandler<B> bodyHandler, long timeoutMillis) {
+		if (!circuitBreaker.tryAcquire()) {
+			return CompletableFuture.failedFuture(new CircuitOpenException("API временно недоступен, запрос не отправлен"));
+		}
+		CompletableFuture<HttpResponse<B>> result = new CompletableFuture<>();
+		AtomicReference<CompletableFuture<HttpResponse<B>>> sending = new AtomicReference<>();
+		HashedWheelTimer.Timeout deadline = timer.schedule(() -> {
+			CompletableFuture<HttpResponse<B>> inProgress = sending.get();
+			// Запрос, который еще ждет в очереди, точно не дошел до API, поэтому его можно повторить как неотправленный
+			IOException timeout = inProgress == null
+					? new HttpConnectTimeoutException("Истек срок ожидания в очереди запросов")
+					: new HttpTimeoutException("Истек срок попытки запроса");
+			if (result.completeExceptionally(timeout) && inProgress != null) {
+				inProgress.cancel(true);
+			}
+		}, timeoutMillis);
+		result.whenComplete((response, throwable) -> {
+			if (result.isCancelled()) {
+				// Запрос отменен вызывающим - прерываем отправку
+				deadline.cancel();
+				CompletableFuture<HttpResponse<B>> inProgress = sending.get();
+				if (inProgress != null) {
+					inProgress.cancel(true);
+				}
+			}
+		});
+
+		endpoint.acquire().thenAccept(v -> {
+			if (result.isDone()) {
+				// Срок попытки истек в очереди endpoint'а или запрос отменен
+				endpoint.release();
+				circuitBreaker.onResult(AdaptiveLimiter.Outcome.IGNORED);
+				return;
+			}
+			dispatch(endpoint, priority, request, bodyHandler, result, sending, deadline);
+		});
+		return result;
+	}
+
+	private <B> void dispatch(Endpoint endpoint, RequestPriority priority, HttpRequest request, HttpResponse.BodyHandler<B> bodyHandler,
+			CompletableFuture<HttpResponse<B>> result, AtomicReference<CompletableFuture<HttpResponse<B>>> sending,
+			HashedWheelTimer.Timeout deadline) {
+		limiter.acquire(priority).thenAccept(permit -> {
+			if (result.isDone()) {
+				// Срок попытки истек в очереди или запрос отменен
+				limiter.release(permit, AdaptiveLimiter.Outcome.IGNORED);
+				endpoint.release();
+				circuitBreaker.onResult(AdaptiveLimiter.Outcome.IGNORED);
+				return;
+			}
+			requests.increment();
+			endpoint.requests.increment();
+			endpoint.inFlight.incrementAndGet();
+			CompletableFuture<HttpResponse<B>> send;
+			try {
+				send = httpClient.sendAsync(request, bodyHandler);
+			} catch (RuntimeException e) {
+				send = CompletableFuture.failedFuture(e);
+			}
+			sending.set(send);
+			if (result.isDone()) {
+				// Срок попытки истек или запрос отменен, пока он отправлялся
+				send.cancel(true);
+			}
+			send.whenComplete((response, throwable) -> {
+				// Место в лимите освобождается, когда запрос действительно завершился.
+				// Если результат уже завершен ошибкой, отправку отменил срок попытки - это признак перегрузки
+				AdaptiveLimiter.Outcome outcome = result.isCancelled() ? AdaptiveLimiter.Outcome.IGNORED
+						: result.isDone() ? AdaptiveLimiter.Outcome.DROPPED
+						: outcomeOf(response, throwable);
+				endpoint.inFlight.decrementAndGet();
+				limiter.release(permit, outcome);
+				endpoint.release();
+				circuitBreaker.onResult(outcome);
+				deadline.cancel();
+				if (response != null) {
+					if (response.version() == HttpClient.Version.HTTP_2) {
+						http2Responses.increment();
+					} else {
+						http1Responses.increment();
+					}
+					result.complete(response);
+				} else {
+					result.completeExceptionally(unwrap(throwable));
+				}
+			});
+		});
+	}
+
+	private static AdaptiveLimiter.Outcome outcomeOf(HttpResponse<?> response, Throwable throwable) {
+		if (response != null) {
+			int statusCode = response.statusCode();
+			return statusCode == 429 || statusCode >= 500 ? AdaptiveLimiter.Outcome.DROPPED : AdaptiveLimiter.Outcome.SUCCESS;
+		}
+		Throwable cause = unwrap(throwable);
+		if (cause instanceof CancellationException) {
+			return AdaptiveLimiter.Outcome.IGNORED;
+		}
+		return cause instanceof IOException ? AdaptiveLimiter.Outcome.DROPPED : AdaptiveLimiter.Outcome.IGNORED;
+	}
+
+	private static boolean isSuccess(int statusCode, HttpRequest request) {
+		if (statusCode == 304) {
+			// 304 без валидаторов в запросе - ошибка: у вызывающего нет закэшированного значения, а тела нет
+			return isConditional(request);
+		}
+		return statusCode >= 200 && statusCode < 300;
+	}
+
+	private static boolean isConditional(HttpRequest request) {
+		return request.headers().firstValue("If-None-Match").isPresent()
+				|| request.headers().firstValue("If-Modified-Since").isPresent();
+	}
+
+	private static <B, T> CompletableFuture<T> parse(HttpResponse<B> response, Function<HttpResponse<B>, T> parser) {
+		try {
+			return CompletableFuture.completedFuture(parser.apply(response));
+		} catch (JsonParseException e) {
+			return CompletableFuture.failedFuture(new ApiException("Ошибка парсинга JSON", response.statusCode(), e));
+		}
+	}
+
+	private Endpoint endpoint(String name) {
+		return endpoints.computeIfAbsent(name, n -> new Endpoint(n, defaultMaxConcurrentRequests));
+	}
+
+	/**
+	 * Количество отправленных HTTP-запросов (включая повторы)
+	 */
+	public long getRequestCount() {
+		return requests.sum();
+	}
+
+	/**
+	 * Количество повторов запросов
+	 */
+	public long getRetryCount() {
+		return retries.sum();
+	}
+
+	/**
+	 * Количество запросов, не выполненных после всех повторов
+	 */
+	public long getFailureCount() {
+		return failures.sum();
+	}
+
+	/**
+	 * Количество запросов, отправленных со сжатым телом
+	 */
+	public long getCompressedRequestCount() {
+		return compressedRequests.sum();
+	}
+
+	/**
+	 * Сколько байт тел запросов сэкономило сжатие
+	 */
+	public long getRequestBytesSaved() {
+		return requestBytesSaved.sum();
+	}
+
+	/**
+	 * Количество запросов, не уложившихся в общий срок
+	 */
+	public long getDeadlineExceededCount() {
+		return deadlineExceeded.sum();
+	}
+
+	/**
+	 * Количество повторов, ожидающих своего времени (глубина очереди повторов)
+	 */
+	public int getPendingRetryCount() {
+		return pendingRetries.get();
+	}
+
+	/**
+	 * Количество запросов, завершившихся (успешно или нет) после одного или нескольких повторов
+	 */
+	public long getRetriedRequestCount() {
+		return retriedRequests.sum();
+	}
+
+	/**
+	 * Среднее время выполнения запросов с повторами (от первой попытки до результата), в миллисекундах
+	 */
+	public double getAverageRetriedLatencyMillis() {
+		long count = retriedRequests.sum();
+		return count == 0 ? 0.0 : (double) retriedLatencyMillis.sum() / count;
+	}
+
+	/**
+	 * Максимальное время выполнения запроса с повторами, в миллисекундах
+	 */
+	public long getMaxRetriedLatencyMillis() {
+		return maxRetriedLatencyMillis.get();
+	}
+
+	/**
+	 * Количество ответов, полученных по HTTP/2 (мультиплексируются в одном соединении)
+	 */
+	public long getHttp2ResponseCount() {
+		return http2Responses.sum();
+	}
+
+	/**
+	 * Количество ответов, полученных по HTTP/1.1 (API не поддерживает HTTP/2)
+	 */
+	public long getHttp1ResponseCount() {
+		return http1Responses.sum();
+	}
+
+	/**
+	 * Количество запросов, выполняющихся в данный момент
+	 */
+	public int getInFlightCount() {
+		return limiter.getInFlight();
+	}
+
+	/**
+	 * Предохранитель запросов к API
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Текущий адаптивный лимит одновременных запросов
+	 */
+	public int getConcurrencyLimit() {
+		return limiter.getLimit();
+	}
+
+	/**
+	 * Количество запросов приоритета, ожидающих места в лимите
+	 */
+	public int getQueuedCount(RequestPriority priority) {
+		return limiter.getQueued(priority);
+	}
+
+	/**
+	 * Снимок статистики по endpoint'ам
+	 */
+	public List<EndpointStats> getEndpointStats() {
+		List<EndpointStats> stats = new ArrayList<>();
+		for (Endpoint endpoint : endpoints.values()) {
+			stats.add(endpoint.snapshot());
+		}
+		return stats;
+	}
+
+	/**
+	 * Параметры запроса, общие для всех его попыток
+	 */
+	private static final class Call<B, T> {
+		final Endpoint endpoint;
+		final RequestPriority priority;
+		final Deadline deadline;
+		final HttpRequest request;
+		final HttpResponse.BodyHandler<B> bodyHandler;
+		final Function<HttpResponse<B>, T> parser;
+		final boolean idempotent;
+		final long startNanos = System.nanoTime();
+		// Текущая попытка, чтобы отмена запроса могла ее прервать
+		volatile CompletableFuture<?> current;
+		volatile boolean cancelled;
+
+		Call(Endpoint endpoint, RequestPriority priority, Deadline deadline, HttpRequest request, HttpResponse.BodyHandler<B> bodyHandler,
+				Function<HttpResponse<B>, T> parser, boolean idempotent) {
+			this.endpoint = endpoint;
+			this.priority = priority;
+			this.deadline = deadline;
+			this.request = request;
+			this.bodyHandler = bodyHandler;
+			this.parser = parser;
+			this.idempotent = idempotent;
+		}
+
+		void cancel() {
+			cancelled = true;
+			CompletableFuture<?> attempt = current;
+			if (attempt != null) {
+				attempt.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Лимит одновременных запросов к endpoint'у с очередью ожидающих и счетчики endpoint'а
+	 */
+	private static final class Endpoint {
+		final String name;
+		final LongAdder requests = new LongAdder();
+		// Запросы, уже отправленные в HttpClient (без ожидающих общего лимита)
+		final AtomicInteger inFlight = new AtomicInteger();
+		volatile int maxConcurrent;
+		// Поля ниже защищены монитором объекта
+		private final ArrayDeque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+		private int active;
+
+		Endpoint(String name, int maxConcurrent) {
+			this.name = name;
+			this.maxConcurrent = maxConcurrent;
+		}
+
+		CompletableFuture<Void> acquire() {
+			synchronized (this) {
+				if (active < maxConcurrent) {
+					active++;
+					return CompletableFuture.completedFuture(null);
+				}
+				CompletableFuture<Void> permit = new CompletableFuture<>();
+				waiting.add(permit);
+				return permit;
+			}
+		}
+
+		void release() {
+			CompletableFuture<Void> next;
+			synchronized (this) {
+				next = active <= maxConcurrent ? waiting.poll() : null;
+				if (next == null) {
+					active--;
+				}
+			}
+			// Место передается следующему в очереди; запускаем его вне блокировки
+			if (next != null) {
+				next.complete(null);
+			}
+		}
+
+		synchronized EndpointStats snapshot() {
+			return new EndpointStats(name, maxConcurrent, inFlight.get(), waiting.size(), requests.sum());
+		}
+	}
+
+	/**
+	 * Статистика одного endpoint'а
+	 */
+	public static final class EndpointStats {
+		private final String name;
+		private final int maxConcurrent;
+		private final int inFlight;
+		private final int queued;
+		private final long requestCount;
+
+		EndpointStats(String name, int maxConcurrent, int inFlight, int queued, long requestCount) {
+			this.name = name;
+			this.maxConcurrent = maxConcurrent;
+			this.inFlight = inFlight;
+			this.queued = queued;
+			this.requestCount = requestCount;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getMaxConcurrent() {
+			return maxConcurrent;
+		}
+
+		public int getInFlight() {
+			return inFlight;
+		}
+
+		public int getQueued() {
+			return queued;
+		}
+
+		public long getRequestCount() {
+			return requestCount;
+		}
+	}
+}
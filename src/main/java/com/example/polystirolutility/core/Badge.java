@@ -25,6 +25,16 @@ public class Badge {
 		// Конструктор по умолчанию для Gson
 	}
 
+	public Badge(UUID id, String name, String description, String imageUrl, BadgeType badgeType, String unicodeChar, Instant createdAt) {
+		this.id = id;
+		this.name = name;
+		this.description = description;
+		this.imageUrl = imageUrl;
+		this.badgeType = badgeType;
+		this.unicodeChar = unicodeChar;
+		this.createdAt = createdAt;
+	}
+
 	public UUID getId() {
 		return id;
 	}
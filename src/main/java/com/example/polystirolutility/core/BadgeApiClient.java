@@ -1,187 +1,315 @@
 package com.example.polystirolutility.core;
 
-import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
-
 public class BadgeApiClient {
 	private static final Logger LOGGER = LoggerFactory.getLogger(BadgeApiClient.class);
-	private static final int MAX_RETRIES = 3;
-	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+	// Имена endpoint'ов для статистики транспорта
+	static final String BADGES_ENDPOINT = "badges";
+	static final String GAME_SERVERS_ENDPOINT = "game-servers";
 
-	private final String baseUrl;
-	private final HttpClient httpClient;
-	private final Gson gson;
-	private final ScheduledExecutorService scheduler;
+	private final ApiTransport transport;
+	private final BadgeBatcher batcher;
+	private volatile boolean batchEndpointSupported = true;
+	private volatile RequestHedger hedger;
+	// Последний ответ /game-servers/{id} с валидаторами для условных запросов
+	private final Map<UUID, ConditionalResult<GameServerInfo>> serverInfoCache = new ConcurrentHashMap<>();
+	private final LongAdder conditionalRequests = new LongAdder();
+	private final LongAdder notModifiedResponses = new LongAdder();
 
 	public BadgeApiClient(String baseUrl) {
-		this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
-		this.httpClient = HttpClient.newBuilder()
-				.connectTimeout(Duration.ofSeconds(5))
-				.build();
-		this.gson = new GsonBuilder()
-				.registerTypeAdapter(Instant.class, new InstantDeserializer())
-				.registerTypeAdapter(Badge.BadgeType.class, new BadgeTypeDeserializer())
-				.create();
-		this.scheduler = Executors.newScheduledThreadPool(1, r -> {
-			Thread t = new Thread(r, "BadgeApiClient-Scheduler");
-			t.setDaemon(true);
-			return t;
-		});
+		this(new ApiTransport(baseUrl), 0, 1);
+	}
+
+	/**
+	 * @param transport общий транспорт API
+	 * @param batchWindowMillis окно сбора запросов в пачку (0 - без пачек)
+	 * @param maxBatchSize максимальный размер пачки
+	 */
+	public BadgeApiClient(ApiTransport transport, long batchWindowMillis, int maxBatchSize) {
+		this.transport = transport;
+		this.batcher = batchWindowMillis > 0 && maxBatchSize > 1
+				? new BadgeBatcher(this, transport.getScheduler(), batchWindowMillis, maxBatchSize)
+				: null;
 	}
 
 	/**
-	 * Получает выбранный бэйджик игрока
+	 * Получает выбранный бэйджик игрока. Если включены пачки, запрос
+	 * объединяется с другими запросами, пришедшими в течение окна.
 	 * @param playerUuid UUID игрока
-	 * @return Badge или null, если игрок не имеет бэйджика
+	 * @return Badge или null, если игрок не имеет бэйджика (404);
+	 *         при сетевой ошибке или ошибке сервера future завершается исключением
 	 */
 	public CompletableFuture<Badge> getPlayerBadge(UUID playerUuid) {
-		String url = baseUrl + "/badges/minecraft/" + playerUuid.toString();
-		return sendRequest(url, Badge.class)
-				.exceptionally(throwable -> {
-					Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
-					if (cause instanceof ApiException apiException && apiException.getStatusCode() == 404) {
-						// 404 - нормальная ситуация, игрок не имеет бэйджика
-						return null;
-					}
-					LOGGER.error("Ошибка при получении бэйджика игрока {}: {}", playerUuid, cause.getMessage());
-					return null;
-				});
+		return getPlayerBadge(playerUuid, transport.interactiveDeadline());
 	}
 
 	/**
-	 * Получает информацию о сервере
-	 * @param serverId UUID сервера
-	 * @return GameServerInfo
+	 * Получает выбранный бэйджик игрока с заданным общим сроком
+	 * @param playerUuid UUID игрока
+	 * @param deadline срок, в который должны уложиться все попытки
+	 * @return Badge или null, если игрок не имеет бэйджика (404);
+	 *         при сетевой ошибке, ошибке сервера или истечении срока future завершается исключением
 	 */
-	public CompletableFuture<GameServerInfo> getServerInfo(UUID serverId) {
-		String url = baseUrl + "/game-servers/" + serverId.toString();
-		return sendRequest(url, GameServerInfo.class)
-				.exceptionally(throwable -> {
-					LOGGER.error("Ошибка при получении информации о сервере {}: {}", serverId, throwable.getMessage());
-					return null;
-				});
+	public CompletableFuture<Badge> getPlayerBadge(UUID playerUuid, Deadline deadline) {
+		if (batcher != null) {
+			return batcher.enqueue(playerUuid, deadline);
+		}
+		return fetchPlayerBadge(playerUuid, deadline);
 	}
 
-	private <T> CompletableFuture<T> sendRequest(String url, Class<T> responseType) {
-		HttpRequest request = HttpRequest.newBuilder()
-				.uri(URI.create(url))
-				.timeout(REQUEST_TIMEOUT)
-				.GET()
+	/**
+	 * Включает хеджирование одиночных запросов бэйджика: если ответ не пришел за время
+	 * заданного перцентиля задержки, отправляется второй запрос и берется первый ответ.
+	 * Запросы пачками не хеджируются.
+	 * @param percentile перцентиль задержки (0..1), например 0.95
+	 * @param budgetRatio максимальная доля хеджированных запросов (0..1), например 0.1
+	 */
+	public void enableHedging(double percentile, double budgetRatio) {
+		this.hedger = new RequestHedger(transport.getTimer(), percentile, budgetRatio);
+	}
+
+	/**
+	 * Количество запросов бэйджика, для которых отправлялся второй запрос
+	 */
+	public long getHedgedRequestCount() {
+		RequestHedger currentHedger = hedger;
+		return currentHedger != null ? currentHedger.getHedgedRequestCount() : 0;
+	}
+
+	/**
+	 * Сколько раз второй запрос ответил раньше первого
+	 */
+	public long getHedgeWinCount() {
+		RequestHedger currentHedger = hedger;
+		return currentHedger != null ? currentHedger.getHedgeWinCount() : 0;
+	}
+
+	/**
+	 * Сколько раз второй запрос не был отправлен из-за исчерпанного бюджета
+	 */
+	public long getHedgeBudgetExhaustedCount() {
+		RequestHedger currentHedger = hedger;
+		return currentHedger != null ? currentHedger.getBudgetExhaustedCount() : 0;
+	}
+
+	/**
+	 * Получает бэйджики нескольких игроков одним запросом
+	 * @param playerUuids UUID игроков
+	 * @return Map UUID -> Badge (игроки без бэйджика отсутствуют);
+	 *         при ошибке запроса future завершается исключением
+	 */
+	public CompletableFuture<Map<UUID, Badge>> getPlayerBadges(Collection<UUID> playerUuids) {
+		return getPlayerBadges(playerUuids, transport.interactiveDeadline());
+	}
+
+	/**
+	 * Получает бэйджики нескольких игроков одним запросом с заданным общим сроком
+	 * @param playerUuids UUID игроков
+	 * @param deadline срок, в который должны уложиться все попытки
+	 * @return Map UUID -> Badge (игроки без бэйджика отсутствуют);
+	 *         при ошибке запроса future завершается исключением
+	 */
+	public CompletableFuture<Map<UUID, Badge>> getPlayerBadges(Collection<UUID> playerUuids, Deadline deadline) {
+		List<UUID> uuids = new ArrayList<>(new LinkedHashSet<>(playerUuids));
+		if (uuids.isEmpty()) {
+			return CompletableFuture.completedFuture(Map.of());
+		}
+		if (!batchEndpointSupported) {
+			return fetchIndividually(uuids, deadline);
+		}
+
+		HttpRequest request = transport.postJson(transport.newRequest("/badges/minecraft/batch"), new BadgeBatchRequest(uuids))
 				.build();
 
-		return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-				.thenCompose(response -> {
-					if (response.statusCode() == 200) {
-						try {
-							T result = gson.fromJson(response.body(), responseType);
-							return CompletableFuture.completedFuture(result);
-						} catch (JsonParseException e) {
-							return CompletableFuture.failedFuture(new ApiException("Ошибка парсинга JSON", response.statusCode(), e));
+		// POST только читает бэйджики, поэтому его можно повторять как идемпотентный запрос
+		return transport.send(BADGES_ENDPOINT, RequestPriority.INTERACTIVE, deadline, request, transport.jsonBody(BadgeBatchResponse.class), response -> response.body().get(), true)
+				.<Map<UUID, Badge>>thenApply(response -> {
+					Map<UUID, Badge> result = new HashMap<>();
+					if (response != null && response.getBadges() != null) {
+						for (Map.Entry<UUID, Badge> entry : response.getBadges().entrySet()) {
+							if (entry.getValue() != null) {
+								result.put(entry.getKey(), entry.getValue());
+							}
 						}
-					} else if (response.statusCode() == 404) {
-						return CompletableFuture.failedFuture(new ApiException("Ресурс не найден", 404));
-					} else if (response.statusCode() == 400) {
-						return CompletableFuture.failedFuture(new ApiException("Неверный запрос", 400));
-					} else {
-						return retryRequest(request, responseType, 0);
 					}
+					return result;
 				})
-				.exceptionally(throwable -> {
-					Throwable cause = throwable.getCause();
-					if (cause instanceof IOException || cause instanceof java.net.http.HttpTimeoutException) {
-						// Сетевая ошибка - повторяем запрос
-						return retryRequest(request, responseType, 0).join();
-					}
-					// Другие ошибки пробрасываем дальше
-					if (throwable instanceof RuntimeException) {
-						throw (RuntimeException) throwable;
+				.exceptionallyCompose(throwable -> {
+					Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+					if (cause instanceof ApiException apiException
+							&& (apiException.getStatusCode() == 404 || apiException.getStatusCode() == 405)) {
+						// Бэкенд не поддерживает bulk-запрос - переходим на одиночные запросы
+						LOGGER.warn("Bulk-запрос бэйджиков не поддерживается API, используются одиночные запросы");
+						batchEndpointSupported = false;
+						return fetchIndividually(uuids, deadline);
 					}
-					throw new RuntimeException(throwable);
+					return CompletableFuture.failedFuture(cause);
+				});
+	}
+
+	boolean isBatchEndpointSupported() {
+		return batchEndpointSupported;
+	}
+
+	ApiTransport getTransport() {
+		return transport;
+	}
+
+	private CompletableFuture<Map<UUID, Badge>> fetchIndividually(List<UUID> uuids, Deadline deadline) {
+		Map<UUID, CompletableFuture<Badge>> futures = new HashMap<>();
+		for (UUID uuid : uuids) {
+			futures.put(uuid, fetchPlayerBadge(uuid, deadline));
+		}
+		return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+				.thenApply(v -> {
+					Map<UUID, Badge> result = new HashMap<>();
+					futures.forEach((uuid, future) -> {
+						Badge badge = future.join();
+						if (badge != null) {
+							result.put(uuid, badge);
+						}
+					});
+					return result;
 				});
 	}
 
-	private <T> CompletableFuture<T> retryRequest(HttpRequest request, Class<T> responseType, int attempt) {
-		if (attempt >= MAX_RETRIES) {
-			return CompletableFuture.failedFuture(new ApiException("Превышено количество попыток", 0));
+	CompletableFuture<Badge> fetchPlayerBadge(UUID playerUuid, Deadline deadline) {
+		RequestHedger currentHedger = hedger;
+		if (currentHedger != null) {
+			return currentHedger.call(() -> fetchPlayerBadgeOnce(playerUuid, deadline));
 		}
+		return fetchPlayerBadgeOnce(playerUuid, deadline);
+	}
 
-		long delay = (long) Math.pow(2, attempt); // Экспоненциальная задержка: 1, 2, 4 секунды
+	private CompletableFuture<Badge> fetchPlayerBadgeOnce(UUID playerUuid, Deadline deadline) {
+		HttpRequest request = transport.newRequest("/badges/minecraft/" + playerUuid).GET().build();
+		CompletableFuture<Badge> sent = transport.send(BADGES_ENDPOINT, RequestPriority.INTERACTIVE, deadline, request, Badge.class);
+		return ApiTransport.cancelling(sent
+				.exceptionally(throwable -> {
+					Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+					if (cause instanceof ApiException apiException && apiException.getStatusCode() == 404) {
+						// 404 - нормальная ситуация, игрок не имеет бэйджика
+						return null;
+					}
+					// Сетевые ошибки и ошибки сервера пробрасываем, чтобы не принять их за отсутствие бэйджика
+					throw new CompletionException(cause);
+				}), sent);
+	}
 
-		CompletableFuture<Void> delayFuture = new CompletableFuture<>();
-		scheduler.schedule(() -> delayFuture.complete(null), delay, TimeUnit.SECONDS);
+	/**
+	 * Получает бэйджик игрока условным запросом без объединения в пачки
+	 * @param playerUuid UUID игрока
+	 * @param validators валидаторы закэшированного бэйджика или null
+	 * @return результат: 304 (бэйджик не изменился), новый бэйджик или null-значение при 404;
+	 *         при сетевой ошибке или ошибке сервера future завершается исключением
+	 */
+	public CompletableFuture<ConditionalResult<Badge>> getPlayerBadge(UUID playerUuid, CacheValidators validators) {
+		return getPlayerBadge(playerUuid, validators, transport.backgroundDeadline());
+	}
 
-		return delayFuture.thenCompose(v -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()))
-				.thenCompose(response -> {
-					if (response.statusCode() == 200) {
-						try {
-							T result = gson.fromJson(response.body(), responseType);
-							return CompletableFuture.completedFuture(result);
-						} catch (JsonParseException e) {
-							return CompletableFuture.failedFuture(new ApiException("Ошибка парсинга JSON", response.statusCode(), e));
-						}
-					} else if (response.statusCode() == 404) {
-						return CompletableFuture.failedFuture(new ApiException("Ресурс не найден", 404));
+	/**
+	 * Получает бэйджик игрока условным запросом с заданным общим сроком
+	 * @param playerUuid UUID игрока
+	 * @param validators валидаторы закэшированного бэйджика или null
+	 * @param deadline срок, в который должны уложиться все попытки
+	 */
+	public CompletableFuture<ConditionalResult<Badge>> getPlayerBadge(UUID playerUuid, CacheValidators validators, Deadline deadline) {
+		return sendConditionalRequest(BADGES_ENDPOINT, RequestPriority.NORMAL, deadline, "/badges/minecraft/" + playerUuid, Badge.class, validators)
+				.exceptionally(throwable -> {
+					Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+					if (cause instanceof ApiException apiException && apiException.getStatusCode() == 404) {
+						// 404 - нормальная ситуация, игрок не имеет бэйджика
+						return ConditionalResult.modified(null, null);
+					}
+					throw new CompletionException(cause);
+				});
+	}
+
+	/**
+	 * Получает информацию о сервере. Повторные запросы отправляются условными:
+	 * при ответе 304 возвращается ранее полученная информация без разбора тела.
+	 * @param serverId UUID сервера
+	 * @return GameServerInfo
+	 */
+	public CompletableFuture<GameServerInfo> getServerInfo(UUID serverId) {
+		ConditionalResult<GameServerInfo> cached = serverInfoCache.get(serverId);
+		return sendConditionalRequest(GAME_SERVERS_ENDPOINT, RequestPriority.BACKGROUND, transport.backgroundDeadline(), "/game-servers/" + serverId, GameServerInfo.class,
+				cached != null ? cached.getValidators() : null)
+				.thenApply(result -> {
+					if (result.isNotModified()) {
+						return cached.getValue();
+					}
+					if (result.getValidators() != null) {
+						serverInfoCache.put(serverId, result);
 					} else {
-						return retryRequest(request, responseType, attempt + 1);
+						serverInfoCache.remove(serverId);
 					}
+					return result.getValue();
+				})
+				.exceptionally(throwable -> {
+					LOGGER.error("Ошибка при получении информации о сервере {}: {}", serverId, throwable.getMessage());
+					return null;
 				});
 	}
 
-	private static class ApiException extends RuntimeException {
-		private final int statusCode;
+	/**
+	 * Количество отправленных условных запросов (с If-None-Match / If-Modified-Since)
+	 */
+	public long getConditionalRequestCount() {
+		return conditionalRequests.sum();
+	}
 
-		public ApiException(String message, int statusCode) {
-			super(message);
-			this.statusCode = statusCode;
-		}
+	/**
+	 * Проверяет, принимает ли транспорт запросы (предохранитель API не открыт)
+	 */
+	public boolean isAvailable() {
+		return transport.getCircuitBreaker().getState() != CircuitBreaker.State.OPEN;
+	}
 
-		public ApiException(String message, int statusCode, Throwable cause) {
-			super(message, cause);
-			this.statusCode = statusCode;
-		}
+	/**
+	 * Количество ответов 304 Not Modified
+	 */
+	public long getNotModifiedCount() {
+		return notModifiedResponses.sum();
+	}
 
-		public int getStatusCode() {
-			return statusCode;
-		}
+	/**
+	 * Доля условных запросов, на которые сервер ответил 304, в процентах
+	 */
+	public double getNotModifiedPercentage() {
+		long total = conditionalRequests.sum();
+		return total == 0 ? 0.0 : notModifiedResponses.sum() * 100.0 / total;
 	}
 
-	private static class InstantDeserializer implements JsonDeserializer<Instant> {
-		@Override
-		public Instant deserialize(JsonElement json, java.lang.reflect.Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-			return Instant.parse(json.getAsString());
+	private <T> CompletableFuture<ConditionalResult<T>> sendConditionalRequest(String endpoint, RequestPriority priority, Deadline deadline, String path, Class<T> responseType, CacheValidators validators) {
+		HttpRequest.Builder builder = transport.newRequest(path).GET();
+		if (validators != null) {
+			validators.applyTo(builder);
+			conditionalRequests.increment();
 		}
-	}
 
-	private static class BadgeTypeDeserializer implements JsonDeserializer<Badge.BadgeType> {
-		@Override
-		public Badge.BadgeType deserialize(JsonElement json, java.lang.reflect.Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-			String value = json.getAsString().toUpperCase();
-			try {
-				return Badge.BadgeType.valueOf(value);
-			} catch (IllegalArgumentException e) {
-				return Badge.BadgeType.PERMANENT; // По умолчанию
+		return transport.send(endpoint, priority, deadline, builder.build(), transport.jsonBody(responseType), response -> {
+			if (response.statusCode() == 304) {
+				// Ресурс не изменился - тела нет
+				notModifiedResponses.increment();
+				return ConditionalResult.<T>notModified(validators);
 			}
-		}
+			return ConditionalResult.modified(response.body().get(), CacheValidators.from(response));
+		});
 	}
 }
-
@@ -0,0 +1,23 @@
+package com.example.polystirolutility.core;
+
+import java.util.List;
+import java.util.UUID;
+
+import com.google.gson.annotations.SerializedName;
+
+public class BadgeBatchRequest {
+	@SerializedName("player_uuids")
+	private List<UUID> playerUuids;
+
+	public BadgeBatchRequest() {
+		// Конструктор по умолчанию для Gson
+	}
+
+	public BadgeBatchRequest(List<UUID> playerUuids) {
+		this.playerUuids = playerUuids;
+	}
+
+	public List<UUID> getPlayerUuids() {
+		return playerUuids;
+	}
+}
@@ -0,0 +1,24 @@
+package com.example.polystirolutility.core;
+
+import java.util.Map;
+import java.util.UUID;
+
+import com.google.gson.annotations.SerializedName;
+
+public class BadgeBatchResponse {
+	// Игроки без бэйджика в ответе отсутствуют или имеют значение null
+	@SerializedName("badges")
+	private Map<UUID, Badge> badges;
+
+	public BadgeBatchResponse() {
+		// Конструктор по умолчанию для Gson
+	}
+
+	BadgeBatchResponse(Map<UUID, Badge> badges) {
+		this.badges = badges;
+	}
+
+	public Map<UUID, Badge> getBadges() {
+		return badges;
+	}
+}
@@ -0,0 +1,115 @@
+package com.example.polystirolutility.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Собирает одиночные запросы бэйджиков в пачки: запросы, пришедшие в течение окна,
+ * отправляются одним bulk-запросом, а результаты раздаются ожидающим CompletableFuture.
+ */
+class BadgeBatcher {
+	private final BadgeApiClient apiClient;
+	private final ScheduledExecutorService scheduler;
+	private final long windowMillis;
+	private final int maxBatchSize;
+
+	private final Object lock = new Object();
+	private Map<UUID, CompletableFuture<Badge>> pending = new HashMap<>();
+	// Самый поздний срок среди запросов текущей пачки
+	private Deadline pendingDeadline;
+	private ScheduledFuture<?> scheduledFlush;
+
+	BadgeBatcher(BadgeApiClient apiClient, ScheduledExecutorService scheduler, long windowMillis, int maxBatchSize) {
+		this.apiClient = apiClient;
+		this.scheduler = scheduler;
+		this.windowMillis = windowMillis;
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Ставит игрока в текущую пачку
+	 * @param playerUuid UUID игрока
+	 * @param deadline общий срок запроса; пачка отправляется с самым поздним сроком своих запросов
+	 * @return CompletableFuture, завершаемый после отправки пачки
+	 */
+	CompletableFuture<Badge> enqueue(UUID playerUuid, Deadline deadline) {
+		CompletableFuture<Badge> future;
+		Map<UUID, CompletableFuture<Badge>> batch = null;
+		Deadline batchDeadline = null;
+
+		synchronized (lock) {
+			future = pending.computeIfAbsent(playerUuid, uuid -> new CompletableFuture<>());
+			pendingDeadline = deadline.later(pendingDeadline);
+			if (pending.size() >= maxBatchSize) {
+				// Пачка заполнена - отправляем, не дожидаясь окончания окна
+				batchDeadline = pendingDeadline;
+				batch = drain();
+			} else if (scheduledFlush == null) {
+				scheduledFlush = scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		if (batch != null) {
+			send(batch, batchDeadline);
+		}
+		return future;
+	}
+
+	private void flush() {
+		Map<UUID, CompletableFuture<Badge>> batch;
+		Deadline batchDeadline;
+		synchronized (lock) {
+			batchDeadline = pendingDeadline;
+			batch = drain();
+		}
+		send(batch, batchDeadline);
+	}
+
+	private Map<UUID, CompletableFuture<Badge>> drain() {
+		Map<UUID, CompletableFuture<Badge>> batch = pending;
+		pending = new HashMap<>();
+		pendingDeadline = null;
+		if (scheduledFlush != null) {
+			scheduledFlush.cancel(false);
+			scheduledFlush = null;
+		}
+		return batch;
+	}
+
+	private void send(Map<UUID, CompletableFuture<Badge>> batch, Deadline deadline) {
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		if (batch.size() == 1 || !apiClient.isBatchEndpointSupported()) {
+			// Для одного игрока (или без поддержки bulk-запроса) отправляем одиночные запросы,
+			// чтобы ошибка по одному игроку не затрагивала остальных
+			for (Map.Entry<UUID, CompletableFuture<Badge>> entry : batch.entrySet()) {
+				apiClient.fetchPlayerBadge(entry.getKey(), deadline).whenComplete((badge, throwable) -> {
+					if (throwable != null) {
+						entry.getValue().completeExceptionally(throwable);
+					} else {
+						entry.getValue().complete(badge);
+					}
+				});
+			}
+			return;
+		}
+
+		apiClient.getPlayerBadges(batch.keySet(), deadline).whenComplete((badges, throwable) -> {
+			for (Map.Entry<UUID, CompletableFuture<Badge>> entry : batch.entrySet()) {
+				if (throwable != null) {
+					entry.getValue().completeExceptionally(throwable);
+				} else {
+					// Отсутствие игрока в ответе означает, что у него нет бэйджика
+					entry.getValue().complete(badges.get(entry.getKey()));
+				}
+			}
+		});
+	}
+}
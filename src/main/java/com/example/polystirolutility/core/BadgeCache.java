@@ -1,52 +1,241 @@
 package com.example.polystirolutility.core;
 
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+/**
+ * Кэш бэйджиков игроков. Размер ограничен (вытеснение W-TinyLFU), истекшие записи
+ * удаляются колесом таймеров раз в секунду без обхода всего кэша.
+ */
 public class BadgeCache {
-	private final ConcurrentHashMap<UUID, CacheEntry> cache = new ConcurrentHashMap<>();
+	private static final long CLEANUP_INTERVAL_MS = 1_000;
+	// Доля TTL перед истечением, в течение которой прочитанная запись обновляется заранее
+	private static final double REFRESH_AHEAD_FRACTION = 0.2;
+	private static final long MIN_REFRESH_RETRY_MS = 5_000;
+	// Срок жизни бэйджика с диска, когда окно stale grace выключено: обновление из API уже запущено
+	private static final long STALE_TTL_MILLIS = 30_000;
+
+	private final BoundedCache<UUID, CacheEntry> cache;
+	// Негативный кэш: игроки, для которых API ответил 404 (бэйджика нет)
+	private final BoundedCache<UUID, Boolean> missing;
 	private final long ttlSeconds;
+	private final long negativeTtlSeconds;
+	private final long staleGraceMillis;
+	private final long refreshAheadMillis;
+	private final long refreshRetryMillis;
 	private final ScheduledExecutorService cleanupExecutor;
+	private volatile Consumer<UUID> refresher;
 
 	public BadgeCache(long ttlSeconds) {
+		this(ttlSeconds, 10_000, ttlSeconds, 10_000, 0);
+	}
+
+	/**
+	 * @param ttlSeconds время жизни записей с бэйджиком
+	 * @param maxEntries максимальное количество записей с бэйджиком
+	 * @param negativeTtlSeconds время жизни записей об отсутствии бэйджика
+	 * @param maxNegativeEntries максимальное количество записей об отсутствии бэйджика
+	 * @param staleGraceSeconds сколько секунд после истечения TTL отдавать устаревший бэйджик,
+	 *        пока выполняется фоновое обновление (0 - не отдавать)
+	 */
+	public BadgeCache(long ttlSeconds, int maxEntries, long negativeTtlSeconds, int maxNegativeEntries, long staleGraceSeconds) {
+		this.cache = new BoundedCache<>(maxEntries);
+		this.missing = new BoundedCache<>(maxNegativeEntries);
 		this.ttlSeconds = ttlSeconds;
+		this.negativeTtlSeconds = negativeTtlSeconds;
+		this.staleGraceMillis = staleGraceSeconds * 1000;
+		this.refreshAheadMillis = (long) (ttlSeconds * 1000 * REFRESH_AHEAD_FRACTION);
+		this.refreshRetryMillis = Math.max(MIN_REFRESH_RETRY_MS, ttlSeconds * 1000 / 4);
 		this.cleanupExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
 			Thread t = new Thread(r, "BadgeCache-Cleanup");
 			t.setDaemon(true);
 			return t;
 		});
 		
-		// Периодическая очистка устаревших записей
-		this.cleanupExecutor.scheduleAtFixedRate(this::cleanup, ttlSeconds, ttlSeconds, TimeUnit.SECONDS);
+		// Периодическая очистка устаревших записей (обрабатываются только истекшие корзины колеса таймеров)
+		this.cleanupExecutor.scheduleAtFixedRate(this::cleanup, CLEANUP_INTERVAL_MS, CLEANUP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Устанавливает функцию фонового обновления записи. Вызывается при чтении записи,
+	 * которая скоро истечет или уже устарела, но еще находится в окне stale grace.
+	 * @param refresher функция, запускающая асинхронную загрузку бэйджика игрока
+	 */
+	public void setRefresher(Consumer<UUID> refresher) {
+		this.refresher = refresher;
 	}
 
 	public Badge get(UUID playerUuid) {
-		CacheEntry entry = cache.get(playerUuid);
-		if (entry == null || entry.isExpired()) {
-			cache.remove(playerUuid);
+		// Запись живет в кэше до конца окна stale grace, после этого get вернет null
+		long now = System.currentTimeMillis();
+		CacheEntry entry = cache.get(playerUuid, now);
+		if (entry == null) {
 			return null;
 		}
+
+		// Запись скоро истечет или уже устарела - обновляем в фоне, а пока отдаем то, что есть
+		if (now >= entry.expiresAt - refreshAheadMillis) {
+			triggerRefresh(playerUuid, entry, now);
+		}
 		return entry.badge;
 	}
 
+	/**
+	 * Возвращает бэйджик из кэша без проверки срока жизни и без запуска обновления
+	 * @param playerUuid UUID игрока
+	 * @return бэйджик или null, если записи нет
+	 */
+	public Badge peek(UUID playerUuid) {
+		CacheEntry entry = cache.peek(playerUuid);
+		return entry != null ? entry.badge : null;
+	}
+
+	private void triggerRefresh(UUID playerUuid, CacheEntry entry, long now) {
+		Consumer<UUID> currentRefresher = refresher;
+		if (currentRefresher == null) {
+			return;
+		}
+		// Одно обновление на запись; если оно не удалось (API недоступен), следующая попытка - не раньше чем через refreshRetryMillis
+		long allowedAt = entry.nextRefreshAt.get();
+		if (now < allowedAt || !entry.nextRefreshAt.compareAndSet(allowedAt, now + refreshRetryMillis)) {
+			return;
+		}
+		currentRefresher.accept(playerUuid);
+	}
+
 	public void put(UUID playerUuid, Badge badge) {
-		cache.put(playerUuid, new CacheEntry(badge, System.currentTimeMillis() + ttlSeconds * 1000));
+		put(playerUuid, badge, null);
+	}
+
+	/**
+	 * Добавляет бэйджик вместе с валидаторами ответа API (ETag / Last-Modified),
+	 * чтобы фоновое обновление могло отправить условный запрос
+	 * @param playerUuid UUID игрока
+	 * @param badge бэйджик
+	 * @param validators валидаторы ответа или null
+	 */
+	public void put(UUID playerUuid, Badge badge, CacheValidators validators) {
+		missing.remove(playerUuid);
+		long expiresAt = System.currentTimeMillis() + ttlSeconds * 1000;
+		cache.put(playerUuid, new CacheEntry(badge, expiresAt, validators), expiresAt + staleGraceMillis);
+	}
+
+	/**
+	 * Возвращает валидаторы закэшированного бэйджика без проверки срока жизни
+	 * @param playerUuid UUID игрока
+	 * @return валидаторы или null, если записи нет или API их не прислал
+	 */
+	public CacheValidators getValidators(UUID playerUuid) {
+		CacheEntry entry = cache.peek(playerUuid);
+		return entry != null ? entry.validators : null;
+	}
+
+	/**
+	 * Добавляет уже устаревший бэйджик (например, восстановленный с диска): он отдается
+	 * в пределах окна stale grace, а первое же чтение запускает его обновление.
+	 * Без окна stale grace бэйджик хранится как свежий, но не дольше {@link #STALE_TTL_MILLIS}
+	 * @param playerUuid UUID игрока
+	 * @param badge бэйджик
+	 */
+	public void putStale(UUID playerUuid, Badge badge) {
+		long now = System.currentTimeMillis();
+		if (staleGraceMillis <= 0) {
+			long expiresAt = now + Math.min(ttlSeconds * 1000, STALE_TTL_MILLIS);
+			cache.put(playerUuid, new CacheEntry(badge, expiresAt, null), expiresAt);
+			return;
+		}
+		cache.put(playerUuid, new CacheEntry(badge, now, null), now + staleGraceMillis);
+	}
+
+	/**
+	 * Проверяет, есть ли у кэша какая-либо запись об игроке (бэйджик или его отсутствие),
+	 * без проверки срока жизни и без учета в статистике
+	 * @param playerUuid UUID игрока
+	 */
+	public boolean contains(UUID playerUuid) {
+		return cache.peek(playerUuid) != null || missing.peek(playerUuid) != null;
 	}
 
+	/**
+	 * Возвращает UUID игроков, для которых в кэше есть бэйджик
+	 */
+	public List<UUID> keys() {
+		return cache.keys();
+	}
+
+	/**
+	 * Возвращает UUID игроков, о которых известно, что бэйджика у них нет
+	 */
+	public List<UUID> missingKeys() {
+		return missing.keys();
+	}
+
+	/**
+	 * Проверяет, известно ли, что у игрока нет бэйджика
+	 * @param playerUuid UUID игрока
+	 * @return true, если API недавно ответил 404 для этого игрока
+	 */
+	public boolean isKnownMissing(UUID playerUuid) {
+		return missing.get(playerUuid, System.currentTimeMillis()) != null;
+	}
+
+	/**
+	 * Запоминает, что у игрока нет бэйджика. Должно вызываться только для ответа 404,
+	 * но не для сетевых ошибок.
+	 * @param playerUuid UUID игрока
+	 */
+	public void putMissing(UUID playerUuid) {
+		cache.remove(playerUuid);
+		missing.put(playerUuid, Boolean.TRUE, System.currentTimeMillis() + negativeTtlSeconds * 1000);
+	}
+
+	/**
+	 * Удаляет бэйджик игрока из кэша. Запись об отсутствии бэйджика сохраняется:
+	 * она ограничена по размеру и истекает сама, а игроки без бэйджика не должны
+	 * запрашивать API при каждом входе.
+	 * @param playerUuid UUID игрока
+	 */
 	public void invalidate(UUID playerUuid) {
 		cache.remove(playerUuid);
 	}
 
 	public void clear() {
 		cache.clear();
+		missing.clear();
 	}
 
 	private void cleanup() {
 		long now = System.currentTimeMillis();
-		cache.entrySet().removeIf(entry -> entry.getValue().isExpired(now));
+		cache.expire(now);
+		missing.expire(now);
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	public long getHitCount() {
+		return cache.hitCount();
+	}
+
+	public long getMissCount() {
+		return cache.missCount();
+	}
+
+	/**
+	 * Количество записей, вытесненных из-за ограничения размера (без учета истекших)
+	 */
+	public long getEvictionCount() {
+		return cache.evictionCount() + missing.evictionCount();
+	}
+
+	public long getNegativeHitCount() {
+		return missing.hitCount();
 	}
 
 	public void shutdown() {
@@ -56,18 +245,13 @@ public class BadgeCache {
 	private static class CacheEntry {
 		final Badge badge;
 		final long expiresAt;
+		final CacheValidators validators;
+		final AtomicLong nextRefreshAt = new AtomicLong();
 
-		CacheEntry(Badge badge, long expiresAt) {
+		CacheEntry(Badge badge, long expiresAt, CacheValidators validators) {
 			this.badge = badge;
 			this.expiresAt = expiresAt;
-		}
-
-		boolean isExpired() {
-			return isExpired(System.currentTimeMillis());
-		}
-
-		boolean isExpired(long now) {
-			return now >= expiresAt;
+			this.validators = validators;
 		}
 	}
 }
@@ -0,0 +1,30 @@
+package com.example.polystirolutility.core;
+
+import java.util.UUID;
+
+import com.google.gson.annotations.SerializedName;
+
+public class BadgeChangeEvent {
+	@SerializedName("player_uuid")
+	private UUID playerUuid;
+	// null - бэйджик снят
+	@SerializedName("badge")
+	private Badge badge;
+
+	public BadgeChangeEvent() {
+		// Конструктор по умолчанию для Gson
+	}
+
+	BadgeChangeEvent(UUID playerUuid, Badge badge) {
+		this.playerUuid = playerUuid;
+		this.badge = badge;
+	}
+
+	public UUID getPlayerUuid() {
+		return playerUuid;
+	}
+
+	public Badge getBadge() {
+		return badge;
+	}
+}
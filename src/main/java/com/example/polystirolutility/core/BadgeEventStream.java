@@ -0,0 +1,247 @@
+package com.example.polystirolutility.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonParseException;
+
+/**
+ * Подписка на изменения бэйджиков через Server-Sent Events. Изменения, сделанные на сайте,
+ * применяются к кэшу и TAB сразу, а не после истечения TTL или перезахода игрока.
+ *
+ * Соединение держит отдельный поток. После обрыва подписка восстанавливается с экспоненциальной
+ * задержкой и заголовком Last-Event-ID, чтобы API дослал пропущенные события. Если API не может
+ * продолжить с этой позиции, он присылает событие resync, и все закэшированные бэйджики
+ * обновляются условными запросами.
+ */
+public class BadgeEventStream {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BadgeEventStream.class);
+	private static final String EVENTS_PATH = "/badges/minecraft/events";
+	private static final String EVENT_BADGE_CHANGED = "badge-changed";
+	private static final String EVENT_RESYNC = "resync";
+	private static final long INITIAL_RECONNECT_DELAY_MS = 1_000;
+	private static final long MAX_RECONNECT_DELAY_MS = 60_000;
+	// Соединение без событий считается рабочим, если продержалось столько времени
+	private static final long MIN_HEALTHY_CONNECTION_MS = 30_000;
+
+	private final BadgeApiClient apiClient;
+	private final BadgeService badgeService;
+	private final URI uri;
+	private final AtomicLong receivedEvents = new AtomicLong();
+	private final AtomicLong reconnects = new AtomicLong();
+	// Позиция в потоке событий, с которой продолжаем после переподключения
+	private volatile String lastEventId;
+	private volatile long reconnectDelayMillis = INITIAL_RECONNECT_DELAY_MS;
+	private volatile boolean connected;
+	private volatile boolean running;
+	private Thread thread;
+	// Момент установки текущего соединения (0 - не установлено); доступен только из потока подписки
+	private long connectedSinceNanos;
+
+	public BadgeEventStream(BadgeApiClient apiClient, BadgeService badgeService) {
+		this.apiClient = apiClient;
+		this.badgeService = badgeService;
+		this.uri = URI.create(apiClient.getTransport().getBaseUrl() + EVENTS_PATH);
+	}
+
+	/**
+	 * Запускает подписку в фоновом потоке
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this::run, "BadgeEventStream-Reader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Останавливает подписку и закрывает соединение
+	 */
+	public synchronized void stop() {
+		running = false;
+		if (thread != null) {
+			// Прерывание снимает поток с ожидания ответа или следующей строки
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+
+	public long getReceivedEventCount() {
+		return receivedEvents.get();
+	}
+
+	public long getReconnectCount() {
+		return reconnects.get();
+	}
+
+	private void run() {
+		long delay = INITIAL_RECONNECT_DELAY_MS;
+		while (running) {
+			long eventsBefore = receivedEvents.get();
+			connectedSinceNanos = 0;
+			try {
+				connect();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (IOException | UncheckedIOException e) {
+				if (!running) {
+					break;
+				}
+				LOGGER.debug("Подписка на изменения бэйджиков прервана: {}", e.getMessage());
+			} catch (RuntimeException e) {
+				LOGGER.error("Ошибка обработки подписки на изменения бэйджиков: {}", e.getMessage());
+			} finally {
+				connected = false;
+			}
+			if (!running) {
+				break;
+			}
+			if (wasHealthy(eventsBefore)) {
+				// Соединение работало - следующая попытка без накопленной задержки. Соединение, которое API
+				// принимает и сразу обрывает, задержку не сбрасывает, иначе переподключения шли бы каждую секунду
+				delay = reconnectDelayMillis;
+			}
+
+			reconnects.incrementAndGet();
+			try {
+				// Случайная добавка, чтобы серверы не переподключались к API одновременно
+				Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			delay = Math.min(delay * 2, MAX_RECONNECT_DELAY_MS);
+		}
+	}
+
+	/**
+	 * @param eventsBefore количество событий до подключения
+	 * @return true, если последнее соединение доставило хотя бы одно событие или продержалось MIN_HEALTHY_CONNECTION_MS
+	 */
+	private boolean wasHealthy(long eventsBefore) {
+		if (connectedSinceNanos == 0) {
+			return false;
+		}
+		return receivedEvents.get() > eventsBefore
+				|| System.nanoTime() - connectedSinceNanos >= MIN_HEALTHY_CONNECTION_MS * 1_000_000;
+	}
+
+	/**
+	 * Подключается и читает события до обрыва соединения
+	 */
+	private void connect() throws IOException, InterruptedException {
+		HttpRequest.Builder builder = HttpRequest.newBuilder()
+				.uri(uri)
+				.header("Accept", "text/event-stream")
+				.header("Cache-Control", "no-cache")
+				.GET();
+		String resumeFrom = lastEventId;
+		if (resumeFrom != null) {
+			builder.header("Last-Event-ID", resumeFrom);
+		}
+
+		HttpResponse<Stream<String>> response = apiClient.getTransport().getHttpClient().send(builder.build(), HttpResponse.BodyHandlers.ofLines());
+		try (Stream<String> lines = response.body()) {
+			if (response.statusCode() != 200) {
+				LOGGER.warn("API отклонил подписку на изменения бэйджиков: код {}", response.statusCode());
+				return;
+			}
+			connected = true;
+			connectedSinceNanos = System.nanoTime();
+			LOGGER.info("Подписка на изменения бэйджиков установлена{}", resumeFrom != null ? " (продолжение с " + resumeFrom + ")" : "");
+			readEvents(lines.iterator());
+		}
+	}
+
+	private void readEvents(Iterator<String> lines) {
+		String eventType = null;
+		StringBuilder data = new StringBuilder();
+		while (running && lines.hasNext()) {
+			String line = lines.next();
+			if (line.isEmpty()) {
+				// Пустая строка завершает событие
+				if (!data.isEmpty()) {
+					dispatch(eventType != null ? eventType : "message", data.toString());
+				}
+				eventType = null;
+				data.setLength(0);
+				continue;
+			}
+			if (line.charAt(0) == ':') {
+				// Комментарий (keep-alive)
+				continue;
+			}
+
+			int colon = line.indexOf(':');
+			String field = colon < 0 ? line : line.substring(0, colon);
+			String value = colon < 0 ? "" : line.substring(colon + 1);
+			if (value.startsWith(" ")) {
+				value = value.substring(1);
+			}
+			switch (field) {
+				case "event" -> eventType = value;
+				case "data" -> {
+					if (!data.isEmpty()) {
+						data.append('\n');
+					}
+					data.append(value);
+				}
+				case "id" -> {
+					if (!value.isEmpty() && value.indexOf('\0') < 0) {
+						lastEventId = value;
+					}
+				}
+				case "retry" -> {
+					try {
+						reconnectDelayMillis = Math.max(INITIAL_RECONNECT_DELAY_MS, Long.parseLong(value));
+					} catch (NumberFormatException e) {
+						// По спецификации некорректное значение игнорируется
+					}
+				}
+				default -> {
+				}
+			}
+		}
+	}
+
+	private void dispatch(String eventType, String data) {
+		receivedEvents.incrementAndGet();
+		switch (eventType) {
+			case EVENT_BADGE_CHANGED -> {
+				try {
+					BadgeChangeEvent event = apiClient.getTransport().getGson().fromJson(data, BadgeChangeEvent.class);
+					if (event == null || event.getPlayerUuid() == null) {
+						LOGGER.warn("Событие изменения бэйджика без UUID игрока: {}", data);
+						return;
+					}
+					badgeService.applyBadgeChange(event.getPlayerUuid(), event.getBadge());
+				} catch (JsonParseException e) {
+					LOGGER.warn("Ошибка парсинга события изменения бэйджика: {}", e.getMessage());
+				}
+			}
+			case EVENT_RESYNC -> {
+				LOGGER.info("API не может продолжить подписку с сохраненной позиции, обновляем все бэйджики");
+				badgeService.refreshAll();
+			}
+			default -> LOGGER.debug("Неизвестное событие подписки на бэйджики: {}", eventType);
+		}
+	}
+}
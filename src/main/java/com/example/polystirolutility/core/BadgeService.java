@@ -1,22 +1,57 @@
 package com.example.polystirolutility.core;
 
+import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class BadgeService {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BadgeService.class);
 
 	private final BadgeApiClient apiClient;
 	private final BadgeCache cache;
+	// Запросы к API, которые еще выполняются: параллельные промахи кэша по одному игроку ждут один запрос
+	private final ConcurrentHashMap<UUID, CompletableFuture<Badge>> inFlight = new ConcurrentHashMap<>();
+	// Изменения по подписке, пришедшие, пока по игроку выполнялся запрос к API: они новее его ответа
+	private final ConcurrentHashMap<UUID, Optional<Badge>> changesDuringLoad = new ConcurrentHashMap<>();
+	private final AtomicLong coalescedRequests = new AtomicLong();
+	private volatile BiConsumer<UUID, Badge> badgeChangeListener;
+	private volatile BadgeStore store;
 
 	public BadgeService(BadgeApiClient apiClient, BadgeCache cache) {
 		this.apiClient = apiClient;
 		this.cache = cache;
+		this.cache.setRefresher(this::refresh);
+	}
+
+	/**
+	 * Подключает хранилище бэйджиков на диске. Бэйджики из него отдаются сразу при промахе кэша
+	 * (с фоновым обновлением из API), а результаты API записываются в него отложенно.
+	 * @param store хранилище или null, чтобы отключить
+	 */
+	public void setStore(BadgeStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Устанавливает обработчик изменения бэйджика, обнаруженного при фоновом обновлении кэша
+	 * @param listener обработчик (UUID игрока, новый бэйджик или null)
+	 */
+	public void setBadgeChangeListener(BiConsumer<UUID, Badge> listener) {
+		this.badgeChangeListener = listener;
 	}
 
 	/**
 	 * Получает бэйджик игрока (с проверкой кэша)
 	 * @param playerUuid UUID игрока
-	 * @return CompletableFuture с Badge или null
+	 * @return CompletableFuture с Badge или null; при ошибке API завершается исключением,
+	 *         а пока предохранитель API открыт, сразу возвращает закэшированный бэйджик, если он есть
 	 */
 	public CompletableFuture<Badge> getPlayerBadge(UUID playerUuid) {
 		// Проверяем кэш
@@ -24,19 +59,194 @@ public class BadgeService {
 		if (cached != null) {
 			return CompletableFuture.completedFuture(cached);
 		}
+		if (cache.isKnownMissing(playerUuid)) {
+			// API недавно подтвердил, что бэйджика нет
+			return CompletableFuture.completedFuture(null);
+		}
+
+		// Теплый старт: бэйджик из хранилища на диске отдаем сразу, а из API обновляем в фоне
+		BadgeStore currentStore = store;
+		Badge persisted = currentStore != null ? currentStore.get(playerUuid) : null;
+		if (persisted != null) {
+			cache.putStale(playerUuid, persisted);
+			refresh(playerUuid, persisted);
+			return CompletableFuture.completedFuture(persisted);
+		}
+
+		if (!apiClient.isAvailable()) {
+			// API недоступен: не ждем ошибки запроса, а отдаем то, что осталось в кэше (или ничего)
+			return CompletableFuture.completedFuture(cache.peek(playerUuid));
+		}
+
+		return load(playerUuid, false);
+	}
+
+	/**
+	 * Обновляет бэйджик игрока в фоне. Пока обновление выполняется, кэш продолжает
+	 * отдавать прежний бэйджик; при ошибке API запись остается нетронутой.
+	 * Обновление идет условным запросом: если бэйджик не изменился, API отвечает 304
+	 * без тела и запись просто продлевается.
+	 * @param playerUuid UUID игрока
+	 */
+	private void refresh(UUID playerUuid) {
+		refresh(playerUuid, cache.peek(playerUuid));
+	}
+
+	private void refresh(UUID playerUuid, Badge previous) {
+		load(playerUuid, true).whenComplete((badge, throwable) -> {
+			if (throwable != null) {
+				LOGGER.debug("Не удалось обновить бэйджик игрока {}, используется сохраненный: {}", playerUuid, throwable.getMessage());
+				return;
+			}
+			BiConsumer<UUID, Badge> listener = badgeChangeListener;
+			if (listener != null && !isSameBadge(previous, badge)) {
+				listener.accept(playerUuid, badge);
+			}
+		});
+	}
+
+	/**
+	 * Применяет изменение бэйджика, полученное от API по подписке. Изменение применяется
+	 * только к игрокам, о которых кэш что-то знает (остальные получат бэйджик при входе).
+	 * @param playerUuid UUID игрока
+	 * @param badge новый бэйджик или null, если бэйджик снят
+	 */
+	public void applyBadgeChange(UUID playerUuid, Badge badge) {
+		if (!cache.contains(playerUuid)) {
+			return;
+		}
+		Badge previous = cache.peek(playerUuid);
+		storeResult(playerUuid, badge, null);
+		if (inFlight.containsKey(playerUuid)) {
+			changesDuringLoad.put(playerUuid, Optional.ofNullable(badge));
+		}
+		BiConsumer<UUID, Badge> listener = badgeChangeListener;
+		if (listener != null && !isSameBadge(previous, badge)) {
+			listener.accept(playerUuid, badge);
+		}
+	}
+
+	/**
+	 * Обновляет в фоне все закэшированные бэйджики. Используется, когда часть изменений
+	 * могла быть пропущена (например, API не смог продолжить подписку с сохраненной позиции).
+	 */
+	public void refreshAll() {
+		for (UUID playerUuid : cache.keys()) {
+			refresh(playerUuid);
+		}
+		// Пропущенное изменение могло и выдать бэйджик игроку, у которого его не было
+		for (UUID playerUuid : cache.missingKeys()) {
+			refresh(playerUuid);
+		}
+	}
 
-		// Запрашиваем из API
-		return apiClient.getPlayerBadge(playerUuid)
-				.thenApply(badge -> {
-					if (badge != null) {
-						cache.put(playerUuid, badge);
-					}
+	private static boolean isSameBadge(Badge a, Badge b) {
+		if (a == null || b == null) {
+			return a == b;
+		}
+		return Objects.equals(a.getId(), b.getId()) && Objects.equals(a.getUnicodeChar(), b.getUnicodeChar());
+	}
+
+	private CompletableFuture<Badge> load(UUID playerUuid, boolean revalidate) {
+		// Если запрос по этому игроку уже выполняется, присоединяемся к нему
+		CompletableFuture<Badge> future = new CompletableFuture<>();
+		CompletableFuture<Badge> existing = inFlight.putIfAbsent(playerUuid, future);
+		if (existing != null) {
+			coalescedRequests.incrementAndGet();
+			return existing;
+		}
+		changesDuringLoad.remove(playerUuid);
+
+		// Запрашиваем из API: первичная загрузка идет через пачки, фоновое обновление - условным запросом
+		CompletableFuture<Badge> request = revalidate
+				? revalidate(playerUuid)
+				: apiClient.getPlayerBadge(playerUuid).thenApply(badge -> {
+					storeLoaded(playerUuid, badge, null);
 					return badge;
 				});
+		request.whenComplete((badge, throwable) -> {
+			// Убираем запись до завершения future, чтобы следующие вызовы шли уже в кэш или в новый запрос
+			inFlight.remove(playerUuid, future);
+			if (throwable != null) {
+				// Ответа нет - изменение уже в кэше, запоминать его больше незачем
+				changesDuringLoad.remove(playerUuid);
+				future.completeExceptionally(throwable);
+			} else {
+				future.complete(badge);
+			}
+		});
+		return future;
+	}
+
+	private CompletableFuture<Badge> revalidate(UUID playerUuid) {
+		CacheValidators validators = cache.getValidators(playerUuid);
+		return apiClient.getPlayerBadge(playerUuid, validators).thenCompose(result -> {
+			if (result.isNotModified()) {
+				Badge previous = cache.peek(playerUuid);
+				if (previous == null) {
+					// Запись успели вытеснить, подтверждать нечего - загружаем заново
+					return apiClient.getPlayerBadge(playerUuid, (CacheValidators) null).thenApply(fresh -> {
+						storeLoaded(playerUuid, fresh.getValue(), fresh.getValidators());
+						return fresh.getValue();
+					});
+				}
+				// Бэйджик не изменился: продлеваем запись, хранилище на диске не трогаем
+				if (!changesDuringLoad.containsKey(playerUuid)) {
+					cache.put(playerUuid, previous, result.getValidators());
+				}
+				return CompletableFuture.completedFuture(previous);
+			}
+			storeLoaded(playerUuid, result.getValue(), result.getValidators());
+			return CompletableFuture.completedFuture(result.getValue());
+		});
+	}
+
+	/**
+	 * Сохраняет ответ API, если за время запроса по подписке не пришло изменение этого игрока:
+	 * ответ мог быть сформирован раньше изменения и вернул бы в кэш устаревший бэйджик
+	 */
+	private void storeLoaded(UUID playerUuid, Badge badge, CacheValidators validators) {
+		if (changesDuringLoad.remove(playerUuid) != null) {
+			return;
+		}
+		storeResult(playerUuid, badge, validators);
+	}
+
+	private void storeResult(UUID playerUuid, Badge badge, CacheValidators validators) {
+		BadgeStore currentStore = store;
+		if (badge != null) {
+			cache.put(playerUuid, badge, validators);
+			if (currentStore != null) {
+				currentStore.put(playerUuid, badge);
+			}
+		} else {
+			// null без ошибки - ответ 404, сетевые ошибки сюда не попадают
+			cache.putMissing(playerUuid);
+			if (currentStore != null) {
+				currentStore.remove(playerUuid);
+			}
+		}
+	}
+
+	/**
+	 * Возвращает количество запросов, которые присоединились к уже выполняющемуся запросу
+	 * @return количество объединенных запросов
+	 */
+	public long getCoalescedRequestCount() {
+		return coalescedRequests.get();
+	}
+
+	/**
+	 * Возвращает количество запросов к API, выполняющихся в данный момент
+	 * @return количество запросов в процессе
+	 */
+	public int getInFlightRequestCount() {
+		return inFlight.size();
 	}
 
 	/**
-	 * Получает бэйджик из кэша без запроса к API
+	 * Получает бэйджик из кэша без ожидания API. Устаревший бэйджик в пределах
+	 * stale grace тоже возвращается, при этом запускается фоновое обновление.
 	 * @param playerUuid UUID игрока
 	 * @return бэйджик или null, если не найден в кэше
 	 */
@@ -0,0 +1,494 @@
+package com.example.polystirolutility.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Хранилище бэйджиков на диске для "теплого" старта: после перезапуска бэйджики
+ * доступны сразу, даже если API еще не ответил или недоступен.
+ *
+ * Файл отображается в память и ведется как журнал записей (добавление/удаление) с CRC32.
+ * Изменения применяются в памяти сразу, а в файл пишутся отложенно (write-behind) потоком
+ * BadgeStore-Writer. Файл с чужой сигнатурой, другой версией формата или поврежденным
+ * заголовком отбрасывается; поврежденный хвост журнала обрезается.
+ *
+ * Сжатый журнал пишется в файл следующего поколения (file.1, file.2, ...; поколение 0 - сам file),
+ * а не поверх текущего: файл, отображенный в память, нельзя заменить или удалить на Windows,
+ * пока отображение не освобождено сборщиком мусора. При загрузке используется последнее поколение,
+ * а прежние удаляются, как только это удастся.
+ */
+public class BadgeStore {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BadgeStore.class);
+
+	private static final int MAGIC = 0x50424447; // "PBDG"
+	private static final int VERSION = 1;
+	// Заголовок: magic (4), version (4), конец записанных данных (8), резерв (16)
+	private static final int HEADER_SIZE = 32;
+	private static final int WRITE_POSITION_OFFSET = 8;
+	// Запись: длина тела (4), CRC32 тела (4), тело: тип (1), UUID игрока (16), поля бэйджика
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final int MIN_BODY_SIZE = 17;
+	private static final byte TYPE_PUT = 1;
+	private static final byte TYPE_REMOVE = 2;
+
+	private static final int INITIAL_CAPACITY = 64 * 1024;
+	private static final long FLUSH_INTERVAL_SECONDS = 5;
+	private static final int MIN_RECORDS_FOR_COMPACTION = 1_000;
+
+	private final Path file;
+	private final Map<UUID, Badge> badges = new ConcurrentHashMap<>();
+	// Изменения, еще не записанные в файл; Optional.empty() - удаление
+	private final Map<UUID, Optional<Badge>> pending = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService writer;
+
+	// Доступны только из потока BadgeStore-Writer
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private long generation;
+	private int writePosition;
+	private int recordCount;
+
+	private volatile boolean loaded = false;
+	private volatile boolean closed = false;
+
+	public BadgeStore(Path file) {
+		this.file = file;
+		this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "BadgeStore-Writer");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Запускает загрузку файла в фоне и периодическую запись изменений
+	 */
+	public void start() {
+		writer.execute(this::load);
+		writer.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Возвращает сохраненный бэйджик игрока
+	 * @param playerUuid UUID игрока
+	 * @return бэйджик или null, если записи нет или файл еще не загружен
+	 */
+	public Badge get(UUID playerUuid) {
+		return badges.get(playerUuid);
+	}
+
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	public int size() {
+		return badges.size();
+	}
+
+	public void put(UUID playerUuid, Badge badge) {
+		Badge previous = badges.put(playerUuid, badge);
+		if (!sameContent(previous, badge)) {
+			pending.put(playerUuid, Optional.of(badge));
+		}
+	}
+
+	public void remove(UUID playerUuid) {
+		// До окончания загрузки запись может быть только в файле - удаление нужно записать в любом случае
+		if (badges.remove(playerUuid) != null || !loaded) {
+			pending.put(playerUuid, Optional.empty());
+		}
+	}
+
+	/**
+	 * Записывает оставшиеся изменения на диск и закрывает файл
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		writer.execute(() -> {
+			flush();
+			try {
+				if (buffer != null) {
+					buffer.force();
+				}
+				if (channel != null) {
+					channel.close();
+				}
+			} catch (IOException e) {
+				LOGGER.error("Ошибка при закрытии хранилища бэйджиков: {}", e.getMessage());
+			}
+		});
+		writer.shutdown();
+		try {
+			writer.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void load() {
+		try {
+			Files.createDirectories(file.getParent());
+			generation = latestGeneration();
+			Path current = generationFile(generation);
+			channel = FileChannel.open(current, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			long size = channel.size();
+			map((int) Math.max(INITIAL_CAPACITY, Math.min(size, Integer.MAX_VALUE)));
+
+			if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+				if (size > 0) {
+					LOGGER.warn("Файл {} имеет неизвестный формат или версию, хранилище бэйджиков будет создано заново", current);
+				}
+				reset();
+			} else {
+				replay(size);
+			}
+
+			loaded = true;
+			LOGGER.info("Загружено {} бэйджиков из {}", badges.size(), current);
+			deleteOlderGenerations();
+		} catch (IOException e) {
+			LOGGER.error("Не удалось открыть хранилище бэйджиков {}: {}", file, e.getMessage());
+		}
+	}
+
+	private void replay(long fileSize) {
+		long end = buffer.getLong(WRITE_POSITION_OFFSET);
+		if (end < HEADER_SIZE || end > fileSize) {
+			LOGGER.warn("Поврежден заголовок {}, хранилище бэйджиков будет создано заново", file);
+			reset();
+			return;
+		}
+
+		Map<UUID, Badge> loadedBadges = new HashMap<>();
+		int position = HEADER_SIZE;
+		int records = 0;
+		CRC32 crc = new CRC32();
+		while (position + RECORD_HEADER_SIZE <= end) {
+			int length = buffer.getInt(position);
+			if (length < MIN_BODY_SIZE || position + RECORD_HEADER_SIZE + (long) length > end) {
+				break;
+			}
+			ByteBuffer body = buffer.slice(position + RECORD_HEADER_SIZE, length);
+			crc.reset();
+			crc.update(body.duplicate());
+			if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+				break;
+			}
+
+			try {
+				byte type = body.get();
+				UUID playerUuid = new UUID(body.getLong(), body.getLong());
+				if (type == TYPE_PUT) {
+					loadedBadges.put(playerUuid, readBadge(body));
+				} else if (type == TYPE_REMOVE) {
+					loadedBadges.remove(playerUuid);
+				} else {
+					break;
+				}
+			} catch (RuntimeException e) {
+				break;
+			}
+			position += RECORD_HEADER_SIZE + length;
+			records++;
+		}
+
+		if (position != end) {
+			LOGGER.warn("Хвост журнала {} поврежден, отброшено {} байт", file, end - position);
+			writeHeader(position);
+		}
+		writePosition = position;
+		recordCount = records;
+
+		// Изменения, сделанные до окончания загрузки, новее данных из файла
+		loadedBadges.forEach((uuid, badge) -> {
+			if (!pending.containsKey(uuid)) {
+				badges.putIfAbsent(uuid, badge);
+			}
+		});
+	}
+
+	private void flush() {
+		if (!loaded || pending.isEmpty()) {
+			return;
+		}
+		try {
+			for (UUID playerUuid : pending.keySet()) {
+				Optional<Badge> change = pending.remove(playerUuid);
+				if (change == null) {
+					continue;
+				}
+				append(encode(playerUuid, change.orElse(null)));
+			}
+			writeHeader(writePosition);
+
+			if (recordCount > MIN_RECORDS_FOR_COMPACTION && recordCount > badges.size() * 2) {
+				compact();
+			}
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Ошибка при записи хранилища бэйджиков: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Перезаписывает журнал, оставляя по одной записи на игрока. Новый журнал пишется во временный файл
+	 * и атомарно переименовывается в файл следующего поколения: если процесс упадет посередине,
+	 * при загрузке будет выбран последний целый журнал. Отображенный в память файл при этом не заменяется.
+	 */
+	private void compact() throws IOException {
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		long nextGeneration = generation + 1;
+		Path nextFile = generationFile(nextGeneration);
+		int position = HEADER_SIZE;
+		int records = 0;
+		try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			out.position(HEADER_SIZE);
+			for (Map.Entry<UUID, Badge> entry : badges.entrySet()) {
+				ByteBuffer record = encode(entry.getKey(), entry.getValue());
+				position += record.remaining();
+				while (record.hasRemaining()) {
+					out.write(record);
+				}
+				records++;
+			}
+			// Заголовок пишется последним, в начало файла
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putLong(position);
+			header.clear();
+			while (header.hasRemaining()) {
+				out.write(header, header.position());
+			}
+			out.force(true);
+		}
+
+		// Если переименование или открытие не удастся, продолжаем вести прежний журнал
+		Files.move(tempFile, nextFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		FileChannel nextChannel = FileChannel.open(nextFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		MappedByteBuffer nextBuffer;
+		try {
+			nextBuffer = nextChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_CAPACITY, Math.min(nextChannel.size(), Integer.MAX_VALUE)));
+		} catch (IOException | RuntimeException e) {
+			nextChannel.close();
+			throw e;
+		}
+
+		buffer.force();
+		buffer = nextBuffer;
+		channel.close();
+		channel = nextChannel;
+		generation = nextGeneration;
+		writePosition = position;
+		recordCount = records;
+		LOGGER.debug("Хранилище бэйджиков сжато до {} записей в {}", recordCount, nextFile);
+		deleteOlderGenerations();
+	}
+
+	private Path generationFile(long generation) {
+		return generation == 0 ? file : file.resolveSibling(file.getFileName() + "." + generation);
+	}
+
+	/**
+	 * @return номер последнего поколения журнала на диске; 0, если сжатых поколений нет
+	 */
+	private long latestGeneration() throws IOException {
+		long latest = 0;
+		try (DirectoryStream<Path> siblings = Files.newDirectoryStream(file.getParent())) {
+			for (Path sibling : siblings) {
+				long siblingGeneration = parseGeneration(sibling);
+				if (siblingGeneration > latest) {
+					latest = siblingGeneration;
+				}
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * Удаляет файлы прежних поколений. На Windows файл нельзя удалить, пока его отображение не освобождено
+	 * сборщиком мусора, - такой файл остается до следующей загрузки или сжатия
+	 */
+	private void deleteOlderGenerations() {
+		try (DirectoryStream<Path> siblings = Files.newDirectoryStream(file.getParent())) {
+			for (Path sibling : siblings) {
+				long siblingGeneration = sibling.equals(file) ? 0 : parseGeneration(sibling);
+				if (siblingGeneration >= 0 && siblingGeneration < generation) {
+					try {
+						Files.deleteIfExists(sibling);
+					} catch (IOException e) {
+						LOGGER.debug("Не удалось удалить прежний журнал бэйджиков {}: {}", sibling, e.getMessage());
+					}
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.debug("Не удалось перечислить прежние журналы бэйджиков: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * @return номер поколения по имени файла или -1, если файл не относится к поколениям журнала
+	 */
+	private long parseGeneration(Path sibling) {
+		String prefix = file.getFileName() + ".";
+		String name = sibling.getFileName().toString();
+		if (!name.startsWith(prefix) || name.length() == prefix.length()) {
+			return -1;
+		}
+		String suffix = name.substring(prefix.length());
+		for (int i = 0; i < suffix.length(); i++) {
+			if (!Character.isDigit(suffix.charAt(i))) {
+				return -1;
+			}
+		}
+		try {
+			return Long.parseLong(suffix);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void append(ByteBuffer record) throws IOException {
+		if (writePosition + (long) record.remaining() > buffer.capacity()) {
+			long required = writePosition + (long) record.remaining();
+			long capacity = buffer.capacity();
+			while (capacity < required) {
+				capacity *= 2;
+			}
+			if (capacity > Integer.MAX_VALUE) {
+				throw new IOException("Хранилище бэйджиков превысило максимальный размер");
+			}
+			map((int) capacity);
+		}
+		buffer.put(writePosition, record, 0, record.remaining());
+		writePosition += record.remaining();
+		recordCount++;
+	}
+
+	private void map(int capacity) throws IOException {
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	}
+
+	private void reset() {
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		writeHeader(HEADER_SIZE);
+		writePosition = HEADER_SIZE;
+		recordCount = 0;
+	}
+
+	private void writeHeader(long position) {
+		buffer.putLong(WRITE_POSITION_OFFSET, position);
+	}
+
+	private static ByteBuffer encode(UUID playerUuid, Badge badge) {
+		byte[][] fields = badge == null ? new byte[0][] : new byte[][] {
+				bytes(badge.getId() != null ? badge.getId().toString() : null),
+				bytes(badge.getName()),
+				bytes(badge.getDescription()),
+				bytes(badge.getImageUrl()),
+				bytes(badge.getBadgeType() != null ? badge.getBadgeType().name() : null),
+				bytes(badge.getUnicodeChar()),
+				bytes(badge.getCreatedAt() != null ? badge.getCreatedAt().toString() : null)
+		};
+
+		int bodySize = MIN_BODY_SIZE;
+		for (byte[] field : fields) {
+			bodySize += 4 + (field != null ? field.length : 0);
+		}
+
+		ByteBuffer body = ByteBuffer.allocate(bodySize);
+		body.put(badge == null ? TYPE_REMOVE : TYPE_PUT);
+		body.putLong(playerUuid.getMostSignificantBits());
+		body.putLong(playerUuid.getLeastSignificantBits());
+		for (byte[] field : fields) {
+			if (field == null) {
+				body.putInt(-1);
+			} else {
+				body.putInt(field.length);
+				body.put(field);
+			}
+		}
+		body.flip();
+
+		CRC32 crc = new CRC32();
+		crc.update(body.duplicate());
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bodySize);
+		record.putInt(bodySize);
+		record.putInt((int) crc.getValue());
+		record.put(body);
+		record.flip();
+		return record;
+	}
+
+	private static Badge readBadge(ByteBuffer body) {
+		String id = readString(body);
+		String name = readString(body);
+		String description = readString(body);
+		String imageUrl = readString(body);
+		String badgeType = readString(body);
+		String unicodeChar = readString(body);
+		String createdAt = readString(body);
+		return new Badge(
+				id != null ? UUID.fromString(id) : null,
+				name,
+				description,
+				imageUrl,
+				// Тип, неизвестный этой версии мода, не должен обрывать чтение журнала
+				badgeType != null ? ApiJsonAdapters.parseBadgeType(badgeType) : null,
+				unicodeChar,
+				createdAt != null ? Instant.parse(createdAt) : null);
+	}
+
+	private static byte[] bytes(String value) {
+		return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+	}
+
+	private static String readString(ByteBuffer body) {
+		int length = body.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		body.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static boolean sameContent(Badge a, Badge b) {
+		if (a == null || b == null) {
+			return a == b;
+		}
+		return Objects.equals(a.getId(), b.getId())
+				&& Objects.equals(a.getName(), b.getName())
+				&& Objects.equals(a.getDescription(), b.getDescription())
+				&& Objects.equals(a.getImageUrl(), b.getImageUrl())
+				&& a.getBadgeType() == b.getBadgeType()
+				&& Objects.equals(a.getUnicodeChar(), b.getUnicodeChar())
+				&& Objects.equals(a.getCreatedAt(), b.getCreatedAt());
+	}
+}
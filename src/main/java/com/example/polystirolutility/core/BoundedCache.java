@@ -0,0 +1,322 @@
+package com.example.polystirolutility.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ограниченный по размеру кэш с политикой вытеснения W-TinyLFU и истечением записей
+ * через иерархическое колесо таймеров.
+ *
+ * Новые записи попадают в небольшое LRU-окно (1% емкости), вытесненные из окна
+ * соревнуются за место в основной области (SLRU: probation + protected) по оценке
+ * частоты обращений из {@link FrequencySketch}. Чтение идет без блокировки через
+ * ConcurrentHashMap; учет обращения выполняется только если блокировка политики свободна,
+ * поэтому под конкуренцией часть обращений не учитывается, но чтение не ждет.
+ */
+final class BoundedCache<K, V> {
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+
+	private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final FrequencySketch sketch;
+	private final TimerWheel<K, V> timerWheel;
+
+	private final int maximumSize;
+	private final int windowMaximum;
+	private final int protectedMaximum;
+	private final Node<K, V> window = sentinel();
+	private final Node<K, V> probation = sentinel();
+	private final Node<K, V> protectedQueue = sentinel();
+	private int windowSize;
+	private int protectedSize;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	BoundedCache(int maximumSize) {
+		this.maximumSize = Math.max(1, maximumSize);
+		this.windowMaximum = Math.max(1, this.maximumSize / 100);
+		this.protectedMaximum = (int) ((this.maximumSize - windowMaximum) * 0.8);
+		this.sketch = new FrequencySketch(this.maximumSize);
+		this.timerWheel = new TimerWheel<>(System.currentTimeMillis());
+	}
+
+	/**
+	 * Возвращает значение, если запись есть и ее срок не истек
+	 */
+	V get(K key, long now) {
+		Node<K, V> node = data.get(key);
+		if (node == null || node.deadline <= now) {
+			// Истекшая запись будет удалена колесом таймеров при следующей очистке
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		if (lock.tryLock()) {
+			try {
+				if (node.queue >= 0) {
+					onAccess(node);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return node.value;
+	}
+
+	/**
+	 * Возвращает значение без учета срока жизни, обращения и статистики
+	 */
+	V peek(K key) {
+		Node<K, V> node = data.get(key);
+		return node != null ? node.value : null;
+	}
+
+	/**
+	 * Добавляет или заменяет запись
+	 * @param deadline время в миллисекундах, после которого запись удаляется
+	 */
+	void put(K key, V value, long deadline) {
+		lock.lock();
+		try {
+			Node<K, V> node = data.get(key);
+			if (node != null) {
+				node.value = value;
+				node.deadline = deadline;
+				timerWheel.reschedule(node);
+				onAccess(node);
+				return;
+			}
+
+			node = new Node<>(key, value, deadline);
+			data.put(key, node);
+			sketch.increment(key);
+			node.queue = WINDOW;
+			linkLast(window, node);
+			windowSize++;
+			timerWheel.schedule(node);
+			evict();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Удаляет запись
+	 * @return true, если запись была
+	 */
+	boolean remove(K key) {
+		lock.lock();
+		try {
+			Node<K, V> node = data.remove(key);
+			if (node == null) {
+				return false;
+			}
+			detach(node);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Удаляет запись, только если в ней лежит указанное значение
+	 */
+	boolean remove(K key, V value) {
+		lock.lock();
+		try {
+			Node<K, V> node = data.get(key);
+			if (node == null || node.value != value) {
+				return false;
+			}
+			data.remove(key);
+			detach(node);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Удаляет истекшие записи. Стоимость пропорциональна количеству истекших записей.
+	 */
+	void expire(long now) {
+		lock.lock();
+		try {
+			timerWheel.advance(now, node -> {
+				data.remove(node.key, node);
+				unlinkAccessOrder(node);
+				expirations.increment();
+			});
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void clear() {
+		lock.lock();
+		try {
+			for (Node<K, V> node : data.values()) {
+				detach(node);
+			}
+			data.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Снимок ключей (включая истекшие, но еще не удаленные записи)
+	 */
+	List<K> keys() {
+		return new ArrayList<>(data.keySet());
+	}
+
+	int size() {
+		return data.size();
+	}
+
+	long hitCount() {
+		return hits.sum();
+	}
+
+	long missCount() {
+		return misses.sum();
+	}
+
+	long evictionCount() {
+		return evictions.sum();
+	}
+
+	long expirationCount() {
+		return expirations.sum();
+	}
+
+	private void onAccess(Node<K, V> node) {
+		sketch.increment(node.key);
+		switch (node.queue) {
+			case WINDOW -> moveToEnd(window, node);
+			case PROBATION -> {
+				// Повторное обращение - переводим в защищенную область
+				unlink(node);
+				node.queue = PROTECTED;
+				linkLast(protectedQueue, node);
+				protectedSize++;
+				demoteProtected();
+			}
+			case PROTECTED -> moveToEnd(protectedQueue, node);
+			default -> {
+			}
+		}
+	}
+
+	private void demoteProtected() {
+		while (protectedSize > protectedMaximum) {
+			Node<K, V> demoted = protectedQueue.next;
+			unlink(demoted);
+			protectedSize--;
+			demoted.queue = PROBATION;
+			linkLast(probation, demoted);
+		}
+	}
+
+	private void evict() {
+		// Лишние записи из окна становятся кандидатами в основную область
+		Node<K, V> candidate = null;
+		while (windowSize > windowMaximum) {
+			Node<K, V> node = window.next;
+			unlink(node);
+			windowSize--;
+			node.queue = PROBATION;
+			linkLast(probation, node);
+			candidate = node;
+		}
+
+		while (data.size() > maximumSize) {
+			Node<K, V> victim = probation.next;
+			if (victim == probation) {
+				victim = protectedQueue.next != protectedQueue ? protectedQueue.next : window.next;
+			}
+			Node<K, V> evicted = victim;
+			if (candidate != null && candidate != victim && candidate.queue == PROBATION) {
+				// TinyLFU: кандидат вытесняет жертву, только если к нему обращаются чаще
+				evicted = sketch.frequency(candidate.key) > sketch.frequency(victim.key) ? victim : candidate;
+			}
+			if (evicted == candidate) {
+				candidate = candidate.prev != probation ? candidate.prev : null;
+			}
+			data.remove(evicted.key, evicted);
+			detach(evicted);
+			evictions.increment();
+		}
+	}
+
+	private void detach(Node<K, V> node) {
+		unlinkAccessOrder(node);
+		timerWheel.deschedule(node);
+	}
+
+	private void unlinkAccessOrder(Node<K, V> node) {
+		if (node.queue < 0) {
+			return;
+		}
+		unlink(node);
+		if (node.queue == WINDOW) {
+			windowSize--;
+		} else if (node.queue == PROTECTED) {
+			protectedSize--;
+		}
+		node.queue = -1;
+	}
+
+	private static <K, V> Node<K, V> sentinel() {
+		Node<K, V> sentinel = new Node<>(null, null, 0);
+		sentinel.prev = sentinel;
+		sentinel.next = sentinel;
+		return sentinel;
+	}
+
+	private static <K, V> void linkLast(Node<K, V> sentinel, Node<K, V> node) {
+		node.next = sentinel;
+		node.prev = sentinel.prev;
+		sentinel.prev.next = node;
+		sentinel.prev = node;
+	}
+
+	private static <K, V> void unlink(Node<K, V> node) {
+		node.prev.next = node.next;
+		node.next.prev = node.prev;
+		node.prev = null;
+		node.next = null;
+	}
+
+	private static <K, V> void moveToEnd(Node<K, V> sentinel, Node<K, V> node) {
+		unlink(node);
+		linkLast(sentinel, node);
+	}
+
+	static final class Node<K, V> {
+		final K key;
+		volatile V value;
+		volatile long deadline;
+		// Очередь политики вытеснения (WINDOW, PROBATION, PROTECTED) или -1, если запись удалена
+		int queue = -1;
+		Node<K, V> prev;
+		Node<K, V> next;
+		Node<K, V> prevInWheel;
+		Node<K, V> nextInWheel;
+
+		Node(K key, V value, long deadline) {
+			this.key = key;
+			this.value = value;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package com.example.polystirolutility.core;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * Валидаторы HTTP-кэша (ETag, Last-Modified), сохраняемые вместе с закэшированным ответом
+ * для отправки условных запросов (If-None-Match, If-Modified-Since)
+ */
+public final class CacheValidators {
+	private final String etag;
+	private final String lastModified;
+
+	public CacheValidators(String etag, String lastModified) {
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Извлекает валидаторы из заголовков ответа
+	 * @return валидаторы или null, если сервер их не прислал
+	 */
+	public static CacheValidators from(HttpResponse<?> response) {
+		String etag = response.headers().firstValue("ETag").orElse(null);
+		String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+		if (etag == null && lastModified == null) {
+			return null;
+		}
+		return new CacheValidators(etag, lastModified);
+	}
+
+	/**
+	 * Добавляет в запрос условные заголовки
+	 */
+	public HttpRequest.Builder applyTo(HttpRequest.Builder builder) {
+		if (etag != null) {
+			builder.header("If-None-Match", etag);
+		}
+		if (lastModified != null) {
+			builder.header("If-Modified-Since", lastModified);
+		}
+		return builder;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+}
@@ -0,0 +1,204 @@
+package com.example.polystirolutility.core;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Предохранитель (circuit breaker) для запросов к API.
+ *
+ * В закрытом состоянии запросы проходят, а их результаты учитываются в скользящем окне
+ * WINDOW_BUCKETS секунд. Если за окно набралось не меньше MIN_REQUESTS запросов и доля
+ * ошибок (таймауты, ошибки соединения, 429, 5xx) достигла FAILURE_RATE_THRESHOLD, предохранитель
+ * открывается: запросы сразу завершаются ошибкой, не дожидаясь таймаутов и повторов.
+ * Через OPEN_DURATION_MS предохранитель переходит в полуоткрытое состояние и пропускает
+ * HALF_OPEN_PERMITS пробных запросов: если все успешны, он закрывается, при первой ошибке
+ * снова открывается.
+ */
+public final class CircuitBreaker {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+	private static final int WINDOW_BUCKETS = 10;
+	private static final long BUCKET_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static final int MIN_REQUESTS = 20;
+	private static final double FAILURE_RATE_THRESHOLD = 0.5;
+	private static final long OPEN_DURATION_MS = 30_000;
+	private static final int HALF_OPEN_PERMITS = 3;
+
+	public enum State {
+		/** Запросы проходят */
+		CLOSED,
+		/** API считается недоступным, запросы сразу завершаются ошибкой */
+		OPEN,
+		/** Пропускается несколько пробных запросов */
+		HALF_OPEN
+	}
+
+	private final String name;
+	// Поля ниже защищены монитором объекта
+	private final int[] bucketSuccesses = new int[WINDOW_BUCKETS];
+	private final int[] bucketFailures = new int[WINDOW_BUCKETS];
+	private final long[] bucketEpochs = new long[WINDOW_BUCKETS];
+	private State state = State.CLOSED;
+	private long openedAtNanos;
+	private int halfOpenInFlight;
+	private int halfOpenSuccesses;
+	private long rejected;
+	private long openCount;
+
+	CircuitBreaker(String name) {
+		this.name = name;
+		resetWindow();
+	}
+
+	/**
+	 * Проверяет, можно ли отправить запрос. Каждый разрешенный запрос должен завершиться
+	 * вызовом {@link #onResult}.
+	 * @return false, если предохранитель открыт
+	 */
+	synchronized boolean tryAcquire() {
+		long now = System.nanoTime();
+		if (state == State.OPEN) {
+			if (now - openedAtNanos < TimeUnit.MILLISECONDS.toNanos(OPEN_DURATION_MS)) {
+				rejected++;
+				return false;
+			}
+			transition(State.HALF_OPEN);
+			halfOpenInFlight = 0;
+			halfOpenSuccesses = 0;
+		}
+		if (state == State.HALF_OPEN) {
+			if (halfOpenInFlight + halfOpenSuccesses >= HALF_OPEN_PERMITS) {
+				rejected++;
+				return false;
+			}
+			halfOpenInFlight++;
+		}
+		return true;
+	}
+
+	/**
+	 * Учитывает результат запроса, разрешенного {@link #tryAcquire}
+	 */
+	synchronized void onResult(AdaptiveLimiter.Outcome outcome) {
+		if (state == State.HALF_OPEN) {
+			halfOpenInFlight = Math.max(0, halfOpenInFlight - 1);
+			switch (outcome) {
+				case SUCCESS -> {
+					halfOpenSuccesses++;
+					if (halfOpenSuccesses >= HALF_OPEN_PERMITS) {
+						resetWindow();
+						transition(State.CLOSED);
+					}
+				}
+				case DROPPED -> open();
+				case IGNORED -> {
+				}
+			}
+			return;
+		}
+		if (state == State.OPEN || outcome == AdaptiveLimiter.Outcome.IGNORED) {
+			// Ответы на запросы, отправленные до открытия, уже ничего не меняют
+			return;
+		}
+
+		int index = bucket(System.nanoTime());
+		if (outcome == AdaptiveLimiter.Outcome.SUCCESS) {
+			bucketSuccesses[index]++;
+			return;
+		}
+		bucketFailures[index]++;
+		int[] totals = windowTotals(System.nanoTime());
+		int total = totals[0] + totals[1];
+		if (total >= MIN_REQUESTS && totals[1] >= total * FAILURE_RATE_THRESHOLD) {
+			open();
+		}
+	}
+
+	/**
+	 * Текущее состояние. Открытый предохранитель, у которого истек срок, показывается
+	 * полуоткрытым, хотя переходит в это состояние только при следующем запросе.
+	 */
+	public synchronized State getState() {
+		if (state == State.OPEN && System.nanoTime() - openedAtNanos >= TimeUnit.MILLISECONDS.toNanos(OPEN_DURATION_MS)) {
+			return State.HALF_OPEN;
+		}
+		return state;
+	}
+
+	/**
+	 * Доля ошибок за скользящее окно, в процентах
+	 */
+	public synchronized double getFailurePercentage() {
+		int[] totals = windowTotals(System.nanoTime());
+		int total = totals[0] + totals[1];
+		return total == 0 ? 0.0 : totals[1] * 100.0 / total;
+	}
+
+	/**
+	 * Количество запросов, отклоненных без отправки
+	 */
+	public synchronized long getRejectedCount() {
+		return rejected;
+	}
+
+	/**
+	 * Сколько раз предохранитель открывался
+	 */
+	public synchronized long getOpenCount() {
+		return openCount;
+	}
+
+	private void open() {
+		openedAtNanos = System.nanoTime();
+		openCount++;
+		transition(State.OPEN);
+	}
+
+	private void transition(State next) {
+		if (state == next) {
+			return;
+		}
+		State previous = state;
+		state = next;
+		if (next == State.OPEN) {
+			LOGGER.warn("API {} недоступен, запросы отклоняются {} с (было: {})", name, OPEN_DURATION_MS / 1000, previous);
+		} else {
+			LOGGER.info("Предохранитель API {}: {} -> {}", name, previous, next);
+		}
+	}
+
+	/**
+	 * Индекс корзины текущей секунды; устаревшая корзина обнуляется
+	 */
+	private int bucket(long now) {
+		long epoch = Math.floorDiv(now, BUCKET_NANOS);
+		int index = Math.floorMod(epoch, WINDOW_BUCKETS);
+		if (bucketEpochs[index] != epoch) {
+			bucketEpochs[index] = epoch;
+			bucketSuccesses[index] = 0;
+			bucketFailures[index] = 0;
+		}
+		return index;
+	}
+
+	/**
+	 * Успешные и неуспешные запросы за окно
+	 */
+	private int[] windowTotals(long now) {
+		long oldestEpoch = Math.floorDiv(now, BUCKET_NANOS) - WINDOW_BUCKETS;
+		int[] totals = new int[2];
+		for (int i = 0; i < WINDOW_BUCKETS; i++) {
+			if (bucketEpochs[i] > oldestEpoch) {
+				totals[0] += bucketSuccesses[i];
+				totals[1] += bucketFailures[i];
+			}
+		}
+		return totals;
+	}
+
+	private void resetWindow() {
+		Arrays.fill(bucketEpochs, Long.MIN_VALUE);
+	}
+}
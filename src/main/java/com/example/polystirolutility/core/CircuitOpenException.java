@@ -0,0 +1,10 @@
+package com.example.polystirolutility.core;
+
+/**
+ * Запрос не отправлен, потому что предохранитель API открыт
+ */
+public class CircuitOpenException extends ApiException {
+	public CircuitOpenException(String message) {
+		super(message, 0);
+	}
+}
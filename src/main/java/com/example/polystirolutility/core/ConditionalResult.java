@@ -0,0 +1,46 @@
+package com.example.polystirolutility.core;
+
+/**
+ * Результат условного запроса: либо новое значение, либо признак того,
+ * что ресурс не изменился (304) и можно продолжать использовать закэшированный
+ */
+public final class ConditionalResult<T> {
+	private final boolean notModified;
+	private final T value;
+	private final CacheValidators validators;
+
+	private ConditionalResult(boolean notModified, T value, CacheValidators validators) {
+		this.notModified = notModified;
+		this.value = value;
+		this.validators = validators;
+	}
+
+	public static <T> ConditionalResult<T> modified(T value, CacheValidators validators) {
+		return new ConditionalResult<>(false, value, validators);
+	}
+
+	public static <T> ConditionalResult<T> notModified(CacheValidators validators) {
+		return new ConditionalResult<>(true, null, validators);
+	}
+
+	/**
+	 * @return true, если сервер ответил 304 Not Modified
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+
+	/**
+	 * @return новое значение (null при 304 или если ресурс не найден)
+	 */
+	public T getValue() {
+		return value;
+	}
+
+	/**
+	 * @return валидаторы для следующего условного запроса или null
+	 */
+	public CacheValidators getValidators() {
+		return validators;
+	}
+}
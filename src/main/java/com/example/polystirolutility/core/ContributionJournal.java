@@ -0,0 +1,570 @@
+package com.example.polystirolutility.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Журнал вкладов ресурсов на диске (write-ahead): вклад из /collect считается принятым,
+ * как только его запись сброшена на диск, а не когда его подтвердил API. Записи удаляются
+ * (подтверждаются) после ответа API, неподтвержденные записи переживают перезапуск.
+ *
+ * Файл только дописывается записями "вклад" и "подтверждение" с CRC32. Запись и fsync
+ * выполняет поток ContributionJournal-Writer: все записи, пришедшие, пока шел предыдущий
+ * fsync, сбрасываются одним fsync (group commit). Поврежденный хвост журнала обрезается,
+ * периодически журнал переписывается, оставляя только неподтвержденные вклады.
+ */
+public class ContributionJournal {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ContributionJournal.class);
+
+	private static final int MAGIC = 0x50434A4C; // "PCJL"
+	private static final int VERSION = 2;
+	// Версия 1 не хранила ключ идемпотентности; такой журнал читается и переписывается в версию 2
+	private static final int VERSION_WITHOUT_KEYS = 1;
+	// Заголовок: magic (4), version (4)
+	private static final int HEADER_SIZE = 8;
+	// Запись: длина тела (4), CRC32 тела (4), тело: тип (1), номер вклада (8), поля вклада
+	// (время, ключ идемпотентности, количества по типам)
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final int MIN_BODY_SIZE = 9;
+	private static final byte TYPE_CONTRIBUTION = 1;
+	private static final byte TYPE_ACK = 2;
+
+	private static final long COMPACTION_INTERVAL_SECONDS = 60;
+	private static final int MIN_RECORDS_FOR_COMPACTION = 1_000;
+
+	private final Path file;
+	// Вклады, сброшенные на диск и еще не подтвержденные API, по порядку номеров
+	private final NavigableMap<Long, Entry> pending = new ConcurrentSkipListMap<>();
+	private final ConcurrentLinkedQueue<Write> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final ScheduledExecutorService writer;
+
+	private final LongAdder syncCount = new LongAdder();
+	private final LongAdder syncedRecords = new LongAdder();
+
+	// Доступны только из потока ContributionJournal-Writer
+	private FileChannel channel;
+	private long writePosition;
+	private long nextId = 1;
+	private int recordCount;
+
+	private volatile boolean loaded = false;
+	private volatile boolean closed = false;
+
+	public ContributionJournal(Path file) {
+		this.file = file;
+		this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "ContributionJournal-Writer");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Запускает загрузку журнала в фоне и периодическое сжатие
+	 */
+	public void start() {
+		writer.execute(this::load);
+		writer.scheduleWithFixedDelay(this::compactIfNeeded, COMPACTION_INTERVAL_SECONDS, COMPACTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Записывает вклад в журнал
+	 * @param amounts resourceType -> количество
+	 * @return future с записанным вкладом, завершается после fsync; при ошибке записи - исключением
+	 */
+	public CompletableFuture<Entry> append(Map<String, Integer> amounts) {
+		return append(amounts, false);
+	}
+
+	/**
+	 * Записывает вклад в журнал
+	 * @param amounts resourceType -> количество
+	 * @param excludeFromRedelivery не возвращать вклад из {@link #getPending()}: его отправкой распоряжается
+	 *        вызывающий код. Признак не пишется на диск - после перезапуска вклад отправляется как обычный
+	 * @return future с записанным вкладом, завершается после fsync; при ошибке записи - исключением
+	 */
+	public CompletableFuture<Entry> append(Map<String, Integer> amounts, boolean excludeFromRedelivery) {
+		if (closed) {
+			return CompletableFuture.failedFuture(new IllegalStateException("Журнал вкладов закрыт"));
+		}
+		Write write = new Write(TYPE_CONTRIBUTION, 0, new LinkedHashMap<>(amounts), System.currentTimeMillis(), UUID.randomUUID());
+		write.excludeFromRedelivery = excludeFromRedelivery;
+		enqueue(write);
+		return write.future;
+	}
+
+	/**
+	 * Отмечает вклад подтвержденным API. Подтверждение пишется на диск вместе со следующей группой записей;
+	 * если оно не успеет записаться, вклад после перезапуска будет отправлен повторно.
+	 * @param id номер вклада
+	 */
+	public void acknowledge(long id) {
+		if (pending.remove(id) != null && !closed) {
+			enqueue(new Write(TYPE_ACK, id, Map.of(), 0, null));
+		}
+	}
+
+	/**
+	 * @return неподтвержденные вклады от старых к новым, кроме исключенных из повторной отправки
+	 */
+	public Collection<Entry> getPending() {
+		List<Entry> entries = new ArrayList<>();
+		for (Entry entry : pending.values()) {
+			if (!entry.excludedFromRedelivery) {
+				entries.add(entry);
+			}
+		}
+		return entries;
+	}
+
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * @return количество выполненных fsync
+	 */
+	public long getSyncCount() {
+		return syncCount.sum();
+	}
+
+	/**
+	 * @return количество записей, сброшенных на диск (отношение к getSyncCount - средний размер группы)
+	 */
+	public long getSyncedRecords() {
+		return syncedRecords.sum();
+	}
+
+	/**
+	 * Сбрасывает оставшиеся записи на диск и закрывает файл
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		writer.execute(() -> {
+			flush();
+			try {
+				if (channel != null) {
+					channel.close();
+				}
+			} catch (IOException e) {
+				LOGGER.error("Ошибка при закрытии журнала вкладов: {}", e.getMessage());
+			}
+		});
+		writer.shutdown();
+		try {
+			writer.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void enqueue(Write write) {
+		queue.add(write);
+		// Пока поток записи занят fsync, новые записи копятся в очереди и уйдут следующей группой
+		if (flushScheduled.compareAndSet(false, true)) {
+			try {
+				writer.execute(() -> {
+					flushScheduled.set(false);
+					flush();
+				});
+			} catch (RuntimeException e) {
+				// Поток записи уже остановлен
+				flushScheduled.set(false);
+				failQueued(new IOException("Журнал вкладов закрыт"));
+			}
+		}
+	}
+
+	private void load() {
+		try {
+			Files.createDirectories(file.getParent());
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Журнал вкладов превысил максимальный размер");
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+				// Читаем файл целиком
+			}
+			buffer.flip();
+
+			int version = size >= HEADER_SIZE ? buffer.getInt(4) : 0;
+			if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC || (version != VERSION && version != VERSION_WITHOUT_KEYS)) {
+				if (size > 0) {
+					LOGGER.warn("Файл {} имеет неизвестный формат или версию, журнал вкладов будет создан заново", file);
+				}
+				reset();
+			} else {
+				replay(buffer, version);
+			}
+
+			if (version == VERSION_WITHOUT_KEYS) {
+				// Вклады получили новые ключи при чтении - сохраняем их, чтобы повторы после перезапуска совпадали
+				try {
+					rewrite();
+				} catch (IOException e) {
+					// В файле остался старый формат, дописывать в него новые записи нельзя. Вклады из него
+					// не отправляем: с ключами, которые не сохранились, после перезапуска они ушли бы повторно
+					pending.clear();
+					LOGGER.error("Не удалось перевести журнал вкладов {} на новый формат, журнал не используется до перезапуска: {}",
+							file, e.getMessage());
+					return;
+				}
+			}
+			loaded = true;
+			if (!pending.isEmpty()) {
+				LOGGER.info("Загружено {} неподтвержденных вкладов ресурсов из {}", pending.size(), file);
+			}
+		} catch (IOException e) {
+			LOGGER.error("Не удалось открыть журнал вкладов {}: {}", file, e.getMessage());
+		}
+	}
+
+	private void replay(ByteBuffer buffer, int version) throws IOException {
+		Map<Long, Entry> entries = new TreeMap<>();
+		int end = buffer.limit();
+		int position = HEADER_SIZE;
+		int records = 0;
+		long maxId = 0;
+		CRC32 crc = new CRC32();
+		while (position + RECORD_HEADER_SIZE <= end) {
+			int length = buffer.getInt(position);
+			if (length < MIN_BODY_SIZE || position + RECORD_HEADER_SIZE + (long) length > end) {
+				break;
+			}
+			ByteBuffer body = buffer.slice(position + RECORD_HEADER_SIZE, length);
+			crc.reset();
+			crc.update(body.duplicate());
+			if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+				break;
+			}
+
+			try {
+				byte type = body.get();
+				long id = body.getLong();
+				if (type == TYPE_CONTRIBUTION) {
+					entries.put(id, readEntry(id, body, version));
+					maxId = Math.max(maxId, id);
+				} else if (type == TYPE_ACK) {
+					entries.remove(id);
+				} else {
+					break;
+				}
+			} catch (RuntimeException e) {
+				break;
+			}
+			position += RECORD_HEADER_SIZE + length;
+			records++;
+		}
+
+		if (position != end) {
+			// Запись, оборванная при падении процесса, не была подтверждена вызывающему - отбрасываем ее
+			LOGGER.warn("Хвост журнала {} поврежден, отброшено {} байт", file, end - position);
+			channel.truncate(position);
+			channel.force(false);
+		}
+		writePosition = position;
+		recordCount = records;
+		nextId = maxId + 1;
+		pending.putAll(entries);
+	}
+
+	private void flush() {
+		if (queue.isEmpty()) {
+			return;
+		}
+		if (!loaded) {
+			failQueued(new IOException("Журнал вкладов не загружен"));
+			return;
+		}
+
+		List<Write> batch = new ArrayList<>();
+		Write write;
+		while ((write = queue.poll()) != null) {
+			if (write.type == TYPE_CONTRIBUTION) {
+				write.id = nextId++;
+			}
+			batch.add(write);
+		}
+
+		ByteBuffer[] records = new ByteBuffer[batch.size()];
+		for (int i = 0; i < records.length; i++) {
+			records[i] = encode(batch.get(i));
+		}
+
+		long batchStart = writePosition;
+		try {
+			writeFully(records);
+			channel.force(false);
+		} catch (IOException e) {
+			LOGGER.error("Ошибка при записи журнала вкладов: {}", e.getMessage());
+			// Отрезаем недописанную группу: иначе следующие группы лягут за оборванной записью,
+			// и при загрузке журнал обрежется на ней вместе со всеми записями после нее
+			writePosition = batchStart;
+			try {
+				channel.truncate(batchStart);
+			} catch (IOException truncateError) {
+				LOGGER.error("Не удалось отрезать недописанные записи журнала вкладов: {}", truncateError.getMessage());
+			}
+			for (Write failed : batch) {
+				failed.future.completeExceptionally(e);
+			}
+			return;
+		}
+		syncCount.increment();
+		syncedRecords.add(records.length);
+		recordCount += records.length;
+
+		for (Write written : batch) {
+			if (written.type == TYPE_CONTRIBUTION) {
+				Entry entry = new Entry(written.id, written.amounts, written.createdAtMillis, written.idempotencyKey, written.excludeFromRedelivery);
+				pending.put(entry.getId(), entry);
+				written.future.complete(entry);
+			} else {
+				written.future.complete(null);
+			}
+		}
+	}
+
+	private void writeFully(ByteBuffer[] records) throws IOException {
+		channel.position(writePosition);
+		long remaining = 0;
+		for (ByteBuffer record : records) {
+			remaining += record.remaining();
+		}
+		while (remaining > 0) {
+			long written = channel.write(records);
+			remaining -= written;
+			writePosition += written;
+		}
+	}
+
+	private void failQueued(IOException error) {
+		Write write;
+		while ((write = queue.poll()) != null) {
+			write.future.completeExceptionally(error);
+		}
+	}
+
+	private void compactIfNeeded() {
+		if (!loaded || closed) {
+			return;
+		}
+		if (recordCount > MIN_RECORDS_FOR_COMPACTION && recordCount > pending.size() * 2) {
+			try {
+				compact();
+			} catch (IOException e) {
+				LOGGER.error("Ошибка при сжатии журнала вкладов: {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Переписывает журнал во временный файл, оставляя только неподтвержденные вклады,
+	 * и атомарно заменяет им старый: при падении посередине остается целый старый журнал
+	 */
+	private void compact() throws IOException {
+		// Записи из очереди должны попасть в старый файл до снимка
+		flush();
+		rewrite();
+	}
+
+	/**
+	 * Записывает неподтвержденные вклады в новый файл и заменяет им журнал. Канал открывается
+	 * заново в любом случае: если замена не удалась, запись продолжается в старый файл.
+	 */
+	private void rewrite() throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		List<Entry> snapshot = new ArrayList<>(pending.values());
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+			while (header.hasRemaining()) {
+				out.write(header);
+			}
+			for (Entry entry : snapshot) {
+				ByteBuffer record = encode(new Write(TYPE_CONTRIBUTION, entry.getId(), entry.getAmounts(), entry.getCreatedAtMillis(), entry.idempotencyKey));
+				while (record.hasRemaining()) {
+					out.write(record);
+				}
+			}
+			out.force(true);
+		}
+
+		channel.close();
+		boolean replaced = false;
+		try {
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			replaced = true;
+		} finally {
+			channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			if (replaced) {
+				int previousRecords = recordCount;
+				writePosition = channel.size();
+				recordCount = snapshot.size();
+				LOGGER.debug("Журнал вкладов сжат с {} до {} записей", previousRecords, recordCount);
+			}
+		}
+	}
+
+	private void reset() throws IOException {
+		channel.truncate(0);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+		channel.force(true);
+		writePosition = HEADER_SIZE;
+		recordCount = 0;
+	}
+
+	private static ByteBuffer encode(Write write) {
+		int bodySize = MIN_BODY_SIZE;
+		List<byte[]> types = new ArrayList<>(write.amounts.size());
+		if (write.type == TYPE_CONTRIBUTION) {
+			// Время вклада (8), ключ (16), количество типов (4), типы: длина и UTF-8 (4 + n), количество (4)
+			bodySize += 28;
+			for (String resourceType : write.amounts.keySet()) {
+				byte[] bytes = resourceType.getBytes(StandardCharsets.UTF_8);
+				types.add(bytes);
+				bodySize += 8 + bytes.length;
+			}
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bodySize);
+		record.putInt(bodySize);
+		record.putInt(0); // CRC32 заполняется после тела
+		record.put(write.type);
+		record.putLong(write.id);
+		if (write.type == TYPE_CONTRIBUTION) {
+			record.putLong(write.createdAtMillis);
+			record.putLong(write.idempotencyKey.getMostSignificantBits());
+			record.putLong(write.idempotencyKey.getLeastSignificantBits());
+			record.putInt(types.size());
+			int i = 0;
+			for (int amount : write.amounts.values()) {
+				byte[] bytes = types.get(i++);
+				record.putInt(bytes.length);
+				record.put(bytes);
+				record.putInt(amount);
+			}
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), RECORD_HEADER_SIZE, bodySize);
+		record.putInt(4, (int) crc.getValue());
+		record.flip();
+		return record;
+	}
+
+	private static Entry readEntry(long id, ByteBuffer body, int version) {
+		long createdAtMillis = body.getLong();
+		UUID idempotencyKey = version == VERSION_WITHOUT_KEYS ? UUID.randomUUID() : new UUID(body.getLong(), body.getLong());
+		int count = body.getInt();
+		Map<String, Integer> amounts = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			byte[] bytes = new byte[body.getInt()];
+			body.get(bytes);
+			amounts.put(new String(bytes, StandardCharsets.UTF_8), body.getInt());
+		}
+		return new Entry(id, amounts, createdAtMillis, idempotencyKey, false);
+	}
+
+	/**
+	 * Вклад ресурсов из одного закрытия меню /collect
+	 */
+	public static final class Entry {
+		private final long id;
+		private final Map<String, Integer> amounts;
+		private final long createdAtMillis;
+		private final UUID idempotencyKey;
+		private final boolean excludedFromRedelivery;
+
+		Entry(long id, Map<String, Integer> amounts, long createdAtMillis, UUID idempotencyKey, boolean excludedFromRedelivery) {
+			this.id = id;
+			this.amounts = Collections.unmodifiableMap(amounts);
+			this.createdAtMillis = createdAtMillis;
+			this.idempotencyKey = idempotencyKey;
+			this.excludedFromRedelivery = excludedFromRedelivery;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		/**
+		 * @return resourceType -> количество
+		 */
+		public Map<String, Integer> getAmounts() {
+			return amounts;
+		}
+
+		public long getCreatedAtMillis() {
+			return createdAtMillis;
+		}
+
+		/**
+		 * @return ключ идемпотентности вклада, постоянный между перезапусками
+		 */
+		public String getIdempotencyKey() {
+			return idempotencyKey.toString();
+		}
+	}
+
+	/**
+	 * Запись, ожидающая сброса на диск
+	 */
+	private static final class Write {
+		private final byte type;
+		private long id;
+		private final Map<String, Integer> amounts;
+		private final long createdAtMillis;
+		private final UUID idempotencyKey;
+		private boolean excludeFromRedelivery;
+		private final CompletableFuture<Entry> future = new CompletableFuture<>();
+
+		private Write(byte type, long id, Map<String, Integer> amounts, long createdAtMillis, UUID idempotencyKey) {
+			this.type = type;
+			this.id = id;
+			this.amounts = amounts;
+			this.createdAtMillis = createdAtMillis;
+			this.idempotencyKey = idempotencyKey;
+		}
+	}
+}
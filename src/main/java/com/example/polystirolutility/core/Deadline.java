@@ -0,0 +1,50 @@
+package com.example.polystirolutility.core;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Общий срок запроса к API: в него должны уложиться все попытки вместе с задержками
+ * между повторами. Отсчитывается по монотонным часам.
+ */
+public final class Deadline {
+	private final long deadlineNanos;
+
+	private Deadline(long deadlineNanos) {
+		this.deadlineNanos = deadlineNanos;
+	}
+
+	/**
+	 * Срок, истекающий через timeout от текущего момента
+	 */
+	public static Deadline after(Duration timeout) {
+		return new Deadline(System.nanoTime() + timeout.toNanos());
+	}
+
+	public static Deadline afterMillis(long timeoutMillis) {
+		return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+	}
+
+	/**
+	 * Оставшееся время в миллисекундах (0, если срок истек)
+	 */
+	public long remainingMillis() {
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+	}
+
+	public boolean isExpired() {
+		return deadlineNanos - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * Более поздний из двух сроков (например, для пачки запросов с разными сроками)
+	 */
+	Deadline later(Deadline other) {
+		return other == null || deadlineNanos - other.deadlineNanos >= 0 ? this : other;
+	}
+
+	@Override
+	public String toString() {
+		return "Deadline[" + remainingMillis() + " мс]";
+	}
+}
@@ -18,6 +18,13 @@ public class GameServerInfo {
 		// Конструктор по умолчанию для Gson
 	}
 
+	GameServerInfo(UUID id, String name, String resourcePackUrl, String resourcePackHash) {
+		this.id = id;
+		this.name = name;
+		this.resourcePackUrl = resourcePackUrl;
+		this.resourcePackHash = resourcePackHash;
+	}
+
 	public UUID getId() {
 		return id;
 	}
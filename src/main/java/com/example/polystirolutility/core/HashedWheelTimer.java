@@ -0,0 +1,182 @@
+package com.example.polystirolutility.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Хэшированное колесо таймеров для большого количества коротких независимых таймеров
+ * (задержки повторов, сроки попыток запросов). Добавление и отмена таймера - O(1),
+ * один поток раз в тик обрабатывает одну корзину колеса. Точность - один тик.
+ *
+ * Задачи выполняются в потоке таймера, поэтому должны быть короткими
+ * (например, завершать CompletableFuture).
+ */
+final class HashedWheelTimer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(HashedWheelTimer.class);
+	private static final long TICK_MS = 10;
+	// Один оборот колеса - 5,12 с; более длинные задержки отсчитываются оборотами
+	private static final int WHEEL_SIZE = 512;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+	private static final int STATE_PENDING = 0;
+	private static final int STATE_CANCELLED = 1;
+	private static final int STATE_EXPIRED = 2;
+
+	private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+	// Новые таймеры раскладываются по корзинам потоком таймера
+	private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private final long startNanos = System.nanoTime();
+	private final Thread worker;
+	private volatile boolean running = true;
+	// Номер следующего тика; меняется только потоком таймера
+	private long tick;
+
+	HashedWheelTimer(String threadName) {
+		this.worker = new Thread(this::run, threadName);
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * Планирует задачу
+	 * @param task задача, выполняется в потоке таймера
+	 * @param delayMillis задержка в миллисекундах
+	 * @return таймер, который можно отменить
+	 */
+	Timeout schedule(Runnable task, long delayMillis) {
+		long deadline = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+		Timeout timeout = new Timeout(task, deadline);
+		pendingCount.incrementAndGet();
+		added.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Количество запланированных, но еще не сработавших и не отмененных таймеров
+	 */
+	int pendingCount() {
+		return pendingCount.get();
+	}
+
+	void stop() {
+		running = false;
+		worker.interrupt();
+	}
+
+	private void run() {
+		while (running) {
+			long sleepNanos = (tick + 1) * TimeUnit.MILLISECONDS.toNanos(TICK_MS) - (System.nanoTime() - startNanos);
+			if (sleepNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				} catch (InterruptedException e) {
+					if (!running) {
+						return;
+					}
+				}
+				continue;
+			}
+
+			transferAdded();
+			expireBucket(wheel[(int) (tick & WHEEL_MASK)]);
+			tick++;
+		}
+	}
+
+	private void transferAdded() {
+		Timeout timeout;
+		while ((timeout = added.poll()) != null) {
+			if (timeout.state.get() != STATE_PENDING) {
+				continue;
+			}
+			long calculated = timeout.deadline / TimeUnit.MILLISECONDS.toNanos(TICK_MS);
+			// Таймер, срок которого уже прошел, попадает в текущую корзину
+			long ticks = Math.max(calculated, tick);
+			timeout.remainingRounds = (ticks - tick) / WHEEL_SIZE;
+			int index = (int) (ticks & WHEEL_MASK);
+			timeout.next = wheel[index];
+			if (wheel[index] != null) {
+				wheel[index].prev = timeout;
+			}
+			wheel[index] = timeout;
+			timeout.bucket = index;
+		}
+	}
+
+	private void expireBucket(Timeout head) {
+		Timeout timeout = head;
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.state.get() == STATE_CANCELLED) {
+				unlink(timeout);
+			} else if (timeout.remainingRounds <= 0) {
+				unlink(timeout);
+				timeout.expire();
+			} else {
+				timeout.remainingRounds--;
+			}
+			timeout = next;
+		}
+	}
+
+	private void unlink(Timeout timeout) {
+		if (timeout.prev != null) {
+			timeout.prev.next = timeout.next;
+		} else {
+			wheel[timeout.bucket] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+	}
+
+	/**
+	 * Запланированная задача
+	 */
+	final class Timeout {
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+		// Поля ниже меняются только потоком таймера
+		private long remainingRounds;
+		private int bucket;
+		private Timeout prev;
+		private Timeout next;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Отменяет таймер. Отмененный таймер удаляется из колеса, когда поток таймера дойдет до его корзины.
+		 * @return true, если таймер был отменен до срабатывания
+		 */
+		boolean cancel() {
+			if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+				return false;
+			}
+			pendingCount.decrementAndGet();
+			return true;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+				return;
+			}
+			pendingCount.decrementAndGet();
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				LOGGER.warn("Ошибка в задаче таймера: {}", e.getMessage());
+			}
+		}
+	}
+}
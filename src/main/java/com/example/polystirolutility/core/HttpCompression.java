@@ -0,0 +1,85 @@
+package com.example.polystirolutility.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Сжатие тел запросов и распаковка тел ответов (Content-Encoding: gzip / deflate).
+ * HttpClient из JDK сам этого не делает.
+ */
+final class HttpCompression {
+	static final String ACCEPT_ENCODING = "gzip, deflate";
+	private static final int BUFFER_SIZE = 8192;
+
+	private HttpCompression() {
+	}
+
+	/**
+	 * Оборачивает поток тела ответа распаковкой по заголовку Content-Encoding
+	 * @param contentEncoding значение заголовка или null
+	 * @throws IOException если кодировка не поддерживается или тело повреждено
+	 */
+	static InputStream decode(String contentEncoding, InputStream body) throws IOException {
+		if (contentEncoding == null) {
+			return body;
+		}
+		String encoding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+		return switch (encoding) {
+			case "", "identity" -> body;
+			case "gzip", "x-gzip" -> new GZIPInputStream(body, BUFFER_SIZE);
+			case "deflate" -> inflate(body);
+			default -> throw new IOException("Неподдерживаемая кодировка тела ответа: " + contentEncoding);
+		};
+	}
+
+	/**
+	 * Сжимает тело запроса в gzip
+	 */
+	static byte[] gzip(byte[] body) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE)) {
+			gzip.write(body);
+		} catch (IOException e) {
+			// ByteArrayOutputStream не бросает IOException
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * По спецификации deflate - это поток zlib, но часть серверов отдает "сырой" deflate без
+	 * заголовка, поэтому формат определяется по первым двум байтам
+	 */
+	private static InputStream inflate(InputStream body) throws IOException {
+		PushbackInputStream in = new PushbackInputStream(body, 2);
+		int cmf = in.read();
+		int flg = in.read();
+		if (flg >= 0) {
+			in.unread(flg);
+		}
+		if (cmf >= 0) {
+			in.unread(cmf);
+		}
+		boolean zlib = cmf >= 0 && flg >= 0 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+		Inflater inflater = new Inflater(!zlib);
+		return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					// Переданный снаружи Inflater поток сам не освобождает
+					inflater.end();
+				}
+			}
+		};
+	}
+}
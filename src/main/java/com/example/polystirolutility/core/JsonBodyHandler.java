@@ -0,0 +1,205 @@
+package com.example.polystirolutility.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.Supplier;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Обработчик тела ответа, который разбирает JSON через {@link JsonReader} поверх байт тела,
+ * без промежуточной строки. Тело читается подписчиком без блокировки и разбирается, когда пришло
+ * целиком, поэтому попытка в ApiTransport завершается только после чтения и разбора тела: медленное
+ * тело ограничено сроком запроса и не занимает поток исполнителя HttpClient. {@link Supplier#get()}
+ * только возвращает готовый результат или бросает ошибку разбора.
+ * Тело ответов с кодами, для которых разбор не нужен, пропускается, а supplier возвращает null.
+ *
+ * Тело, сжатое gzip или deflate (Content-Encoding), распаковывается при разборе. Размер тела
+ * ограничен до и после распаковки: при превышении лимита чтение прекращается, а supplier
+ * бросает {@link JsonIOException}.
+ */
+final class JsonBodyHandler<T> implements HttpResponse.BodyHandler<Supplier<T>> {
+	private final Gson gson;
+	private final Type type;
+	private final long maxBodyBytes;
+	private final Set<Integer> decodedStatusCodes;
+
+	/**
+	 * @param gson Gson с адаптерами для типа
+	 * @param type тип результата
+	 * @param maxBodyBytes максимальный размер тела в байтах
+	 * @param decodedStatusCodes коды ответа, тело которых разбирается
+	 */
+	JsonBodyHandler(Gson gson, Type type, long maxBodyBytes, Set<Integer> decodedStatusCodes) {
+		this.gson = gson;
+		this.type = type;
+		this.maxBodyBytes = maxBodyBytes;
+		this.decodedStatusCodes = decodedStatusCodes;
+	}
+
+	@Override
+	public HttpResponse.BodySubscriber<Supplier<T>> apply(HttpResponse.ResponseInfo responseInfo) {
+		if (!decodedStatusCodes.contains(responseInfo.statusCode())) {
+			return HttpResponse.BodySubscribers.replacing(() -> null);
+		}
+
+		long contentLength = responseInfo.headers().firstValueAsLong("Content-Length").orElse(-1L);
+		if (contentLength > maxBodyBytes) {
+			// Заранее известно, что тело слишком большое - не читаем его
+			JsonIOException error = tooLarge();
+			return HttpResponse.BodySubscribers.replacing(() -> {
+				throw error;
+			});
+		}
+
+		String contentEncoding = responseInfo.headers().firstValue("Content-Encoding").orElse(null);
+		return new DecodingSubscriber(contentEncoding);
+	}
+
+	private Supplier<T> decodeToSupplier(InputStream body, String contentEncoding) {
+		try {
+			T value = decode(body, contentEncoding);
+			return () -> value;
+		} catch (RuntimeException e) {
+			return () -> {
+				throw e;
+			};
+		}
+	}
+
+	private T decode(InputStream body, String contentEncoding) {
+		// Лимит считается по распакованным байтам, чтобы маленький сжатый ответ не развернулся в гигабайты
+		try (JsonReader reader = new JsonReader(new InputStreamReader(
+				new LimitedInputStream(HttpCompression.decode(contentEncoding, body), maxBodyBytes), StandardCharsets.UTF_8))) {
+			return gson.fromJson(reader, type);
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	private JsonIOException tooLarge() {
+		return new JsonIOException("Тело ответа больше " + maxBodyBytes + " байт");
+	}
+
+	/**
+	 * Накапливает тело до лимита и разбирает его при завершении. Буферы HttpClient после onNext
+	 * не переиспользуются, поэтому хранятся без копирования
+	 */
+	private final class DecodingSubscriber implements HttpResponse.BodySubscriber<Supplier<T>> {
+		private final CompletableFuture<Supplier<T>> result = new CompletableFuture<>();
+		private final List<ByteBuffer> buffers = new ArrayList<>();
+		private final String contentEncoding;
+		private Flow.Subscription subscription;
+		private long received;
+
+		DecodingSubscriber(String contentEncoding) {
+			this.contentEncoding = contentEncoding;
+		}
+
+		@Override
+		public CompletionStage<Supplier<T>> getBody() {
+			return result;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> items) {
+			if (result.isDone()) {
+				return;
+			}
+			for (ByteBuffer item : items) {
+				received += item.remaining();
+			}
+			if (received > maxBodyBytes) {
+				// Сжатое тело не меньше лимита распакуется еще больше - дальше не читаем
+				subscription.cancel();
+				buffers.clear();
+				JsonIOException error = tooLarge();
+				result.complete(() -> {
+					throw error;
+				});
+				return;
+			}
+			buffers.addAll(items);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			buffers.clear();
+			result.completeExceptionally(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			if (result.isDone()) {
+				return;
+			}
+			byte[] body = new byte[(int) received];
+			int offset = 0;
+			for (ByteBuffer buffer : buffers) {
+				int length = buffer.remaining();
+				buffer.get(body, offset, length);
+				offset += length;
+			}
+			buffers.clear();
+			result.complete(decodeToSupplier(new ByteArrayInputStream(body), contentEncoding));
+		}
+	}
+
+	/**
+	 * Поток, который бросает исключение, если из него прочитано больше лимита
+	 */
+	private final class LimitedInputStream extends FilterInputStream {
+		private long remaining;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				consume(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int n = super.read(buffer, offset, length);
+			if (n > 0) {
+				consume(n);
+			}
+			return n;
+		}
+
+		private void consume(long n) throws IOException {
+			remaining -= n;
+			if (remaining < 0) {
+				throw new IOException(tooLarge().getMessage());
+			}
+		}
+	}
+}
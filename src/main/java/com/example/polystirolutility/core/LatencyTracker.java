@@ -0,0 +1,46 @@
+package com.example.polystirolutility.core;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Скользящая оценка перцентиля задержки по последним SAMPLE_COUNT успешным запросам.
+ * Перцентиль пересчитывается раз в RECOMPUTE_INTERVAL замеров, а не при каждом чтении.
+ */
+final class LatencyTracker {
+	private static final int SAMPLE_COUNT = 512;
+	private static final int RECOMPUTE_INTERVAL = 32;
+	// Меньше замеров - оценка хвоста задержки ненадежна
+	private static final int MIN_SAMPLES = 50;
+
+	private final double percentile;
+	// Поля ниже защищены монитором объекта
+	private final long[] samples = new long[SAMPLE_COUNT];
+	private long recorded;
+	private long cachedMillis = -1;
+
+	/**
+	 * @param percentile отслеживаемый перцентиль (0..1)
+	 */
+	LatencyTracker(double percentile) {
+		this.percentile = Math.min(0.999, Math.max(0.0, percentile));
+	}
+
+	synchronized void record(long latencyNanos) {
+		samples[(int) (recorded % SAMPLE_COUNT)] = latencyNanos;
+		recorded++;
+		if (recorded >= MIN_SAMPLES && recorded % RECOMPUTE_INTERVAL == 0) {
+			int count = (int) Math.min(recorded, SAMPLE_COUNT);
+			long[] sorted = Arrays.copyOf(samples, count);
+			Arrays.sort(sorted);
+			cachedMillis = TimeUnit.NANOSECONDS.toMillis(sorted[(int) (percentile * (count - 1))]);
+		}
+	}
+
+	/**
+	 * @return задержка отслеживаемого перцентиля в миллисекундах или -1, если замеров пока мало
+	 */
+	synchronized long getPercentileMillis() {
+		return cachedMillis;
+	}
+}
@@ -0,0 +1,138 @@
+package com.example.polystirolutility.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Хеджирование запросов: если ответ не пришел за время отслеживаемого перцентиля задержки,
+ * отправляется второй такой же запрос. Результатом становится первый успешный ответ,
+ * второй запрос отменяется.
+ *
+ * Количество хеджированных запросов ограничено бюджетом: каждый запрос пополняет его на
+ * budgetRatio, каждый дополнительный запрос тратит 1. Так при деградации API хеджирование
+ * не может увеличить нагрузку больше чем на budgetRatio.
+ */
+final class RequestHedger {
+	// Запас бюджета для всплесков входов после долгого затишья
+	private static final double MAX_BUDGET = 10.0;
+	// Раньше одного тика таймера второй запрос не отправить
+	private static final long MIN_HEDGE_DELAY_MS = 10;
+
+	private final HashedWheelTimer timer;
+	private final LatencyTracker latency;
+	private final double budgetRatio;
+	private final LongAdder hedgedRequests = new LongAdder();
+	private final LongAdder hedgeWins = new LongAdder();
+	private final LongAdder budgetExhausted = new LongAdder();
+	// Защищено монитором объекта
+	private double budget;
+
+	/**
+	 * @param timer таймер для отправки второго запроса
+	 * @param percentile перцентиль задержки, после которого отправляется второй запрос (0..1)
+	 * @param budgetRatio максимальная доля хеджированных запросов (0..1)
+	 */
+	RequestHedger(HashedWheelTimer timer, double percentile, double budgetRatio) {
+		this.timer = timer;
+		this.latency = new LatencyTracker(percentile);
+		this.budgetRatio = budgetRatio;
+	}
+
+	/**
+	 * Выполняет запрос с хеджированием
+	 * @param request отправляет запрос; отмена возвращенного future должна отменять запрос
+	 */
+	<T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> request) {
+		synchronized (this) {
+			budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+		}
+		CompletableFuture<T> primary = timed(request);
+		long delayMillis = latency.getPercentileMillis();
+		if (delayMillis < 0) {
+			// Пока нет оценки задержки, запросы не хеджируются
+			return primary;
+		}
+
+		CompletableFuture<T> result = new CompletableFuture<>();
+		// Сколько запросов еще может дать результат: ошибка одного не завершает результат, пока идет другой
+		AtomicInteger pending = new AtomicInteger(1);
+		AtomicReference<CompletableFuture<T>> hedge = new AtomicReference<>();
+		HashedWheelTimer.Timeout timeout = timer.schedule(() -> {
+			if (result.isDone()) {
+				return;
+			}
+			if (!tryAcquireBudget()) {
+				budgetExhausted.increment();
+				return;
+			}
+			hedgedRequests.increment();
+			pending.incrementAndGet();
+			CompletableFuture<T> second = timed(request);
+			hedge.set(second);
+			second.whenComplete((value, throwable) -> {
+				if (complete(result, pending, value, throwable)) {
+					hedgeWins.increment();
+					primary.cancel(true);
+				}
+			});
+		}, Math.max(MIN_HEDGE_DELAY_MS, delayMillis));
+
+		primary.whenComplete((value, throwable) -> {
+			if (complete(result, pending, value, throwable)) {
+				timeout.cancel();
+				CompletableFuture<T> second = hedge.get();
+				if (second != null) {
+					second.cancel(true);
+				}
+			}
+		});
+		return result;
+	}
+
+	long getHedgedRequestCount() {
+		return hedgedRequests.sum();
+	}
+
+	long getHedgeWinCount() {
+		return hedgeWins.sum();
+	}
+
+	long getBudgetExhaustedCount() {
+		return budgetExhausted.sum();
+	}
+
+	private synchronized boolean tryAcquireBudget() {
+		if (budget < 1.0) {
+			return false;
+		}
+		budget -= 1.0;
+		return true;
+	}
+
+	private <T> CompletableFuture<T> timed(Supplier<CompletableFuture<T>> request) {
+		long startNanos = System.nanoTime();
+		CompletableFuture<T> future = request.get();
+		future.whenComplete((value, throwable) -> {
+			if (throwable == null) {
+				latency.record(System.nanoTime() - startNanos);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * @return true, если этот ответ стал результатом
+	 */
+	private static <T> boolean complete(CompletableFuture<T> result, AtomicInteger pending, T value, Throwable throwable) {
+		if (throwable == null) {
+			return result.complete(value);
+		}
+		if (pending.decrementAndGet() == 0) {
+			result.completeExceptionally(throwable);
+		}
+		return false;
+	}
+}
@@ -0,0 +1,27 @@
+package com.example.polystirolutility.core;
+
+/**
+ * Приоритет запроса к API. Запросы с более высоким приоритетом выходят из очереди первыми,
+ * а запросам с низким приоритетом доступна только часть лимита одновременных запросов.
+ */
+public enum RequestPriority {
+	/** Запросы, результат которых игрок ждет прямо сейчас (бэйджик при входе) */
+	INTERACTIVE(1.0),
+	/** Фоновое обновление данных, которые игрок видит (обновление бэйджиков) */
+	NORMAL(0.8),
+	/** Телеметрия и периодический опрос (сбор ресурсов, цели, resource pack) */
+	BACKGROUND(0.5);
+
+	private final double limitShare;
+
+	RequestPriority(double limitShare) {
+		this.limitShare = limitShare;
+	}
+
+	/**
+	 * Доля общего лимита одновременных запросов, доступная этому приоритету
+	 */
+	double getLimitShare() {
+		return limitShare;
+	}
+}
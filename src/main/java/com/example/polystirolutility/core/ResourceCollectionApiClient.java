@@ -1,42 +1,52 @@
 package com.example.polystirolutility.core;
 
-import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonParseException;
-
 public class ResourceCollectionApiClient {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ResourceCollectionApiClient.class);
-	private static final int MAX_RETRIES = 3;
-	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+	// Имя endpoint'а для статистики транспорта
+	static final String RESOURCE_COLLECTION_ENDPOINT = "resource-collection";
+
+	private final ApiTransport transport;
+	// Сбрасывается, если API не знает bulk-endpoint (404/405); дальше ресурсы отправляются по одному
+	private volatile boolean batchEndpointSupported = true;
 
-	private final String baseUrl;
-	private final HttpClient httpClient;
-	private final Gson gson;
-	private final ScheduledExecutorService scheduler;
+	// Сколько последних подтвержденных ключей идемпотентности помнить
+	private static final int MAX_ACKNOWLEDGED_KEYS = 1_024;
+	// Ключ идемпотентности -> результаты подтвержденной отправки; повтор с тем же ключом не уходит в сеть
+	private final Map<String, Map<String, ResourceCollectionResponse>> acknowledgedKeys = new LinkedHashMap<>(16, 0.75f, false) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Map<String, ResourceCollectionResponse>> eldest) {
+			return size() > MAX_ACKNOWLEDGED_KEYS;
+		}
+	};
+	private final LongAdder locallyAcknowledged = new LongAdder();
 
 	public ResourceCollectionApiClient(String baseUrl) {
-		this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
-		this.httpClient = HttpClient.newBuilder()
-				.connectTimeout(Duration.ofSeconds(5))
-				.build();
-		this.gson = new com.google.gson.GsonBuilder().create();
-		this.scheduler = Executors.newScheduledThreadPool(1, r -> {
-			Thread t = new Thread(r, "ResourceCollectionApiClient-Scheduler");
-			t.setDaemon(true);
-			return t;
-		});
+		this(new ApiTransport(baseUrl));
+	}
+
+	/**
+	 * @param transport общий транспорт API
+	 */
+	public ResourceCollectionApiClient(ApiTransport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * Проверяет, принимает ли транспорт запросы (предохранитель API не открыт)
+	 */
+	public boolean isAvailable() {
+		return transport.getCircuitBreaker().getState() != CircuitBreaker.State.OPEN;
 	}
 
 	/**
@@ -47,6 +57,31 @@ public class ResourceCollectionApiClient {
 	 * @return CompletableFuture с ответом или null при ошибке
 	 */
 	public CompletableFuture<ResourceCollectionResponse> collectResource(String serverUuid, String resourceType, int amount) {
+		// Игрок ждет результата в меню /collect
+		return collectResource(serverUuid, resourceType, amount, transport.interactiveDeadline());
+	}
+
+	/**
+	 * Отправляет данные о собранных ресурсах с заданным общим сроком
+	 * @param serverUuid UUID сервера (36 символов)
+	 * @param resourceType тип ресурса (например, "wood", "stone")
+	 * @param amount количество (инкремент, >= 0)
+	 * @param deadline срок, в который должны уложиться все попытки
+	 * @return CompletableFuture с ответом или null при ошибке
+	 */
+	public CompletableFuture<ResourceCollectionResponse> collectResource(String serverUuid, String resourceType, int amount, Deadline deadline) {
+		return collectResource(serverUuid, resourceType, amount, newIdempotencyKey(), deadline);
+	}
+
+	/**
+	 * Отправляет данные о собранных ресурсах с ключом идемпотентности: API учитывает ресурсы
+	 * не больше одного раза на ключ, поэтому запрос повторяется и после таймаутов и 5xx
+	 * @param idempotencyKey ключ одной логической отправки, одинаковый для всех ее повторов
+	 * @param deadline срок, в который должны уложиться все попытки
+	 * @return CompletableFuture с ответом или null, если ответа нет; запрос, отклоненный API окончательно
+	 *         (4xx, кроме 408 и 429), дает ответ с success=false
+	 */
+	public CompletableFuture<ResourceCollectionResponse> collectResource(String serverUuid, String resourceType, int amount, String idempotencyKey, Deadline deadline) {
 		if (amount < 0) {
 			return CompletableFuture.failedFuture(new IllegalArgumentException("amount должен быть >= 0"));
 		}
@@ -55,133 +90,269 @@ public class ResourceCollectionApiClient {
 			return CompletableFuture.failedFuture(new IllegalArgumentException("serverUuid должен быть 36 символов"));
 		}
 
-		String url = baseUrl + "/resource-collection/collect";
-		ResourceCollectionRequest request = new ResourceCollectionRequest(serverUuid, resourceType, amount);
-		String jsonBody = gson.toJson(request);
+		Map<String, ResourceCollectionResponse> acknowledged = acknowledgedResults(idempotencyKey);
+		if (acknowledged != null && acknowledged.containsKey(resourceType)) {
+			locallyAcknowledged.increment();
+			return CompletableFuture.completedFuture(acknowledged.get(resourceType));
+		}
 
-		HttpRequest httpRequest = HttpRequest.newBuilder()
-				.uri(URI.create(url))
-				.timeout(REQUEST_TIMEOUT)
-				.header("Content-Type", "application/json")
-				.POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+		ResourceCollectionRequest request = new ResourceCollectionRequest(serverUuid, resourceType, amount);
+		HttpRequest httpRequest = transport.postJson(transport.newRequest("/resource-collection/collect"), request)
+				.header(ApiTransport.IDEMPOTENCY_KEY_HEADER, idempotencyKey)
 				.build();
 
-		return httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofString())
-				.thenCompose(response -> {
-					if (response.statusCode() == 201) {
-						try {
-							ResourceCollectionResponse result = gson.fromJson(response.body(), ResourceCollectionResponse.class);
-							return CompletableFuture.completedFuture(result);
-						} catch (JsonParseException e) {
-							LOGGER.error("Ошибка парсинга JSON ответа: {}", e.getMessage());
-							return CompletableFuture.failedFuture(new ApiException("Ошибка парсинга JSON", response.statusCode(), e));
-						}
-					} else if (response.statusCode() == 400) {
-						LOGGER.error("Неверный запрос (400): {}", response.body());
-						return CompletableFuture.failedFuture(new ApiException("Неверный запрос: " + response.body(), 400));
-					} else {
-						return retryRequest(httpRequest, response.statusCode());
+		return transport.send(RESOURCE_COLLECTION_ENDPOINT, RequestPriority.BACKGROUND, deadline, httpRequest, ResourceCollectionResponse.class)
+				.thenApply(response -> {
+					if (response != null) {
+						recordAcknowledged(idempotencyKey, Map.of(resourceType, response));
 					}
+					return response;
 				})
 				.exceptionally(throwable -> {
-					Throwable cause = throwable.getCause();
-					if (cause instanceof IOException || cause instanceof java.net.http.HttpTimeoutException) {
-						// Сетевая ошибка - повторяем запрос
-						return retryRequest(httpRequest, 0).join();
+					Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+					if (cause instanceof ApiException apiException && apiException.getStatusCode() == 400) {
+						LOGGER.error("Неверный запрос (400): тип ресурса {}, количество {}", resourceType, amount);
+					} else {
+						LOGGER.error("Ошибка при отправке данных о сборе ресурсов: {}", cause.getMessage());
+					}
+					if (isRejection(cause)) {
+						ResourceCollectionResponse rejected = rejection(cause);
+						recordAcknowledged(idempotencyKey, Map.of(resourceType, rejected));
+						return rejected;
 					}
-					LOGGER.error("Ошибка при отправке данных о сборе ресурсов: {}", throwable.getMessage());
 					return null;
 				});
 	}
 
 	/**
-	 * Получает список активных целей для сервера
-	 * @param serverUuid UUID сервера
-	 * @return CompletableFuture с ответом или null при ошибке
+	 * Отправляет количества всех типов ресурсов из одного закрытия меню /collect одним запросом
+	 * @param serverUuid UUID сервера (36 символов)
+	 * @param amounts resourceType -> количество (>= 0)
+	 * @return CompletableFuture с результатами по типам; типы, по которым ответа нет
+	 *         (ошибка запроса), отсутствуют
 	 */
-	public CompletableFuture<ResourceProgressResponse> getResourceGoals(String serverUuid) {
+	public CompletableFuture<Map<String, ResourceCollectionResponse>> collectResources(String serverUuid, Map<String, Integer> amounts) {
+		return collectResources(serverUuid, amounts, transport.interactiveDeadline());
+	}
+
+	/**
+	 * Отправляет количества всех типов ресурсов одним запросом с заданным общим сроком.
+	 * Если API не поддерживает bulk-запрос, типы отправляются параллельными одиночными запросами.
+	 * @param serverUuid UUID сервера (36 символов)
+	 * @param amounts resourceType -> количество (>= 0)
+	 * @param deadline срок, в который должны уложиться все попытки
+	 * @return CompletableFuture с результатами по типам; типы, по которым ответа нет
+	 *         (ошибка запроса), отсутствуют
+	 */
+	public CompletableFuture<Map<String, ResourceCollectionResponse>> collectResources(String serverUuid, Map<String, Integer> amounts, Deadline deadline) {
+		return collectResources(serverUuid, amounts, newIdempotencyKey(), deadline);
+	}
+
+	/**
+	 * Отправляет количества всех типов ресурсов одним запросом с ключом идемпотентности.
+	 * Повтор с ключом, подтвержденным недавно, возвращает сохраненные результаты без запроса к API.
+	 * @param idempotencyKey ключ одной логической отправки, одинаковый для всех ее повторов
+	 *        (в том числе после перезапуска - для вкладов из журнала)
+	 * @param deadline срок, в который должны уложиться все попытки
+	 * @return CompletableFuture с результатами по типам; типы, по которым ответа нет
+	 *         (ошибка запроса), отсутствуют. Если API отклонил запрос окончательно (4xx, кроме 408 и 429),
+	 *         все типы получают ответ с success=false
+	 */
+	public CompletableFuture<Map<String, ResourceCollectionResponse>> collectResources(String serverUuid, Map<String, Integer> amounts, String idempotencyKey, Deadline deadline) {
 		if (serverUuid == null || serverUuid.length() != 36) {
 			return CompletableFuture.failedFuture(new IllegalArgumentException("serverUuid должен быть 36 символов"));
 		}
+		for (int amount : amounts.values()) {
+			if (amount < 0) {
+				return CompletableFuture.failedFuture(new IllegalArgumentException("amount должен быть >= 0"));
+			}
+		}
+		if (amounts.isEmpty()) {
+			return CompletableFuture.completedFuture(Map.of());
+		}
+		Map<String, ResourceCollectionResponse> acknowledged = acknowledgedResults(idempotencyKey);
+		if (acknowledged != null) {
+			Map<String, Integer> missing = new HashMap<>(amounts);
+			missing.keySet().removeAll(acknowledged.keySet());
+			if (missing.isEmpty()) {
+				locallyAcknowledged.increment();
+				return CompletableFuture.completedFuture(acknowledged);
+			}
+			// Отправка с этим ключом уже получила ответ без части типов. Повтор пакета с тем же ключом
+			// вернул бы тот же ответ, поэтому недостающие типы идут одиночными запросами с ключами <ключ>/<тип>:
+			// если одиночный запрос уже был учтен, а ответ потерян, API его не учтет повторно
+			return collectIndividually(serverUuid, missing, idempotencyKey, deadline)
+					.thenApply(rest -> acknowledgedResults(idempotencyKey));
+		}
+		if (!batchEndpointSupported) {
+			return collectIndividually(serverUuid, amounts, idempotencyKey, deadline);
+		}
 
-		String url = baseUrl + "/resource-collection/servers/" + serverUuid + "/progress";
-		HttpRequest httpRequest = HttpRequest.newBuilder()
-				.uri(URI.create(url))
-				.timeout(REQUEST_TIMEOUT)
-				.GET()
+		ResourceCollectionBatchRequest request = new ResourceCollectionBatchRequest(serverUuid, amounts);
+		HttpRequest httpRequest = transport.postJson(transport.newRequest("/resource-collection/collect/batch"), request)
+				.header(ApiTransport.IDEMPOTENCY_KEY_HEADER, idempotencyKey)
 				.build();
 
-		return httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofString())
-				.thenApply(response -> {
-					if (response.statusCode() == 200) {
-						try {
-							return gson.fromJson(response.body(), ResourceProgressResponse.class);
-						} catch (JsonParseException e) {
-							LOGGER.error("Ошибка парсинга JSON ответа (цели): {}", e.getMessage());
-							throw new ApiException("Ошибка парсинга JSON", response.statusCode(), e);
+		return transport.send(RESOURCE_COLLECTION_ENDPOINT, RequestPriority.BACKGROUND, deadline, httpRequest, ResourceCollectionBatchResponse.class)
+				.<Map<String, ResourceCollectionResponse>>thenApply(response -> {
+					Map<String, ResourceCollectionResponse> results = new HashMap<>();
+					if (response != null && response.getResults() != null) {
+						for (Map.Entry<String, ResourceCollectionResponse> entry : response.getResults().entrySet()) {
+							// Учитываем только запрошенные типы
+							if (entry.getValue() != null && amounts.containsKey(entry.getKey())) {
+								results.put(entry.getKey(), entry.getValue());
+							}
 						}
-					} else {
-						LOGGER.error("Ошибка получения целей: код {}", response.statusCode());
-						throw new ApiException("Ошибка получения целей", response.statusCode());
 					}
+					recordAcknowledged(idempotencyKey, results);
+					return results;
 				})
-				.exceptionally(throwable -> {
-					LOGGER.error("Ошибка при получении списка целей: {}", throwable.getMessage());
-					return null;
+				.exceptionallyCompose(throwable -> {
+					Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+					if (cause instanceof ApiException apiException
+							&& (apiException.getStatusCode() == 404 || apiException.getStatusCode() == 405)) {
+						// Бэкенд не поддерживает bulk-запрос - переходим на одиночные запросы
+						LOGGER.warn("Bulk-запрос сбора ресурсов не поддерживается API, используются одиночные запросы");
+						batchEndpointSupported = false;
+						return collectIndividually(serverUuid, amounts, idempotencyKey, deadline);
+					}
+					LOGGER.error("Ошибка при отправке данных о сборе ресурсов: {}", cause.getMessage());
+					if (isRejection(cause)) {
+						// Повтор получит тот же отказ - отвечаем отказом по каждому типу, чтобы его не повторяли
+						ResourceCollectionResponse rejected = rejection(cause);
+						Map<String, ResourceCollectionResponse> results = new HashMap<>();
+						for (String resourceType : amounts.keySet()) {
+							results.put(resourceType, rejected);
+						}
+						recordAcknowledged(idempotencyKey, results);
+						return CompletableFuture.completedFuture(results);
+					}
+					return CompletableFuture.completedFuture(Map.of());
 				});
 	}
 
-	private CompletableFuture<ResourceCollectionResponse> retryRequest(HttpRequest request, int lastStatusCode) {
-		CompletableFuture<ResourceCollectionResponse> retryFuture = new CompletableFuture<>();
-		
-		scheduler.execute(() -> {
-			for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
-				try {
-					long delay = (long) Math.pow(2, attempt); // Экспоненциальная задержка: 1, 2, 4 секунды
-					Thread.sleep(delay * 1000);
-
-					HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-					
-					if (response.statusCode() == 201) {
-						try {
-							ResourceCollectionResponse result = gson.fromJson(response.body(), ResourceCollectionResponse.class);
-							retryFuture.complete(result);
-							return;
-						} catch (JsonParseException e) {
-							LOGGER.error("Ошибка парсинга JSON ответа при повторе: {}", e.getMessage());
-						}
-					} else if (response.statusCode() == 400) {
-						retryFuture.completeExceptionally(new ApiException("Неверный запрос: " + response.body(), 400));
-						return;
-					}
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-					retryFuture.completeExceptionally(new ApiException("Прервано", 0, e));
-					return;
-				} catch (Exception e) {
-					LOGGER.warn("Попытка {} не удалась: {}", attempt + 1, e.getMessage());
-				}
-			}
-			
-			retryFuture.completeExceptionally(new ApiException("Превышено количество попыток", lastStatusCode));
-		});
+	/**
+	 * Срок для отправки, результата которой ждет игрок
+	 */
+	Deadline interactiveDeadline() {
+		return transport.interactiveDeadline();
+	}
+
+	/**
+	 * Срок для фоновой отправки, результата которой никто не ждет (повторная отправка вкладов из журнала)
+	 */
+	Deadline backgroundDeadline() {
+		return transport.backgroundDeadline();
+	}
+
+	/**
+	 * @return количество отправок, результат которых взят из записи подтвержденных ключей без запроса к API
+	 */
+	public long getLocallyAcknowledgedCount() {
+		return locallyAcknowledged.sum();
+	}
+
+	/**
+	 * Новый ключ идемпотентности для одной логической отправки
+	 */
+	public static String newIdempotencyKey() {
+		return UUID.randomUUID().toString();
+	}
 
-		return retryFuture;
+	/**
+	 * Окончательный отказ API: ошибка клиента, которую повтор не исправит (408 и 429 - временные)
+	 */
+	private static boolean isRejection(Throwable cause) {
+		if (!(cause instanceof ApiException apiException)) {
+			return false;
+		}
+		int statusCode = apiException.getStatusCode();
+		return statusCode >= 400 && statusCode < 500 && statusCode != 408 && statusCode != 429;
 	}
 
-	private static class ApiException extends RuntimeException {
-		private final int statusCode;
+	private static ResourceCollectionResponse rejection(Throwable cause) {
+		return new ResourceCollectionResponse(false, cause.getMessage(), 0);
+	}
 
-		public ApiException(String message, int statusCode) {
-			super(message);
-			this.statusCode = statusCode;
+	private Map<String, ResourceCollectionResponse> acknowledgedResults(String idempotencyKey) {
+		synchronized (acknowledgedKeys) {
+			return acknowledgedKeys.get(idempotencyKey);
 		}
+	}
 
-		public ApiException(String message, int statusCode, Throwable cause) {
-			super(message, cause);
-			this.statusCode = statusCode;
+	/**
+	 * Добавляет результаты к записи ключа: ответы на недостающие типы дополняют прежний частичный ответ
+	 */
+	private void recordAcknowledged(String idempotencyKey, Map<String, ResourceCollectionResponse> results) {
+		if (results.isEmpty()) {
+			return;
+		}
+		synchronized (acknowledgedKeys) {
+			Map<String, ResourceCollectionResponse> merged = new HashMap<>(results);
+			Map<String, ResourceCollectionResponse> previous = acknowledgedKeys.get(idempotencyKey);
+			if (previous != null) {
+				previous.forEach(merged::putIfAbsent);
+			}
+			acknowledgedKeys.put(idempotencyKey, Map.copyOf(merged));
 		}
+	}
 
+	boolean isBatchEndpointSupported() {
+		return batchEndpointSupported;
 	}
-}
 
+	/**
+	 * Одиночные запросы по всем типам сразу, а не по очереди: общее время - одна задержка API, а не сумма.
+	 * Ключ каждого запроса выводится из ключа отправки и типа ресурса, поэтому повтор отправки остается идемпотентным.
+	 */
+	private CompletableFuture<Map<String, ResourceCollectionResponse>> collectIndividually(String serverUuid, Map<String, Integer> amounts, String idempotencyKey, Deadline deadline) {
+		Map<String, CompletableFuture<ResourceCollectionResponse>> futures = new HashMap<>();
+		for (Map.Entry<String, Integer> entry : amounts.entrySet()) {
+			futures.put(entry.getKey(), collectResource(serverUuid, entry.getKey(), entry.getValue(), idempotencyKey + "/" + entry.getKey(), deadline));
+		}
+		return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+				.thenApply(v -> {
+					Map<String, ResourceCollectionResponse> results = new HashMap<>();
+					futures.forEach((resourceType, future) -> {
+						ResourceCollectionResponse response = future.join();
+						if (response != null) {
+							results.put(resourceType, response);
+						}
+					});
+					recordAcknowledged(idempotencyKey, results);
+					return results;
+				});
+	}
+
+	/**
+	 * Получает список активных целей для сервера
+	 * @param serverUuid UUID сервера
+	 * @return CompletableFuture с ответом или null при ошибке
+	 */
+	public CompletableFuture<ResourceProgressResponse> getResourceGoals(String serverUuid) {
+		return getResourceGoals(serverUuid, transport.backgroundDeadline());
+	}
+
+	/**
+	 * Получает список активных целей для сервера с заданным общим сроком
+	 * @param serverUuid UUID сервера
+	 * @param deadline срок, в который должны уложиться все попытки
+	 * @return CompletableFuture с ответом или null при ошибке
+	 */
+	public CompletableFuture<ResourceProgressResponse> getResourceGoals(String serverUuid, Deadline deadline) {
+		if (serverUuid == null || serverUuid.length() != 36) {
+			return CompletableFuture.failedFuture(new IllegalArgumentException("serverUuid должен быть 36 символов"));
+		}
+
+		HttpRequest httpRequest = transport.newRequest("/resource-collection/servers/" + serverUuid + "/progress")
+				.GET()
+				.build();
+
+		return transport.send(RESOURCE_COLLECTION_ENDPOINT, RequestPriority.BACKGROUND, deadline, httpRequest, ResourceProgressResponse.class)
+				.exceptionally(throwable -> {
+					Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+					LOGGER.error("Ошибка при получении списка целей: {}", cause.getMessage());
+					return null;
+				});
+	}
+}
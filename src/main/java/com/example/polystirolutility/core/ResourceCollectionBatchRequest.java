@@ -0,0 +1,31 @@
+package com.example.polystirolutility.core;
+
+import java.util.Map;
+
+import com.google.gson.annotations.SerializedName;
+
+public class ResourceCollectionBatchRequest {
+	@SerializedName("server_uuid")
+	private String serverUuid;
+
+	// resourceType -> количество
+	@SerializedName("resources")
+	private Map<String, Integer> resources;
+
+	public ResourceCollectionBatchRequest() {
+		// Конструктор по умолчанию для Gson
+	}
+
+	public ResourceCollectionBatchRequest(String serverUuid, Map<String, Integer> resources) {
+		this.serverUuid = serverUuid;
+		this.resources = resources;
+	}
+
+	public String getServerUuid() {
+		return serverUuid;
+	}
+
+	public Map<String, Integer> getResources() {
+		return resources;
+	}
+}
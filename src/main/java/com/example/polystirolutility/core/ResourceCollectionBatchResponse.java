@@ -0,0 +1,23 @@
+package com.example.polystirolutility.core;
+
+import java.util.Map;
+
+import com.google.gson.annotations.SerializedName;
+
+public class ResourceCollectionBatchResponse {
+	// resourceType -> результат по этому типу; типы, которые API не обработал, отсутствуют
+	@SerializedName("results")
+	private Map<String, ResourceCollectionResponse> results;
+
+	public ResourceCollectionBatchResponse() {
+		// Конструктор по умолчанию для Gson
+	}
+
+	ResourceCollectionBatchResponse(Map<String, ResourceCollectionResponse> results) {
+		this.results = results;
+	}
+
+	public Map<String, ResourceCollectionResponse> getResults() {
+		return results;
+	}
+}
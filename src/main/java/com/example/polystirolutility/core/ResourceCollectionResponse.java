@@ -16,6 +16,12 @@ public class ResourceCollectionResponse {
 		// Конструктор по умолчанию для Gson
 	}
 
+	ResourceCollectionResponse(boolean success, String message, int currentAmount) {
+		this.success = success;
+		this.message = message;
+		this.currentAmount = currentAmount;
+	}
+
 	public boolean isSuccess() {
 		return success;
 	}
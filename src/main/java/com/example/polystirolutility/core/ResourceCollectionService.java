@@ -1,7 +1,22 @@
 package com.example.polystirolutility.core;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +34,25 @@ public class ResourceCollectionService {
 	private long lastGoalsUpdateTime = 0;
 	private static final long GOALS_UPDATE_INTERVAL_MS = 60_000; // Обновляем раз в минуту
 
+	private static final long REDELIVERY_INTERVAL_SECONDS = 30;
+	// Вклады старше этого срока считаются отклоненными API и удаляются из журнала
+	private static final long ENTRY_MAX_AGE_MS = TimeUnit.DAYS.toMillis(7);
+
+	private volatile ContributionJournal journal;
+	private ScheduledExecutorService redelivery;
+	// Номера вкладов журнала, запрос по которым сейчас в пути
+	private final Set<Long> deliveringEntries = ConcurrentHashMap.newKeySet();
+
+	// Режим агрегации: сумма вкладов всех игроков по типам ресурсов до следующей отправки
+	private volatile ScheduledExecutorService aggregator;
+	private final Map<String, LongAdder> aggregatedAmounts = new ConcurrentHashMap<>();
+	// Номера записей журнала, вошедших в текущую сумму
+	private final Queue<Long> aggregatedEntries = new ConcurrentLinkedQueue<>();
+	// Суммы без журнала, отправленные без ответа, с их ключами идемпотентности (под блокировкой flushAggregate)
+	private final Deque<UnconfirmedDelta> unconfirmedDeltas = new ArrayDeque<>();
+	// Локальная статистика: игрок -> resourceType -> количество
+	private final Map<UUID, Map<String, LongAdder>> playerContributions = new ConcurrentHashMap<>();
+
 	public ResourceCollectionService(ResourceCollectionApiClient apiClient, String serverUuid) {
 		this.apiClient = apiClient;
 		this.serverUuid = serverUuid;
@@ -30,6 +64,9 @@ public class ResourceCollectionService {
 		if (now - lastGoalsUpdateTime < GOALS_UPDATE_INTERVAL_MS && !allowedResources.isEmpty()) {
 			return; // Кеш свежий
 		}
+		if (!apiClient.isAvailable()) {
+			return; // API недоступен - используем прежний список целей
+		}
 		
 		apiClient.getResourceGoals(serverUuid).thenAccept(response -> {
 			if (response != null && response.getResources() != null) {
@@ -48,15 +85,411 @@ public class ResourceCollectionService {
 	}
 
 	/**
-	 * Обрабатывает предметы и отправляет данные на API
+	 * Обрабатывает предметы и отправляет данные на API, блокируя вызывающий поток до ответа.
+	 * Не вызывать из потока сервера - для него есть {@link #submitItems(UUID, ItemStack[])}.
 	 * @param items массив предметов для обработки
 	 * @return Map с результатами отправки по типам ресурсов (resourceType -> количество успешно отправлено)
 	 */
 	public Map<String, Integer> processAndSendItems(ItemStack[] items) {
+		return submitItems(null, items).join();
+	}
+
+	/**
+	 * Подсчитывает ресурсы в вызывающем потоке и отправляет их на API асинхронно.
+	 * Сами предметы после возврата из метода не читаются. С журналом вкладов ресурсы записываются на диск
+	 * и сразу отправляются: типы, отклоненные API, в результат не входят, а если API не ответил,
+	 * ресурсы считаются отправленными и доходят до API в фоне.
+	 * В режиме агрегации ресурсы принимаются сразу и уходят в API общей суммой раз в интервал.
+	 * @param playerUuid игрок, которому засчитывается вклад в локальной статистике (null - не учитывать)
+	 * @param items массив предметов для обработки
+	 * @return future с результатами отправки по типам ресурсов (resourceType -> количество успешно отправлено);
+	 *         при ошибке завершается пустой Map, а не исключением
+	 */
+	public CompletableFuture<Map<String, Integer>> submitItems(UUID playerUuid, ItemStack[] items) {
+		ContributionJournal journal = this.journal;
+		if (journal == null && !apiClient.isAvailable()) {
+			// API недоступен и журнала нет: ничего не отправляем, все предметы остаются у игрока
+			LOGGER.warn("API недоступен, сбор ресурсов временно отключен");
+			return CompletableFuture.completedFuture(new HashMap<>());
+		}
+
 	    // Пробуем обновить список целей перед обработкой (асинхронно, если старый)
 		updateAllowedResources();
 
-		// Группируем предметы по типам ресурсов
+		Map<String, Integer> resourceCounts = countResources(items, allowedResources);
+		if (resourceCounts.isEmpty()) {
+			return CompletableFuture.completedFuture(new HashMap<>());
+		}
+
+		CompletableFuture<Map<String, Integer>> accepted;
+		if (aggregator != null) {
+			accepted = aggregate(resourceCounts);
+		} else if (journal == null) {
+			accepted = send(resourceCounts);
+		} else {
+			accepted = appendAndDeliver(resourceCounts);
+		}
+		return accepted.thenApply(sentCounts -> {
+			recordContribution(playerUuid, sentCounts);
+			return sentCounts;
+		});
+	}
+
+	private CompletableFuture<Map<String, Integer>> appendAndDeliver(Map<String, Integer> resourceCounts) {
+		// Вклад, записанный на диск, дойдет до API в фоне, даже если тот сейчас недоступен.
+		// Первую отправку игрок ждет: отклоненные API ресурсы должны вернуться к нему, а не пропасть
+		return this.journal.append(resourceCounts)
+				.thenCompose(entry -> {
+					LOGGER.info("Вклад {} записан в журнал: {}", entry.getId(), resourceCounts);
+					return deliver(entry, apiClient.interactiveDeadline());
+				})
+				.thenApply(results -> {
+					Map<String, Integer> acceptedCounts = new HashMap<>(resourceCounts);
+					results.forEach((resourceType, response) -> {
+						if (!response.isSuccess()) {
+							acceptedCounts.remove(resourceType);
+						}
+					});
+					return acceptedCounts;
+				})
+				.exceptionallyCompose(throwable -> {
+					Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+					LOGGER.error("Не удалось записать вклад в журнал, ресурсы отправляются напрямую: {}", cause.getMessage());
+					return apiClient.isAvailable() ? send(resourceCounts) : CompletableFuture.completedFuture(new HashMap<>());
+				});
+	}
+
+	/**
+	 * Принимает вклад в общие счетчики режима агрегации. С журналом вклад сначала записывается на диск;
+	 * его запись не отправляется отдельно, а подтверждается после записи общей суммы, в которую он вошел.
+	 */
+	private CompletableFuture<Map<String, Integer>> aggregate(Map<String, Integer> resourceCounts) {
+		ContributionJournal journal = this.journal;
+		if (journal == null) {
+			addToAggregate(resourceCounts);
+			return CompletableFuture.completedFuture(new HashMap<>(resourceCounts));
+		}
+		// Запись исключена из повторной отправки с самого появления в журнале: она уйдет в составе общей суммы
+		return journal.append(resourceCounts, true)
+				.thenApply(entry -> {
+					// Сначала счетчики, потом номер: сброс, забравший номер, уже видит эти количества
+					addToAggregate(resourceCounts);
+					aggregatedEntries.add(entry.getId());
+					return (Map<String, Integer>) new HashMap<>(resourceCounts);
+				})
+				.exceptionally(throwable -> {
+					Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+					LOGGER.error("Не удалось записать вклад в журнал, он будет учтен только в памяти: {}", cause.getMessage());
+					addToAggregate(resourceCounts);
+					return new HashMap<>(resourceCounts);
+				});
+	}
+
+	private void addToAggregate(Map<String, Integer> amounts) {
+		for (Map.Entry<String, Integer> entry : amounts.entrySet()) {
+			aggregatedAmounts.computeIfAbsent(entry.getKey(), type -> new LongAdder()).add(entry.getValue());
+		}
+	}
+
+	/**
+	 * Включает режим агрегации: вклады всех игроков суммируются и отправляются одним запросом раз в интервал
+	 * @param intervalSeconds интервал отправки суммы в секундах
+	 */
+	public void enableAggregation(long intervalSeconds) {
+		this.aggregator = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "ResourceCollection-Aggregator");
+			t.setDaemon(true);
+			return t;
+		});
+		aggregator.scheduleWithFixedDelay(() -> flushAggregate(apiClient.backgroundDeadline()),
+				intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		LOGGER.info("Вклады ресурсов отправляются суммой раз в {} с", intervalSeconds);
+	}
+
+	/**
+	 * Отправляет накопленную сумму вкладов. Выполняется в потоке ResourceCollection-Aggregator
+	 * (и при остановке - в вызывающем потоке); отправки не пересекаются, следующая ждет ответа на предыдущую.
+	 * С журналом сумма к возврату уже записана на диск, без журнала - отправлена с ожиданием ответа.
+	 * @param deadline срок ответа API на каждую отправку без журнала
+	 */
+	private synchronized void flushAggregate(Deadline deadline) {
+		ContributionJournal journal = this.journal;
+		// Номера забираем до счетчиков: количества каждого забранного номера уже попали в счетчики
+		List<Long> entryIds = new ArrayList<>();
+		Long id;
+		while ((id = aggregatedEntries.poll()) != null) {
+			entryIds.add(id);
+		}
+
+		Map<String, Integer> delta = drainAggregate();
+
+		if (journal != null) {
+			ContributionJournal.Entry combined = null;
+			if (!delta.isEmpty()) {
+				try {
+					combined = journal.append(delta).join();
+				} catch (RuntimeException e) {
+					LOGGER.error("Не удалось записать сумму вкладов в журнал, повтор при следующей отправке: {}", e.getMessage());
+					addToAggregate(delta);
+					aggregatedEntries.addAll(entryIds);
+					return;
+				}
+			}
+			// Количества этих вкладов надежно записаны в сумме - отдельные записи больше не нужны
+			for (long entryId : entryIds) {
+				journal.acknowledge(entryId);
+			}
+			if (combined != null) {
+				LOGGER.debug("Сумма {} вкладов записана в журнал как вклад {}: {}", entryIds.size(), combined.getId(), delta);
+				deliver(combined, apiClient.backgroundDeadline());
+			}
+			return;
+		}
+
+		if (!apiClient.isAvailable()) {
+			addToAggregate(delta);
+			return;
+		}
+		// Суммы без ответа могли быть учтены API - повторяем их с прежними ключами раньше новой суммы
+		while (!unconfirmedDeltas.isEmpty()) {
+			UnconfirmedDelta unconfirmed = unconfirmedDeltas.peek();
+			if (!sendDelta(unconfirmed.amounts, unconfirmed.idempotencyKey, deadline)) {
+				addToAggregate(delta);
+				return;
+			}
+			unconfirmedDeltas.poll();
+		}
+		if (delta.isEmpty()) {
+			return;
+		}
+		String idempotencyKey = ResourceCollectionApiClient.newIdempotencyKey();
+		if (!sendDelta(delta, idempotencyKey, deadline)) {
+			unconfirmedDeltas.add(new UnconfirmedDelta(delta, idempotencyKey));
+		}
+	}
+
+	/**
+	 * Забирает накопленные количества из счетчиков
+	 * @return resourceType -> количество, пустой Map если вкладов не было
+	 */
+	private Map<String, Integer> drainAggregate() {
+		Map<String, Integer> delta = new HashMap<>();
+		for (Map.Entry<String, LongAdder> entry : aggregatedAmounts.entrySet()) {
+			long sum = entry.getValue().sumThenReset();
+			if (sum > 0) {
+				int amount = (int) Math.min(sum, Integer.MAX_VALUE);
+				if (sum > amount) {
+					entry.getValue().add(sum - amount); // Остаток уйдет следующей суммой
+				}
+				delta.put(entry.getKey(), amount);
+			}
+		}
+		return delta;
+	}
+
+	/**
+	 * Отправляет сумму без журнала и ждет ответа
+	 * @return true, если API ответил по всем типам; иначе сумму нужно повторить с тем же ключом
+	 */
+	private boolean sendDelta(Map<String, Integer> delta, String idempotencyKey, Deadline deadline) {
+		Map<String, ResourceCollectionResponse> results;
+		try {
+			results = apiClient.collectResources(serverUuid, delta, idempotencyKey, deadline).join();
+		} catch (RuntimeException e) {
+			LOGGER.debug("Сумма вкладов не отправлена, повтор при следующей отправке: {}", e.getMessage());
+			return false;
+		}
+		if (results == null || !results.keySet().containsAll(delta.keySet())) {
+			// Повтор с тем же ключом дошлет только типы без ответа
+			return false;
+		}
+		for (Map.Entry<String, Integer> amount : delta.entrySet()) {
+			ResourceCollectionResponse response = results.get(amount.getKey());
+			if (response.isSuccess()) {
+				LOGGER.info("Отправлено {} единиц {} (всего: {})", amount.getValue(), amount.getKey(), response.getCurrentAmount());
+			} else {
+				LOGGER.warn("API отклонил {} единиц {}: {}", amount.getValue(), amount.getKey(), response.getMessage());
+			}
+		}
+		return true;
+	}
+
+	private void recordContribution(UUID playerUuid, Map<String, Integer> amounts) {
+		if (playerUuid == null || amounts.isEmpty()) {
+			return;
+		}
+		Map<String, LongAdder> contributions = playerContributions.computeIfAbsent(playerUuid, uuid -> new ConcurrentHashMap<>());
+		for (Map.Entry<String, Integer> entry : amounts.entrySet()) {
+			contributions.computeIfAbsent(entry.getKey(), type -> new LongAdder()).add(entry.getValue());
+		}
+	}
+
+	/**
+	 * Принятые от игрока ресурсы с момента запуска сервера
+	 * @return resourceType -> количество, пустой Map если вкладов не было
+	 */
+	public Map<String, Long> getPlayerContributions(UUID playerUuid) {
+		Map<String, LongAdder> contributions = playerContributions.get(playerUuid);
+		if (contributions == null) {
+			return Map.of();
+		}
+		Map<String, Long> result = new TreeMap<>();
+		contributions.forEach((type, amount) -> result.put(type, amount.sum()));
+		return result;
+	}
+
+	public boolean isAggregationEnabled() {
+		return aggregator != null;
+	}
+
+	/**
+	 * Подключает журнал вкладов и запускает повторную отправку неподтвержденных вкладов
+	 */
+	public void setJournal(ContributionJournal journal) {
+		this.journal = journal;
+		this.redelivery = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "ResourceCollection-Redelivery");
+			t.setDaemon(true);
+			return t;
+		});
+		redelivery.scheduleWithFixedDelay(this::redeliverPending, REDELIVERY_INTERVAL_SECONDS, REDELIVERY_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Останавливает повторную отправку; неподтвержденные вклады остаются в журнале до следующего запуска
+	 */
+	public void close() {
+		if (aggregator != null) {
+			aggregator.shutdown();
+			try {
+				aggregator.awaitTermination(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			// Последняя сумма: с журналом она записывается на диск, без журнала - отправляется вместе
+			// с неподтвержденными суммами
+			flushAggregate(Deadline.afterMillis(5000));
+			logUndeliveredAggregate();
+		}
+		if (redelivery != null) {
+			redelivery.shutdownNow();
+		}
+	}
+
+	/**
+	 * Без журнала суммы, не дошедшие до API к остановке, не сохраняются - записываем их в лог
+	 */
+	private synchronized void logUndeliveredAggregate() {
+		Map<String, Integer> lost = drainAggregate();
+		for (UnconfirmedDelta unconfirmed : unconfirmedDeltas) {
+			// Сумма без ответа могла быть учтена API, но проверить это уже нельзя
+			unconfirmed.amounts.forEach((type, amount) -> lost.merge(type, amount, Integer::sum));
+		}
+		unconfirmedDeltas.clear();
+		if (!lost.isEmpty()) {
+			LOGGER.error("Сумма вкладов не подтверждена API до остановки сервера и потеряна: {}", lost);
+		}
+	}
+
+	/**
+	 * Отправляет на API вклады журнала, которые еще не подтверждены (в том числе загруженные при старте)
+	 */
+	private void redeliverPending() {
+		ContributionJournal journal = this.journal;
+		if (journal.getPendingCount() == 0 || !apiClient.isAvailable()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (ContributionJournal.Entry entry : journal.getPending()) {
+			if (now - entry.getCreatedAtMillis() > ENTRY_MAX_AGE_MS) {
+				// API так и не принял вклад: не отправляем его бесконечно
+				LOGGER.error("Вклад {} не подтвержден API за {} дней и удален из журнала: {}",
+						entry.getId(), TimeUnit.MILLISECONDS.toDays(ENTRY_MAX_AGE_MS), entry.getAmounts());
+				journal.acknowledge(entry.getId());
+				continue;
+			}
+			deliver(entry, apiClient.backgroundDeadline());
+		}
+	}
+
+	/**
+	 * Отправляет вклад из журнала и подтверждает его в журнале, когда API ответил по всем типам.
+	 * Если ответа нет хотя бы по одному типу, вклад остается в журнале и позже отправляется целиком
+	 * с тем же ключом: API не учтет повторно типы, которые уже учел. Типы, отклоненные API
+	 * (в том числе окончательной ошибкой 4xx), считаются отвеченными и не повторяются.
+	 * @param deadline срок ответа API на эту отправку
+	 * @return future с ответами API по типам; пустой Map, если ответа нет или вклад уже отправляется
+	 */
+	private CompletableFuture<Map<String, ResourceCollectionResponse>> deliver(ContributionJournal.Entry entry, Deadline deadline) {
+		ContributionJournal journal = this.journal;
+		if (!deliveringEntries.add(entry.getId())) {
+			return CompletableFuture.completedFuture(Map.of()); // Уже отправляется
+		}
+		// Ключ вклада хранится в журнале: повтор после таймаута или перезапуска сервера не учтет ресурсы дважды
+		return apiClient.collectResources(serverUuid, entry.getAmounts(), entry.getIdempotencyKey(), deadline)
+				.handle((results, throwable) -> {
+					if (throwable != null || results == null || results.isEmpty()) {
+						LOGGER.debug("Вклад {} не отправлен, повтор через {} с", entry.getId(), REDELIVERY_INTERVAL_SECONDS);
+						deliveringEntries.remove(entry.getId());
+						return Map.of();
+					}
+
+					boolean complete = true;
+					for (Map.Entry<String, Integer> amount : entry.getAmounts().entrySet()) {
+						ResourceCollectionResponse response = results.get(amount.getKey());
+						if (response == null) {
+							complete = false;
+						} else if (response.isSuccess()) {
+							LOGGER.info("Отправлено {} единиц {} (всего: {})", amount.getValue(), amount.getKey(), response.getCurrentAmount());
+						} else {
+							LOGGER.warn("API отклонил {} единиц {}: {}", amount.getValue(), amount.getKey(), response.getMessage());
+						}
+					}
+
+					if (complete) {
+						journal.acknowledge(entry.getId());
+					} else {
+						LOGGER.debug("Вклад {} отправлен частично, повтор через {} с", entry.getId(), REDELIVERY_INTERVAL_SECONDS);
+					}
+					deliveringEntries.remove(entry.getId());
+					return results;
+				});
+	}
+
+	/**
+	 * Отправляет ресурсы напрямую, без журнала
+	 * @return future с количествами, подтвержденными API
+	 */
+	private CompletableFuture<Map<String, Integer>> send(Map<String, Integer> resourceCounts) {
+		// Все типы уходят одним запросом (или параллельно, если API не поддерживает пачки)
+		return apiClient.collectResources(serverUuid, resourceCounts)
+				.thenApply(results -> {
+					Map<String, Integer> sentCounts = new HashMap<>();
+					for (Map.Entry<String, Integer> entry : resourceCounts.entrySet()) {
+						String resourceType = entry.getKey();
+						int amount = entry.getValue();
+						ResourceCollectionResponse response = results.get(resourceType);
+						if (response != null && response.isSuccess()) {
+							LOGGER.info("Отправлено {} единиц {} (всего: {})", amount, resourceType, response.getCurrentAmount());
+							sentCounts.put(resourceType, amount);
+						} else {
+							LOGGER.warn("Не удалось отправить {} единиц {}", amount, resourceType);
+						}
+					}
+					return sentCounts;
+				})
+				.exceptionally(throwable -> {
+					Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+					LOGGER.error("Ошибка при отправке ресурсов: {}", cause.getMessage());
+					return new HashMap<>();
+				});
+	}
+
+	/**
+	 * Группирует предметы по типам ресурсов, учитывая только ресурсы с активной целью
+	 * @return Map resourceType -> суммарное количество
+	 */
+	static Map<String, Integer> countResources(ItemStack[] items, Set<String> allowedResources) {
 		Map<String, Integer> resourceCounts = new HashMap<>();
 
 		for (ItemStack stack : items) {
@@ -75,28 +508,16 @@ public class ResourceCollectionService {
 				}
 			}
 		}
+		return resourceCounts;
+	}
 
-		// Отправляем данные на API по одному типу за раз
-		Map<String, Integer> sentCounts = new HashMap<>();
-		for (Map.Entry<String, Integer> entry : resourceCounts.entrySet()) {
-			String resourceType = entry.getKey();
-			int amount = entry.getValue();
+	private static final class UnconfirmedDelta {
+		private final Map<String, Integer> amounts;
+		private final String idempotencyKey;
 
-			try {
-				// Ждем завершения (блокируем для синхронной обработки)
-				ResourceCollectionResponse response = apiClient.collectResource(serverUuid, resourceType, amount).join();
-				if (response != null && response.isSuccess()) {
-					LOGGER.info("Отправлено {} единиц {} (всего: {})", amount, resourceType, response.getCurrentAmount());
-					sentCounts.put(resourceType, amount);
-				} else {
-					LOGGER.warn("Не удалось отправить {} единиц {}", amount, resourceType);
-				}
-			} catch (Exception e) {
-				LOGGER.error("Ошибка при обработке ресурса {}: {}", resourceType, e.getMessage());
-			}
+		private UnconfirmedDelta(Map<String, Integer> amounts, String idempotencyKey) {
+			this.amounts = amounts;
+			this.idempotencyKey = idempotencyKey;
 		}
-
-		return sentCounts;
 	}
 }
-
@@ -21,6 +21,19 @@ public class ResourceGoal {
 	@SerializedName("is_active")
 	private boolean isActive;
 
+	public ResourceGoal() {
+		// Конструктор по умолчанию для Gson
+	}
+
+	ResourceGoal(String resourceType, String name, int currentAmount, int targetAmount, String goalId, boolean isActive) {
+		this.resourceType = resourceType;
+		this.name = name;
+		this.currentAmount = currentAmount;
+		this.targetAmount = targetAmount;
+		this.goalId = goalId;
+		this.isActive = isActive;
+	}
+
 	public String getResourceType() {
 		return resourceType;
 	}
@@ -54,6 +54,7 @@ public class ResourcePackManager {
 						LOGGER.warn("Не удалось получить информацию о сервере {}", serverId);
 						return;
 					}
+					LOGGER.debug("Ответов 304 на условные запросы к API: {}%", String.format("%.1f", apiClient.getNotModifiedPercentage()));
 
 					String currentHash = serverInfo.getResourcePackHash();
 					if (currentHash == null || currentHash.isEmpty()) {
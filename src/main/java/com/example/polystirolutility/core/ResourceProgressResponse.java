@@ -13,6 +13,16 @@ public class ResourceProgressResponse {
 	@SerializedName("resources")
 	private List<ResourceGoal> resources;
 
+	public ResourceProgressResponse() {
+		// Конструктор по умолчанию для Gson
+	}
+
+	ResourceProgressResponse(String serverId, String serverName, List<ResourceGoal> resources) {
+		this.serverId = serverId;
+		this.serverName = serverName;
+		this.resources = resources;
+	}
+
 	public String getServerId() {
 		return serverId;
 	}
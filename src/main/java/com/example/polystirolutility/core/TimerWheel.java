@@ -0,0 +1,131 @@
+package com.example.polystirolutility.core;
+
+import java.util.function.Consumer;
+
+/**
+ * Иерархическое колесо таймеров для истечения записей кэша.
+ * Записи раскладываются по корзинам в зависимости от времени истечения; при продвижении
+ * времени обрабатываются только корзины, через которые прошло время, поэтому стоимость
+ * очистки пропорциональна количеству истекших (и перенесенных на нижний уровень) записей,
+ * а не размеру кэша. Не потокобезопасен - вызывающий код должен держать блокировку.
+ */
+final class TimerWheel<K, V> {
+	// Ширина корзины на каждом уровне: ~1 с, ~65 с, ~70 мин, ~3 дня (в миллисекундах)
+	private static final int[] SHIFTS = {10, 16, 22, 28};
+	private static final int BUCKETS = 64;
+	private static final long BUCKET_MASK = BUCKETS - 1;
+
+	private final BoundedCache.Node<K, V>[][] wheel;
+	private long time;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	TimerWheel(long now) {
+		this.time = now;
+		this.wheel = new BoundedCache.Node[SHIFTS.length][BUCKETS];
+		for (BoundedCache.Node<K, V>[] level : wheel) {
+			for (int i = 0; i < level.length; i++) {
+				BoundedCache.Node<K, V> sentinel = new BoundedCache.Node<>(null, null, 0);
+				sentinel.prevInWheel = sentinel;
+				sentinel.nextInWheel = sentinel;
+				level[i] = sentinel;
+			}
+		}
+	}
+
+	/**
+	 * Добавляет запись в колесо по ее времени истечения
+	 */
+	void schedule(BoundedCache.Node<K, V> node) {
+		BoundedCache.Node<K, V> sentinel = findBucket(Math.max(node.deadline, time));
+		node.nextInWheel = sentinel;
+		node.prevInWheel = sentinel.prevInWheel;
+		sentinel.prevInWheel.nextInWheel = node;
+		sentinel.prevInWheel = node;
+	}
+
+	/**
+	 * Переносит запись в корзину, соответствующую новому времени истечения
+	 */
+	void reschedule(BoundedCache.Node<K, V> node) {
+		if (node.nextInWheel != null) {
+			unlink(node);
+		}
+		schedule(node);
+	}
+
+	/**
+	 * Убирает запись из колеса
+	 */
+	void deschedule(BoundedCache.Node<K, V> node) {
+		if (node.nextInWheel != null) {
+			unlink(node);
+		}
+	}
+
+	/**
+	 * Продвигает время колеса и вызывает onExpired для истекших записей
+	 * @param now текущее время в миллисекундах
+	 * @param onExpired обработчик истекшей записи (запись уже убрана из колеса)
+	 */
+	void advance(long now, Consumer<BoundedCache.Node<K, V>> onExpired) {
+		long previous = time;
+		if (now <= previous) {
+			return;
+		}
+		time = now;
+
+		for (int level = 0; level < SHIFTS.length; level++) {
+			long previousTicks = previous >>> SHIFTS[level];
+			long currentTicks = now >>> SHIFTS[level];
+			if (currentTicks <= previousTicks) {
+				// Если уровень не сдвинулся, старшие уровни тоже не сдвинулись
+				break;
+			}
+			expireLevel(level, previousTicks, currentTicks, onExpired);
+		}
+	}
+
+	private void expireLevel(int level, long previousTicks, long currentTicks, Consumer<BoundedCache.Node<K, V>> onExpired) {
+		BoundedCache.Node<K, V>[] buckets = wheel[level];
+		long steps = Math.min(currentTicks - previousTicks + 1, BUCKETS);
+		for (long i = 0; i < steps; i++) {
+			BoundedCache.Node<K, V> sentinel = buckets[(int) ((previousTicks + i) & BUCKET_MASK)];
+
+			// Отцепляем всю корзину и разбираем ее: истекшие записи удаляем, остальные опускаем на нижний уровень
+			BoundedCache.Node<K, V> node = sentinel.nextInWheel;
+			sentinel.prevInWheel = sentinel;
+			sentinel.nextInWheel = sentinel;
+
+			while (node != sentinel) {
+				BoundedCache.Node<K, V> next = node.nextInWheel;
+				node.prevInWheel = null;
+				node.nextInWheel = null;
+				if (node.deadline <= time) {
+					onExpired.accept(node);
+				} else {
+					schedule(node);
+				}
+				node = next;
+			}
+		}
+	}
+
+	private BoundedCache.Node<K, V> findBucket(long deadline) {
+		long duration = deadline - time;
+		int last = SHIFTS.length - 1;
+		for (int level = 0; level < last; level++) {
+			if (duration < 1L << SHIFTS[level + 1]) {
+				return wheel[level][(int) ((deadline >>> SHIFTS[level]) & BUCKET_MASK)];
+			}
+		}
+		// Слишком далекие сроки попадают на старший уровень и пересчитываются при его обработке
+		return wheel[last][(int) ((deadline >>> SHIFTS[last]) & BUCKET_MASK)];
+	}
+
+	private static <K, V> void unlink(BoundedCache.Node<K, V> node) {
+		node.prevInWheel.nextInWheel = node.nextInWheel;
+		node.nextInWheel.prevInWheel = node.prevInWheel;
+		node.prevInWheel = null;
+		node.nextInWheel = null;
+	}
+}
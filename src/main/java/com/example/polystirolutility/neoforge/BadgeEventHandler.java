@@ -1,6 +1,8 @@
 package com.example.polystirolutility.neoforge;
 
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,11 +21,20 @@ import net.neoforged.neoforge.event.entity.player.PlayerEvent;
 public class BadgeEventHandler {
 	private static final Logger LOGGER = LoggerFactory.getLogger(BadgeEventHandler.class);
 	private final BadgeService badgeService;
+	// Игроки на сервере: изменения бэйджиков из фонового обновления и подписки применяются к TAB только для них
+	private final Set<UUID> onlinePlayers = ConcurrentHashMap.newKeySet();
 	// Resource pack функционал отключен - будет управляться вручную через server.properties
 
 	public BadgeEventHandler(BadgeService badgeService) {
 		this.badgeService = badgeService;
 		// Resource pack функционал отключен - будет управляться вручную через server.properties
+
+		// Бэйджик изменился при фоновом обновлении кэша или по подписке - обновляем префикс в TAB
+		this.badgeService.setBadgeChangeListener((playerUuid, badge) -> {
+			if (onlinePlayers.contains(playerUuid)) {
+				TabIntegration.setPlayerPrefix(playerUuid, badge);
+			}
+		});
 	}
 
 	@SubscribeEvent
@@ -33,6 +44,7 @@ public class BadgeEventHandler {
 		}
 
 		UUID playerUuid = player.getUUID();
+		onlinePlayers.add(playerUuid);
 
 		// Resource pack функционал отключен - управляется вручную через server.properties
 
@@ -59,6 +71,7 @@ public class BadgeEventHandler {
 		}
 
 		UUID playerUuid = player.getUUID();
+		onlinePlayers.remove(playerUuid);
 		// Очищаем префикс при выходе
 		TabIntegration.setPlayerPrefix(playerUuid, null);
 		// Инвалидируем кэш для освобождения памяти
@@ -1,29 +1,66 @@
 package com.example.polystirolutility.neoforge;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.example.polystirolutility.core.ResourceCollectionService;
+import com.example.polystirolutility.core.ResourceTypeMapper;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.context.CommandContext;
 
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.Tag;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.storage.LevelResource;
 import net.neoforged.bus.api.SubscribeEvent;
 import net.neoforged.neoforge.event.entity.player.PlayerContainerEvent;
+import net.neoforged.neoforge.event.entity.player.PlayerEvent;
 
 public class ResourceCollectionCommands {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ResourceCollectionCommands.class);
+	// Сколько ждать ответа API на все отправки в пути при остановке сервера
+	private static final long SHUTDOWN_WAIT_SECONDS = 5;
+	private static final String PENDING_RETURNS_FILE = "polystirolutility-pending-returns.dat";
+
+	private final MinecraftServer server;
 	private ResourceCollectionService collectionService;
+	// Отправки, результат которых еще не применен
+	private final Set<Submission> inFlight = ConcurrentHashMap.newKeySet();
+	// Непринятые предметы игроков, вышедших во время отправки (только поток сервера).
+	// Хранятся в папке мира, чтобы пережить перезапуск сервера
+	private final Map<UUID, List<ItemStack>> pendingReturns = new HashMap<>();
+	private final Path pendingReturnsFile;
 
 	public ResourceCollectionCommands(MinecraftServer server, String serverUuid) {
+		this.server = server;
 		this.collectionService = null; // Будет инициализирован позже через setCollectionService
+		this.pendingReturnsFile = server.getWorldPath(LevelResource.ROOT).resolve(PENDING_RETURNS_FILE);
+		loadPendingReturns();
 	}
 
 	public void setCollectionService(ResourceCollectionService collectionService) {
@@ -33,6 +70,8 @@ public class ResourceCollectionCommands {
 	public void register(CommandDispatcher<CommandSourceStack> dispatcher) {
 		dispatcher.register(Commands.literal("collect")
 				.executes(this::openCollectGui)
+				.then(Commands.literal("stats")
+						.executes(this::showStats))
 		);
 	}
 
@@ -66,6 +105,38 @@ public class ResourceCollectionCommands {
 		return 1;
 	}
 
+	private int showStats(CommandContext<CommandSourceStack> ctx) {
+		CommandSourceStack source = ctx.getSource();
+
+		if (!(source.getEntity() instanceof ServerPlayer player)) {
+			source.sendFailure(Component.literal("Эта команда доступна только игрокам"));
+			return 0;
+		}
+
+		if (collectionService == null) {
+			source.sendFailure(Component.literal("Функционал сбора ресурсов не настроен. Проверьте конфигурацию serverUuid."));
+			return 0;
+		}
+
+		Map<String, Long> contributions = collectionService.getPlayerContributions(player.getUUID());
+		if (contributions.isEmpty()) {
+			source.sendSuccess(() -> Component.literal("Вы еще не сдавали ресурсы с момента запуска сервера"), false);
+			return 1;
+		}
+
+		StringBuilder message = new StringBuilder("Ваш вклад с момента запуска сервера: ");
+		boolean first = true;
+		for (Map.Entry<String, Long> entry : contributions.entrySet()) {
+			if (!first) {
+				message.append(", ");
+			}
+			message.append(entry.getValue()).append(" ").append(entry.getKey());
+			first = false;
+		}
+		source.sendSuccess(() -> Component.literal(message.toString()), false);
+		return 1;
+	}
+
 	@SubscribeEvent
 	public void onContainerClose(PlayerContainerEvent.Close event) {
 		if (!(event.getEntity() instanceof ServerPlayer player)) {
@@ -73,89 +144,211 @@ public class ResourceCollectionCommands {
 		}
 
 		if (event.getContainer() instanceof ResourceCollectionMenu menu) {
-			// Обрабатываем предметы из контейнера
+			// Забираем предметы из контейнера на время отправки, чтобы их нельзя было потерять или продублировать
 			net.minecraft.world.SimpleContainer container = menu.getContainer();
-			
-			// Собираем все предметы из контейнера
-			ItemStack[] items = new ItemStack[container.getContainerSize()];
+			List<ItemStack> escrow = new ArrayList<>();
 			for (int i = 0; i < container.getContainerSize(); i++) {
-				items[i] = container.getItem(i).copy(); // Копируем, чтобы не потерять данные при очистке (хотя мы не очищаем сразу теперь)
+				ItemStack stack = container.getItem(i);
+				if (!stack.isEmpty()) {
+					escrow.add(stack);
+					container.setItem(i, ItemStack.EMPTY);
+				}
+			}
+			if (escrow.isEmpty()) {
+				return;
 			}
 
-			if (collectionService != null) {
-				// Обрабатываем и отправляем на API
-				Map<String, Integer> sentCounts = collectionService.processAndSendItems(items);
-				
-				if (!sentCounts.isEmpty()) {
-					StringBuilder message = new StringBuilder("Отправлено: ");
-					boolean first = true;
-					for (Map.Entry<String, Integer> entry : sentCounts.entrySet()) {
-						if (!first) {
-							message.append(", ");
-						}
-						message.append(entry.getValue()).append(" ").append(entry.getKey());
-						first = false;
-					}
-					player.sendSystemMessage(Component.literal(message.toString()));
-
-					// Удаляем ТОЛЬКО успешно отправленные предметы
-					for (int i = 0; i < container.getContainerSize(); i++) {
-						ItemStack stack = container.getItem(i);
-						if (!stack.isEmpty()) {
-							String type = com.example.polystirolutility.core.ResourceTypeMapper.getResourceType(stack.getItem());
-							if (type != null && sentCounts.containsKey(type)) {
-								// Пытаемся удалить количество, которое было отправлено
-								int sent = sentCounts.get(type);
-								int countInStack = stack.getCount();
-								
-								// У нас простой случай: API подтверждает только целые типы.
-								// Если в контейнере было 10 дерева в одном стаке и 5 в другом,
-								// sentCounts скажет "15". Нам нужно удалить 15 дерева из контейнера.
-								
-								if (sent > 0) {
-									int toRemove = Math.min(sent, countInStack);
-									stack.shrink(toRemove);
-									sentCounts.put(type, sent - toRemove); // Уменьшаем остаток для удаления
-									container.setItem(i, stack); // Обновляем слот (если стало 0, станет EMPTY)
-								}
-							}
-						}
-					}
-				} else {
-					player.sendSystemMessage(Component.literal("Нет ресурсов для отправки (или нет активных целей)"));
-				}
+			if (collectionService == null) {
+				LOGGER.warn("ResourceCollectionService не инициализирован");
+				player.sendSystemMessage(Component.literal("Ошибка: сервис не инициализирован"));
+				returnItems(player, escrow);
+				return;
+			}
 
-				// Оставшиеся предметы будут возвращены игроку автоматически, так как мы не удалили их из Container
-				// Однако, ResourceCollectionMenu.removed НЕ делает этого по умолчанию для SimpleContainer.
-				// Нам нужно вручную вернуть оставшиеся предметы игроку.
-				
-				for (int i = 0; i < container.getContainerSize(); i++) {
-					ItemStack stack = container.getItem(i);
-					if (!stack.isEmpty()) {
-						if (player.getInventory().add(stack)) {
-							// Успешно добавлено в инвентарь
-							container.setItem(i, ItemStack.EMPTY);
-						} else {
-							// Инвентарь полон, выбрасываем рядом
-							player.drop(stack, false);
-							container.setItem(i, ItemStack.EMPTY);
-						}
+			// Подсчет идет в потоке сервера, запрос к API - в фоне; результат применяется снова в потоке сервера
+			Submission submission = new Submission(player.getUUID(), escrow);
+			inFlight.add(submission);
+			player.sendSystemMessage(Component.literal("Ресурсы отправляются, результат придет в чат"));
+			submission.future = collectionService.submitItems(player.getUUID(), escrow.toArray(new ItemStack[0]));
+			submission.future.whenComplete((sentCounts, throwable) ->
+					server.execute(() -> settle(submission, sentCounts != null ? sentCounts : Map.of())));
+		}
+	}
+
+	@SubscribeEvent
+	public void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent event) {
+		if (!(event.getEntity() instanceof ServerPlayer player)) {
+			return;
+		}
+		List<ItemStack> items = pendingReturns.remove(player.getUUID());
+		if (items != null) {
+			player.sendSystemMessage(Component.literal("Возвращены ресурсы, не принятые при последней отправке"));
+			returnItems(player, items);
+			savePendingReturns();
+		}
+	}
+
+	/**
+	 * Вызывается при остановке сервера: дожидается отправок в пути (не дольше SHUTDOWN_WAIT_SECONDS на все)
+	 * и применяет их результат сразу, так как задачи в очереди сервера уже не выполнятся.
+	 * Предметы вышедших игроков сохраняются и вернутся им после перезапуска.
+	 */
+	public void shutdown() {
+		List<Submission> submissions = new ArrayList<>(inFlight);
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[submissions.size()];
+		for (int i = 0; i < futures.length; i++) {
+			futures[i] = submissions.get(i).future;
+		}
+		try {
+			CompletableFuture.allOf(futures).get(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException e) {
+			// Результат каждой отправки проверяется ниже
+		}
+		for (Submission submission : submissions) {
+			Map<String, Integer> sentCounts = Map.of();
+			if (submission.future.isDone() && !submission.future.isCompletedExceptionally()) {
+				sentCounts = submission.future.getNow(Map.of());
+			} else {
+				// Результат неизвестен: возвращаем предметы целиком
+				LOGGER.warn("Отправка ресурсов игрока {} не завершилась до остановки сервера", submission.playerUuid);
+			}
+			settle(submission, sentCounts);
+		}
+		if (!pendingReturns.isEmpty()) {
+			LOGGER.info("Ресурсы {} игроков, покинувших сервер во время отправки, будут возвращены при их следующем входе", pendingReturns.size());
+		}
+	}
+
+	/**
+	 * Применяет результат отправки в потоке сервера: списывает принятые предметы и возвращает остальные
+	 */
+	private void settle(Submission submission, Map<String, Integer> sentCounts) {
+		if (!submission.settled.compareAndSet(false, true)) {
+			return;
+		}
+		inFlight.remove(submission);
+
+		ServerPlayer player = server.getPlayerList().getPlayer(submission.playerUuid);
+		if (player != null) {
+			if (!sentCounts.isEmpty()) {
+				StringBuilder message = new StringBuilder("Отправлено: ");
+				boolean first = true;
+				for (Map.Entry<String, Integer> entry : sentCounts.entrySet()) {
+					if (!first) {
+						message.append(", ");
 					}
+					message.append(entry.getValue()).append(" ").append(entry.getKey());
+					first = false;
 				}
+				player.sendSystemMessage(Component.literal(message.toString()));
 			} else {
-				LOGGER.warn("ResourceCollectionService не инициализирован");
-				player.sendSystemMessage(Component.literal("Ошибка: сервис не инициализирован"));
-				
-				// Возвращаем все предметы
-				for (int i = 0; i < container.getContainerSize(); i++) {
-					ItemStack stack = container.getItem(i);
+				player.sendSystemMessage(Component.literal("Нет ресурсов для отправки (или нет активных целей)"));
+			}
+		}
+
+		// Удаляем ТОЛЬКО успешно отправленные предметы.
+		// API подтверждает только целые типы: если было 10 дерева в одном стаке и 5 в другом,
+		// sentCounts скажет "15", и списать нужно 15 дерева по всем стакам.
+		Map<String, Integer> toRemove = new HashMap<>(sentCounts);
+		List<ItemStack> remainder = new ArrayList<>();
+		for (ItemStack stack : submission.escrow) {
+			String type = ResourceTypeMapper.getResourceType(stack.getItem());
+			int left = type != null ? toRemove.getOrDefault(type, 0) : 0;
+			if (left > 0) {
+				int removed = Math.min(left, stack.getCount());
+				stack.shrink(removed);
+				toRemove.put(type, left - removed);
+			}
+			if (!stack.isEmpty()) {
+				remainder.add(stack);
+			}
+		}
+		if (remainder.isEmpty()) {
+			return;
+		}
+
+		if (player != null) {
+			returnItems(player, remainder);
+		} else {
+			// Игрок вышел, пока шла отправка: отдадим при следующем входе
+			pendingReturns.computeIfAbsent(submission.playerUuid, uuid -> new ArrayList<>()).addAll(remainder);
+			savePendingReturns();
+		}
+	}
+
+	private void loadPendingReturns() {
+		if (!Files.exists(pendingReturnsFile)) {
+			return;
+		}
+		try {
+			CompoundTag root = NbtIo.readCompressed(pendingReturnsFile, NbtAccounter.unlimitedHeap());
+			for (String key : root.getAllKeys()) {
+				List<ItemStack> items = new ArrayList<>();
+				ListTag list = root.getList(key, Tag.TAG_COMPOUND);
+				for (int i = 0; i < list.size(); i++) {
+					ItemStack stack = ItemStack.parseOptional(server.registryAccess(), list.getCompound(i));
 					if (!stack.isEmpty()) {
-						player.getInventory().add(stack); // Или drop
-						container.setItem(i, ItemStack.EMPTY);
+						items.add(stack);
 					}
 				}
+				if (!items.isEmpty()) {
+					pendingReturns.put(UUID.fromString(key), items);
+				}
 			}
+			LOGGER.info("Загружены невозвращенные ресурсы {} игроков", pendingReturns.size());
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.error("Не удалось прочитать невозвращенные ресурсы из {}: {}", pendingReturnsFile, e.getMessage());
 		}
 	}
-}
 
+	/**
+	 * Сохраняет невозвращенные предметы: сначала во временный файл, затем атомарно заменяет прежний
+	 */
+	private void savePendingReturns() {
+		try {
+			if (pendingReturns.isEmpty()) {
+				Files.deleteIfExists(pendingReturnsFile);
+				return;
+			}
+			CompoundTag root = new CompoundTag();
+			for (Map.Entry<UUID, List<ItemStack>> entry : pendingReturns.entrySet()) {
+				ListTag list = new ListTag();
+				for (ItemStack stack : entry.getValue()) {
+					list.add(stack.save(server.registryAccess()));
+				}
+				root.put(entry.getKey().toString(), list);
+			}
+			Path tempFile = pendingReturnsFile.resolveSibling(PENDING_RETURNS_FILE + ".tmp");
+			NbtIo.writeCompressed(root, tempFile);
+			Files.move(tempFile, pendingReturnsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOGGER.error("Не удалось сохранить невозвращенные ресурсы в {}: {}", pendingReturnsFile, e.getMessage());
+		}
+	}
+
+	private static void returnItems(ServerPlayer player, List<ItemStack> items) {
+		for (ItemStack stack : items) {
+			if (!player.getInventory().add(stack)) {
+				// Инвентарь полон, выбрасываем рядом
+				player.drop(stack, false);
+			}
+		}
+	}
+
+	/**
+	 * Предметы одного закрытия меню, ожидающие ответа API
+	 */
+	private static final class Submission {
+		private final UUID playerUuid;
+		private final List<ItemStack> escrow;
+		private final AtomicBoolean settled = new AtomicBoolean();
+		private volatile CompletableFuture<Map<String, Integer>> future;
+
+		private Submission(UUID playerUuid, List<ItemStack> escrow) {
+			this.playerUuid = playerUuid;
+			this.escrow = escrow;
+		}
+	}
+}
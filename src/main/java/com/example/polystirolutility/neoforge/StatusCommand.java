@@ -0,0 +1,56 @@
+package com.example.polystirolutility.neoforge;
+
+import com.example.polystirolutility.core.ApiTransport;
+import com.example.polystirolutility.core.BadgeApiClient;
+import com.example.polystirolutility.core.CircuitBreaker;
+import com.example.polystirolutility.core.RequestPriority;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.context.CommandContext;
+
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+
+/**
+ * Команда /polystirol status: состояние подключения к API для операторов сервера
+ */
+public class StatusCommand {
+	private final ApiTransport transport;
+	private final BadgeApiClient badgeApiClient;
+
+	public StatusCommand(ApiTransport transport, BadgeApiClient badgeApiClient) {
+		this.transport = transport;
+		this.badgeApiClient = badgeApiClient;
+	}
+
+	public void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+		dispatcher.register(Commands.literal("polystirol")
+			.requires(source -> source.hasPermission(2))
+			.then(Commands.literal("status")
+				.executes(this::execute)));
+	}
+
+	private int execute(CommandContext<CommandSourceStack> context) {
+		CommandSourceStack source = context.getSource();
+		CircuitBreaker breaker = transport.getCircuitBreaker();
+
+		source.sendSuccess(() -> Component.literal(String.format("API %s: %s, ошибок за 10 с: %.1f%%",
+				transport.getBaseUrl(), breaker.getState(), breaker.getFailurePercentage())), false);
+		source.sendSuccess(() -> Component.literal(String.format("Предохранитель: открывался %d раз, отклонено запросов: %d",
+				breaker.getOpenCount(), breaker.getRejectedCount())), false);
+		source.sendSuccess(() -> Component.literal(String.format("Запросы: выполняется %d из %d, в очереди %d/%d/%d (игроки/обычные/фоновые)",
+				transport.getInFlightCount(), transport.getConcurrencyLimit(),
+				transport.getQueuedCount(RequestPriority.INTERACTIVE),
+				transport.getQueuedCount(RequestPriority.NORMAL),
+				transport.getQueuedCount(RequestPriority.BACKGROUND))), false);
+		source.sendSuccess(() -> Component.literal(String.format("Всего запросов: %d, повторов: %d, неудачных: %d, истек срок: %d",
+				transport.getRequestCount(), transport.getRetryCount(), transport.getFailureCount(),
+				transport.getDeadlineExceededCount())), false);
+		if (badgeApiClient != null) {
+			source.sendSuccess(() -> Component.literal(String.format("Хеджирование бэйджиков: второй запрос %d раз, ответил первым %d раз, бюджет исчерпан %d раз",
+					badgeApiClient.getHedgedRequestCount(), badgeApiClient.getHedgeWinCount(),
+					badgeApiClient.getHedgeBudgetExhaustedCount())), false);
+		}
+		return 1;
+	}
+}